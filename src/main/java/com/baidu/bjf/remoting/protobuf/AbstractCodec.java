@@ -0,0 +1,309 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.baidu.bjf.remoting.protobuf.utils.MurmurHash3;
+import com.baidu.bjf.remoting.protobuf.utils.ParallelUtils;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Abstract codec which implements batch actions on top of {@link Codec#size(Object)},
+ * {@link Codec#writeTo(Object, CodedOutputStream)} and {@link Codec#readFrom(CodedInputStream)}. codecs created by
+ * {@link ProtobufProxy} extend this class, so batch actions are available by casting them.
+ *
+ * <pre>
+ * AbstractCodec&lt;Person&gt; codec = (AbstractCodec&lt;Person&gt;) ProtobufProxy.create(Person.class);
+ * byte[] bb = codec.encodeAll(persons);
+ * </pre>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public abstract class AbstractCodec<T> implements Codec<T> {
+
+    /**
+     * buffer size of output stream to compute fingerprint
+     */
+    private static final int FINGERPRINT_BUFFER_SIZE = 256;
+
+    /**
+     * marks threads which are doing canonical encoding
+     */
+    private static final ThreadLocal<Boolean> CANONICAL = new ThreadLocal<Boolean>();
+
+    /**
+     * Do batch encode action. Each object is written with a varint length prefix.
+     * 
+     * @param list target objects
+     * @return encoded byte array of all objects
+     * @throws IOException if any target object is invalid
+     */
+    public byte[] encodeAll(List<T> list) throws IOException {
+        return encodeAll(list, false);
+    }
+
+    /**
+     * Do batch encode action. Each object is written with a varint length prefix.
+     * 
+     * @param list target objects
+     * @param parallel true to compute sizes and write segments in parallel for large batch
+     * @return encoded byte array of all objects
+     * @throws IOException if any target object is invalid
+     */
+    public byte[] encodeAll(final List<T> list, boolean parallel) throws IOException {
+        if (list == null) {
+            throw new NullPointerException("Parameter list is null");
+        }
+        int count = list.size();
+        final int[] sizes = new int[count];
+
+        if (!parallel || !ParallelUtils.shouldParallel(count)) {
+            long total = computeSizes(list, sizes, 0, count);
+            byte[] result = new byte[checkTotalSize(total)];
+            writeSegment(list, sizes, 0, count, result, 0, result.length);
+            return result;
+        }
+
+        final int[] bounds = ParallelUtils.split(count);
+        int segments = bounds.length - 1;
+
+        // compute sizes of each segment in parallel
+        List<Callable<Long>> sizeTasks = new ArrayList<Callable<Long>>(segments);
+        for (int i = 0; i < segments; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            sizeTasks.add(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return computeSizes(list, sizes, from, to);
+                }
+            });
+        }
+        List<Long> segmentSizes = ParallelUtils.invokeAll(sizeTasks);
+
+        // prefix sum to get write offset of each segment
+        final int[] offsets = new int[segments + 1];
+        long total = 0;
+        for (int i = 0; i < segments; i++) {
+            offsets[i] = (int) total;
+            total += segmentSizes.get(i);
+            checkTotalSize(total);
+        }
+        offsets[segments] = (int) total;
+
+        final byte[] result = new byte[(int) total];
+        List<Callable<Void>> writeTasks = new ArrayList<Callable<Void>>(segments);
+        for (int i = 0; i < segments; i++) {
+            final int segment = i;
+            writeTasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    writeSegment(list, sizes, bounds[segment], bounds[segment + 1], result, offsets[segment],
+                            offsets[segment + 1] - offsets[segment]);
+                    return null;
+                }
+            });
+        }
+        ParallelUtils.invokeAll(writeTasks);
+        return result;
+    }
+
+    /**
+     * Do batch decode action from length delimited byte array
+     * 
+     * @param bytes encoded byte array by {@link #encodeAll(List)}
+     * @return decoded object list
+     * @throws IOException if byte array is invalid
+     */
+    public List<T> decodeAll(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            throw new NullPointerException("Parameter bytes is null");
+        }
+        return decodeAll(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Do batch decode action from length delimited byte buffer
+     * 
+     * @param buffer encoded bytes between position and limit
+     * @return decoded object list
+     * @throws IOException if byte buffer is invalid
+     */
+    public List<T> decodeAll(ByteBuffer buffer) throws IOException {
+        if (buffer == null) {
+            throw new NullPointerException("Parameter buffer is null");
+        }
+        if (buffer.hasArray()) {
+            return decodeAll(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return decodeAll(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Do batch decode action from length delimited byte array range
+     *
+     * @param bytes encoded byte array
+     * @param offset start offset
+     * @param length byte length to decode
+     * @return decoded object list
+     * @throws IOException if byte array is invalid
+     */
+    protected List<T> decodeAll(byte[] bytes, int offset, int length) throws IOException {
+        List<T> ret = new ArrayList<T>();
+        CodedInputStream input = CodedInputStream.newInstance(bytes, offset, length);
+        while (!input.isAtEnd()) {
+            int size = input.readRawVarint32();
+            final int oldLimit = input.pushLimit(size);
+            ret.add(readFrom(input));
+            input.checkLastTagWas(0);
+            input.popLimit(oldLimit);
+        }
+        return ret;
+    }
+
+    /**
+     * Do canonical encode action. fields are written in ascending field order, and unknown fields are merged in by
+     * field order. original bytes are never reused so the result only depends on field values. byte array of
+     * {@link EncodedMessage} is written as is.
+     * 
+     * @param t target object
+     * @return canonical encoded byte array
+     * @throws IOException if encode failed
+     */
+    public byte[] encodeCanonical(T t) throws IOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        Boolean old = CANONICAL.get();
+        CANONICAL.set(Boolean.TRUE);
+        try {
+            byte[] result = new byte[size(t)];
+            CodedOutputStream output = CodedOutputStream.newInstance(result);
+            writeTo(t, output);
+            output.checkNoSpaceLeft();
+            return result;
+        } finally {
+            if (old == null) {
+                CANONICAL.remove();
+            }
+        }
+    }
+
+    /**
+     * get 64-bit fingerprint of target object, which is 64-bit MurmurHash3 of canonical encoded bytes. canonical
+     * encoded bytes are streamed into hash function without materializing.
+     * 
+     * @param t target object
+     * @return 64-bit fingerprint
+     * @throws IOException if encode failed
+     * @see #encodeCanonical(Object)
+     */
+    public long fingerprint(T t) throws IOException {
+        return fingerprint128(t)[0];
+    }
+
+    /**
+     * get 128-bit fingerprint of target object, which is 128-bit MurmurHash3 of canonical encoded bytes.
+     * 
+     * @param t target object
+     * @return 128-bit fingerprint in two longs
+     * @throws IOException if encode failed
+     * @see #encodeCanonical(Object)
+     */
+    public long[] fingerprint128(T t) throws IOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        MurmurHash3.Hasher hasher = new MurmurHash3.Hasher(0);
+        Boolean old = CANONICAL.get();
+        CANONICAL.set(Boolean.TRUE);
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(hasher, FINGERPRINT_BUFFER_SIZE);
+            writeTo(t, output);
+            output.flush();
+        } finally {
+            if (old == null) {
+                CANONICAL.remove();
+            }
+        }
+        return hasher.hash128();
+    }
+
+    /**
+     * check if current thread is doing canonical encoding
+     * 
+     * @return true if in canonical mode
+     */
+    protected static boolean isCanonical() {
+        return CANONICAL.get() != null;
+    }
+
+    /**
+     * check if target object and all its nested messages are not modified since decoded, so its original bytes
+     * can be written directly.
+     *
+     * @param t target object
+     * @return true if original bytes can be reused
+     * @see OriginalBytesAware
+     */
+    protected boolean isUnmodified(T t) {
+        return false;
+    }
+
+    /**
+     * compute size of each object in range and total length delimited size.
+     */
+    private long computeSizes(List<T> list, int[] sizes, int from, int to) throws IOException {
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            T t = list.get(i);
+            if (t == null) {
+                throw new NullPointerException("Element at index " + i + " of list is null");
+            }
+            int size = size(t);
+            sizes[i] = size;
+            total += CodedOutputStream.computeRawVarint32Size(size) + size;
+        }
+        return total;
+    }
+
+    /**
+     * write objects in range to the exactly sized region of target byte array.
+     */
+    private void writeSegment(List<T> list, int[] sizes, int from, int to, byte[] result, int offset, int length)
+            throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(result, offset, length);
+        for (int i = from; i < to; i++) {
+            output.writeRawVarint32(sizes[i]);
+            writeTo(list.get(i), output);
+        }
+        output.checkNoSpaceLeft();
+    }
+
+    private static int checkTotalSize(long total) throws IOException {
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Encoded size " + total + " exceeds max byte array size.");
+        }
+        return (int) total;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Holder of large {@link FieldType#BYTES} field value which is streamed in chunks. On encode, value is read from a
+ * {@link StreamSource} of declared length, and on decode, value larger than spill threshold is written to a temp
+ * file instead of heap.
+ * <p>
+ * Payload is only kept out of heap if the message is streamed, e.g. written by
+ * {@link Codec#writeTo(Object, CodedOutputStream)} to a stream backed output and read by
+ * {@link Codec#readFrom(CodedInputStream)} from a stream backed input with enough size limit.
+ * {@link Codec#encode(Object)} and {@link Codec#decode(byte[])} still hold whole message in a byte array.
+ * </p>
+ * <p>
+ * Temp file of a spilled value is owned by the caller which decoded it, and is not removed automatically. Call
+ * {@link #delete()} once content is consumed, see {@link #isSpilled()}.
+ * </p>
+ *
+ * <pre>
+ * &#064;Protobuf(fieldType = FieldType.BYTES, order = 2)
+ * public Blob content;
+ * </pre>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public final class Blob {
+
+    /**
+     * default byte size above which decoded value is spilled to temp file
+     */
+    public static final long DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static volatile long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+
+    private static volatile File spillDirectory;
+
+    /**
+     * Source to open stream of blob content
+     */
+    public interface StreamSource {
+
+        /**
+         * open a new stream of content, it is closed after read
+         *
+         * @return input stream of content
+         * @throws IOException if failed to open
+         */
+        InputStream open() throws IOException;
+    }
+
+    private final long length;
+
+    private final byte[] bytes;
+
+    private final File file;
+
+    private final StreamSource source;
+
+    private Blob(long length, byte[] bytes, File file, StreamSource source) {
+        this.length = length;
+        this.bytes = bytes;
+        this.file = file;
+        this.source = source;
+    }
+
+    /**
+     * create blob from bytes in heap
+     *
+     * @param bytes content
+     * @return blob
+     */
+    public static Blob valueOf(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("Parameter bytes is null");
+        }
+        return new Blob(bytes.length, bytes, null, null);
+    }
+
+    /**
+     * create blob from stream source with declared length
+     *
+     * @param source source of content
+     * @param length declared byte length of content
+     * @return blob
+     */
+    public static Blob fromStream(StreamSource source, long length) {
+        if (source == null) {
+            throw new NullPointerException("Parameter source is null");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Param 'length' should not be negative.");
+        }
+        return new Blob(length, null, null, source);
+    }
+
+    /**
+     * create blob from file content
+     *
+     * @param file content file
+     * @return blob
+     */
+    public static Blob fromFile(File file) {
+        if (file == null) {
+            throw new NullPointerException("Parameter file is null");
+        }
+        return new Blob(file.length(), null, file, null);
+    }
+
+    /**
+     * @return byte length of content
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * check if content is kept in a file
+     *
+     * @return true if content is in file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return file holds content, or null if not in file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * open a new stream of content
+     *
+     * @return input stream of content
+     * @throws IOException if failed to open
+     */
+    public InputStream openStream() throws IOException {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        return source.open();
+    }
+
+    /**
+     * read whole content to a byte array, only for small content
+     *
+     * @return content bytes
+     * @throws IOException if failed to read
+     */
+    public byte[] toByteArray() throws IOException {
+        if (bytes != null) {
+            return bytes;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Blob length " + length + " exceeds max byte array size.");
+        }
+        byte[] result = new byte[(int) length];
+        InputStream is = openStream();
+        try {
+            int offset = 0;
+            while (offset < result.length) {
+                int n = is.read(result, offset, result.length - offset);
+                if (n < 0) {
+                    throw new IOException("Blob stream ended at " + offset + " of declared length " + length);
+                }
+                offset += n;
+            }
+        } finally {
+            is.close();
+        }
+        return result;
+    }
+
+    /**
+     * copy content to output stream in chunks
+     *
+     * @param os target output stream
+     * @throws IOException if failed to read or write
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        InputStream is = openStream();
+        try {
+            byte[] buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+            int n;
+            while ((n = is.read(buffer)) >= 0) {
+                os.write(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * delete spilled file of content. blob should not be read after deleted.
+     *
+     * @return true if file is deleted
+     */
+    public boolean delete() {
+        return file != null && file.delete();
+    }
+
+    /**
+     * get byte size above which decoded value is spilled to temp file
+     *
+     * @return spill threshold
+     */
+    public static long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * set byte size above which decoded value is spilled to temp file
+     *
+     * @param threshold spill threshold
+     */
+    public static void setSpillThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Param 'threshold' should not be negative.");
+        }
+        spillThreshold = threshold;
+    }
+
+    /**
+     * set directory of spilled temp files
+     *
+     * @param directory directory, or null to use default temp directory
+     */
+    public static void setSpillDirectory(File directory) {
+        spillDirectory = directory;
+    }
+
+    /**
+     * compute serialized size of blob field
+     *
+     * @param order field order
+     * @param blob field value
+     * @return serialized size
+     */
+    public static int computeSize(int order, Blob blob) {
+        long size = CodedOutputStream.computeTagSize(order) + CodedOutputStream.computeRawVarint64Size(blob.length)
+                + blob.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new RuntimeException("Blob length " + blob.length + " exceeds max message size.");
+        }
+        return (int) size;
+    }
+
+    /**
+     * write blob field in chunks, content should be exactly the declared length.
+     *
+     * @param output target output
+     * @param order field order
+     * @param blob field value
+     * @throws IOException if failed to read content or content length mismatches
+     */
+    public static void write(CodedOutputStream output, int order, Blob blob) throws IOException {
+        output.writeTag(order, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeRawVarint64(blob.length);
+        if (blob.bytes != null) {
+            output.writeRawBytes(blob.bytes);
+            return;
+        }
+        InputStream is = blob.openStream();
+        try {
+            byte[] buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(blob.length, 1))];
+            long remaining = blob.length;
+            while (remaining > 0) {
+                int n = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new IOException("Blob stream ended at " + (blob.length - remaining)
+                            + " of declared length " + blob.length);
+                }
+                output.writeRawBytes(buffer, 0, n);
+                remaining -= n;
+            }
+            if (is.read() >= 0) {
+                throw new IOException("Blob stream is longer than declared length " + blob.length);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * read blob field value, value above spill threshold is written to temp file in chunks. the caller owns the
+     * temp file and should {@link #delete()} it after use.
+     *
+     * @param input input positioned after field tag
+     * @return blob
+     * @throws IOException if failed to read or write temp file
+     */
+    public static Blob readFrom(CodedInputStream input) throws IOException {
+        int length = input.readRawVarint32();
+        if (length < 0) {
+            throw new IOException("Invalid blob length " + length);
+        }
+        if (length <= spillThreshold) {
+            return valueOf(input.readRawBytes(length));
+        }
+        File file = File.createTempFile("jprotobuf-blob", ".tmp", spillDirectory);
+        boolean success = false;
+        OutputStream os = new FileOutputStream(file);
+        try {
+            int remaining = length;
+            while (remaining > 0) {
+                int n = Math.min(CHUNK_SIZE, remaining);
+                os.write(input.readRawBytes(n));
+                remaining -= n;
+            }
+            success = true;
+        } finally {
+            os.close();
+            if (!success) {
+                file.delete();
+            }
+        }
+        return new Blob(length, null, file, null);
+    }
+}
@@ -20,6 +20,10 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -49,7 +53,7 @@ public class CodeGenerator {
     private static final Logger LOGGER = Logger.getLogger(CodeGenerator.class.getName());
 
     /**
-     * target fields which marked <code> @Protofuf </code> annotation
+     * target fields which marked <code> @Protofuf </code> annotation, sorted by field order
      */
     private List<FieldInfo> fields;
     
@@ -96,7 +100,13 @@ public class CodeGenerator {
      */
     public CodeGenerator(List<FieldInfo> fields, Class<?> cls) {
         super();
-        this.fields = fields;
+        // fields are always written in ascending field order, which is independent of declaration order
+        this.fields = new ArrayList<FieldInfo>(fields);
+        Collections.sort(this.fields, new Comparator<FieldInfo>() {
+            public int compare(FieldInfo o1, FieldInfo o2) {
+                return o1.getOrder() < o2.getOrder() ? -1 : (o1.getOrder() == o2.getOrder() ? 0 : 1);
+            }
+        });
         this.cls = cls;
     }
 
@@ -191,7 +201,7 @@ public class CodeGenerator {
         genPackageCode(code);
         genImportCode(code);
 
-        code.append("public class " + className + " implements com.baidu.bjf.remoting.protobuf.Codec");
+        code.append("public class " + className + " extends com.baidu.bjf.remoting.protobuf.AbstractCodec");
         code.append("<").append(cls.getName().replaceAll("\\$", ".")).append("> {\n");
 
         code.append(getEncodeMethodCode());
@@ -199,6 +209,9 @@ public class CodeGenerator {
         code.append(getSizeMethodCode());
         code.append(getWriteToMethodCode());
         code.append(getReadFromMethodCode());
+        if (isOriginalBytesAware()) {
+            code.append(getIsUnmodifiedMethodCode());
+        }
         code.append("}");
 
         return code.toString();
@@ -235,10 +248,16 @@ public class CodeGenerator {
         code.append(cls.getName().replaceAll("\\$", ".")).append(" ret = new ");
         code.append(cls.getName().replaceAll("\\$", ".")).append("();");
         code.append("CodedInputStream input = CodedInputStream.newInstance(bb, 0, bb.length);\n");
+        if (isUnknownFieldsAware()) {
+            code.append("UnknownFields __unknownFields = new UnknownFields();\n");
+        }
         code.append("try {\n");
         code.append("boolean done = false;\n");
         code.append("Codec codec = null;\n");
         code.append("while (!done) {\n");
+        if (isUnknownFieldsAware()) {
+            code.append("int __tagStart = input.getTotalBytesRead();\n");
+        }
         code.append("int tag = input.readTag();\n");
         code.append("if (tag == 0) { break;}\n");
 
@@ -281,7 +300,10 @@ public class CodeGenerator {
             } else {
                 express = "input.read" + t + "()";
             }
-            if (isList && field.getFieldType() == FieldType.OBJECT) {
+            if (field.getFieldType() == FieldType.OBJECT && getEncodedMessageType(field.getField()) != null) {
+                // keep encoded bytes of nested message
+                express = "new EncodedMessage(input.readRawBytes(input.readRawVarint32()))";
+            } else if (isList && field.getFieldType() == FieldType.OBJECT) {
                 Type type = field.getField().getGenericType();
                 if (type instanceof ParameterizedType) {
                     ParameterizedType ptype = (ParameterizedType) type;
@@ -307,10 +329,19 @@ public class CodeGenerator {
                             code.append(",").append(spath);
                             
                             code.append(");\n");
-                            code.append("int length = input.readRawVarint32();\n");
-                            code.append("final int oldLimit = input.pushLimit(length);\n");
-                            listTypeCheck = true;
-                            express = "(" + name + ") codec.readFrom(input)";
+                            if (field.isParallel()) {
+                                // read all continuous elements at once
+                                code.append("List __elements = CodedConstant.readObjectList(input, bb, tag, codec);\n");
+                                code.append("for (int __i = 0; __i < __elements.size(); __i++) {\n");
+                                code.append(getSetToField("ret", field.getField(), this.cls, 
+                                        "(" + name + ") __elements.get(__i)", isList));
+                                code.append(";\n}\n");
+                                code.append("continue;\n");
+                                code.append("}");
+                                continue;
+                            }
+                            express = getReadObjectCode(code, cls, name);
+                            listTypeCheck = !OriginalBytesAware.class.isAssignableFrom(cls);
                         }
                     }
 
@@ -331,13 +362,19 @@ public class CodeGenerator {
                 }
                 code.append(",").append(spath);
                 code.append(");\n");
-                code.append("int length = input.readRawVarint32();\n");
-                code.append("final int oldLimit = input.pushLimit(length);\n");
-                listTypeCheck = true;
-                express = "(" + name + ") codec.readFrom(input)";
+                express = getReadObjectCode(code, cls, name);
+                listTypeCheck = !OriginalBytesAware.class.isAssignableFrom(cls);
             }
 
-            if (field.getFieldType() == FieldType.BYTES) {
+            if (field.isCompressed()) {
+                express = getDecompressCode(field);
+            } else if (field.isDedup()) {
+                express = "com.baidu.bjf.remoting.protobuf.utils.StringPool.readString(input, bb)";
+            } else if (field.isBlob()) {
+                express = "Blob.readFrom(input)";
+            } else if (field.isByteBuffer()) {
+                express = "CodedConstant.readByteBuffer(input, bb)";
+            } else if (field.getFieldType() == FieldType.BYTES) {
                 express += ".toByteArray()";
             }
 
@@ -355,7 +392,13 @@ public class CodeGenerator {
 
         }
 
-        code.append("input.skipField(tag);\n");
+        if (isUnknownFieldsAware()) {
+            // keep byte range of unknown field
+            code.append("input.skipField(tag);\n");
+            code.append("__unknownFields.addRange(bb, __tagStart, input.getTotalBytesRead());\n");
+        } else {
+            code.append("input.skipField(tag);\n");
+        }
         code.append("}");
         code.append("} catch (com.google.protobuf.InvalidProtocolBufferException e) {");
         code.append("throw e;");
@@ -371,6 +414,13 @@ public class CodeGenerator {
 
         }
 
+        if (isUnknownFieldsAware()) {
+            code.append("ret.setUnknownFields(__unknownFields.toByteArray());\n");
+        }
+        if (isOriginalBytesAware()) {
+            // set at last as setters will clear original bytes, a copy is kept as caller may reuse the array
+            code.append("ret.setOriginalBytes((byte[]) bb.clone());\n");
+        }
         code.append("return ret;\n");
 
         code.append("}\n");
@@ -390,6 +440,9 @@ public class CodeGenerator {
                 .append(" readFrom(CodedInputStream input) throws IOException {\n");
         code.append(cls.getName().replaceAll("\\$", ".")).append(" ret = new ");
         code.append(cls.getName().replaceAll("\\$", ".")).append("();");
+        if (isUnknownFieldsAware()) {
+            code.append("UnknownFields __unknownFields = new UnknownFields();\n");
+        }
         code.append("try {\n");
         code.append("boolean done = false;\n");
         code.append("Codec codec = null;\n");
@@ -438,7 +491,10 @@ public class CodeGenerator {
                 express = "input.read" + t + "()";
             }
             
-            if (isList && field.getFieldType() == FieldType.OBJECT) {
+            if (field.getFieldType() == FieldType.OBJECT && getEncodedMessageType(field.getField()) != null) {
+                // keep encoded bytes of nested message
+                express = "new EncodedMessage(input.readRawBytes(input.readRawVarint32()))";
+            } else if (isList && field.getFieldType() == FieldType.OBJECT) {
                 Type type = field.getField().getGenericType();
                 if (type instanceof ParameterizedType) {
                     ParameterizedType ptype = (ParameterizedType) type;
@@ -463,10 +519,8 @@ public class CodeGenerator {
                             }
                             code.append(",").append(spath);
                             code.append(");\n");
-                            code.append("int length = input.readRawVarint32();\n");
-                            code.append("final int oldLimit = input.pushLimit(length);\n");
-                            listTypeCheck = true;
-                            express = "(" + name + ") codec.readFrom(input)";
+                            express = getReadObjectCode(code, cls, name);
+                            listTypeCheck = !OriginalBytesAware.class.isAssignableFrom(cls);
                         }
                     }
 
@@ -488,13 +542,19 @@ public class CodeGenerator {
                 code.append(",").append(spath);
                 code.append(");\n");
                 
-                code.append("int length = input.readRawVarint32();\n");
-                code.append("final int oldLimit = input.pushLimit(length);\n");
-                listTypeCheck = true;
-                express = "(" + name + ") codec.readFrom(input)";
+                express = getReadObjectCode(code, cls, name);
+                listTypeCheck = !OriginalBytesAware.class.isAssignableFrom(cls);
             }
 
-            if (field.getFieldType() == FieldType.BYTES) {
+            if (field.isCompressed()) {
+                express = getDecompressCode(field);
+            } else if (field.isDedup()) {
+                express = "com.baidu.bjf.remoting.protobuf.utils.StringPool.readString(input, null)";
+            } else if (field.isBlob()) {
+                express = "Blob.readFrom(input)";
+            } else if (field.isByteBuffer()) {
+                express = "CodedConstant.readByteBuffer(input, null)";
+            } else if (field.getFieldType() == FieldType.BYTES) {
                 express += ".toByteArray()";
             }
 
@@ -512,7 +572,11 @@ public class CodeGenerator {
 
         }
 
-        code.append("input.skipField(tag);\n");
+        if (isUnknownFieldsAware()) {
+            code.append("__unknownFields.copyField(tag, input);\n");
+        } else {
+            code.append("input.skipField(tag);\n");
+        }
         code.append("}");
         code.append("} catch (com.google.protobuf.InvalidProtocolBufferException e) {");
         code.append("throw e;");
@@ -528,6 +592,9 @@ public class CodeGenerator {
 
         }
 
+        if (isUnknownFieldsAware()) {
+            code.append("ret.setUnknownFields(__unknownFields.toByteArray());\n");
+        }
         code.append("return ret;\n");
 
         code.append("}\n");
@@ -535,6 +602,79 @@ public class CodeGenerator {
         return code.toString();
     }
 
+    /**
+     * generate nested message read code. if type of message implements {@link OriginalBytesAware} it is decoded
+     * from a copy of its own bytes, which are kept as original bytes.
+     * 
+     * @param code
+     *            code to append to
+     * @param type
+     *            message type
+     * @param name
+     *            message class name
+     * @return read expression
+     */
+    private String getReadObjectCode(StringBuilder code, Class<?> type, String name) {
+        code.append("int length = input.readRawVarint32();\n");
+        if (OriginalBytesAware.class.isAssignableFrom(type)) {
+            code.append("byte[] __raw = input.readRawBytes(length);\n");
+            return "(" + name + ") CodedConstant.readOriginalBytesAware(codec, __raw)";
+        }
+        code.append("final int oldLimit = input.pushLimit(length);\n");
+        return "(" + name + ") codec.readFrom(input)";
+    }
+
+    /**
+     * generate compressed field read expression. {@link CompressedValue} keeps encoded bytes to decompress lazily.
+     * 
+     * @param field
+     *            compressed field
+     * @return read expression
+     */
+    private String getDecompressCode(FieldInfo field) {
+        String read = "input.readBytes().toByteArray()";
+        Class<?> type = field.getField().getType();
+        if (type == CompressedValue.class) {
+            return "CompressedValue.fromEncoded(" + read + ")";
+        }
+        String compressor = "com.baidu.bjf.remoting.protobuf.compress.FieldCompressor";
+        if (type == String.class) {
+            return compressor + ".decompressString(" + read + ")";
+        }
+        return compressor + ".decompress(" + read + ")";
+    }
+
+    /**
+     * get message type of {@link EncodedMessage} field, or element type of {@link EncodedMessage} list field.
+     * 
+     * @param field
+     * @return message type, {@link Object} if not specified, or null if type of field is not {@link EncodedMessage}
+     */
+    public static Class<?> getEncodedMessageType(Field field) {
+        Type type = field.getGenericType();
+        if (isListType(field)) {
+            if (!(type instanceof ParameterizedType)) {
+                return null;
+            }
+            Type[] actualTypeArguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (actualTypeArguments == null || actualTypeArguments.length == 0) {
+                return null;
+            }
+            type = actualTypeArguments[0];
+        }
+        if (type == EncodedMessage.class) {
+            return Object.class;
+        }
+        if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == EncodedMessage.class) {
+            Type messageType = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (messageType instanceof Class) {
+                return (Class<?>) messageType;
+            }
+            return Object.class;
+        }
+        return null;
+    }
+
     /**
      * To check if type of {@link Field} is assignable from {@link List}
      * 
@@ -562,6 +702,12 @@ public class CodeGenerator {
         if (type == FieldType.OBJECT || type == FieldType.ENUM) {
             return;
         }
+        if (cls == CompressedValue.class && (type == FieldType.STRING || type == FieldType.BYTES)) {
+            return;
+        }
+        if ((cls == Blob.class || cls == ByteBuffer.class) && type == FieldType.BYTES) {
+            return;
+        }
 
         String javaType = type.getJavaType();
         if ("Integer".equals(javaType)) {
@@ -598,6 +744,10 @@ public class CodeGenerator {
         // encode method
         code.append("public byte[] encode(").append(cls.getName().replaceAll("\\$", "."));
         code.append(" t) throws IOException {\n");
+        if (isOriginalBytesAware()) {
+            code.append("if (!isCanonical() && isUnmodified(t)) {\n");
+            code.append("return (byte[]) t.getOriginalBytes().clone();\n}\n");
+        }
         code.append("int size = 0;");
         for (FieldInfo field : fields) {
 
@@ -613,7 +763,7 @@ public class CodeGenerator {
                         + field.getField().getName() + " already exsit.");
             }
             // define field
-            code.append(CodedConstant.getMappedTypeDefined(field.getOrder(), field.getFieldType(),
+            code.append(CodedConstant.getMappedTypeDefined(field, field.getOrder(), field.getFieldType(),
                     getAccessByField("t", field.getField(), cls), isList));
             // compute size
             code.append("if (!CodedConstant.isNull(").append(getAccessByField("t", field.getField(), cls))
@@ -627,13 +777,19 @@ public class CodeGenerator {
             }
         }
 
+        if (isUnknownFieldsAware()) {
+            code.append(getUnknownFieldsSizeCode());
+        }
         code.append("final byte[] result = new byte[size];\n");
         code.append("final CodedOutputStream output = CodedOutputStream.newInstance(result);\n");
         for (FieldInfo field : fields) {
             boolean isList = isListType(field.getField());
             // set write to byte
             code.append(CodedConstant.getMappedWriteCode(field, "output", field.getOrder(), 
-                    field.getFieldType(), isList));
+                    field.getFieldType(), isList, debug, outputPath));
+        }
+        if (isUnknownFieldsAware()) {
+            code.append(getUnknownFieldsWriteCode());
         }
 
         code.append("return result;\n");
@@ -653,6 +809,10 @@ public class CodeGenerator {
         // encode method
         code.append("public void writeTo(").append(cls.getName().replaceAll("\\$", "."))
                 .append(" t, CodedOutputStream output) throws IOException {\n");
+        if (isOriginalBytesAware()) {
+            code.append("if (!isCanonical() && isUnmodified(t)) {\n");
+            code.append("output.writeRawBytes(t.getOriginalBytes());\nreturn;\n}\n");
+        }
         for (FieldInfo field : fields) {
 
             boolean isList = isListType(field.getField());
@@ -667,18 +827,39 @@ public class CodeGenerator {
                         + field.getField().getName() + " already exsit.");
             }
             // define field
-            code.append(CodedConstant.getMappedTypeDefined(field.getOrder(), field.getFieldType(),
-                    getAccessByField("t", field.getField(), cls), isList));
+            code.append(CodedConstant.getMappedTypeDefined(field, field.getOrder(), field.getFieldType(),
+                    getAccessByField("t", field.getField(), cls), isList, "compressForWrite"));
             if (field.isRequired()) {
                 code.append(CodedConstant.getRequiredCheck(field.getOrder(), field.getField()));
             }
         }
 
+        if (isUnknownFieldsAware()) {
+            // unknown fields are merged by field order in canonical mode
+            code.append("int[] __unknownRanges = null;\n");
+            code.append("int __unknownIndex = 0;\n");
+            code.append("if (isCanonical() && t.getUnknownFields() != null) {\n");
+            code.append("__unknownRanges = UnknownFields.sortFields(t.getUnknownFields());\n");
+            code.append("}\n");
+        }
         for (FieldInfo field : fields) {
             boolean isList = isListType(field.getField());
+            if (isUnknownFieldsAware()) {
+                code.append("if (__unknownRanges != null) {\n");
+                code.append("__unknownIndex = UnknownFields.writeFieldsBefore(output, t.getUnknownFields(), ");
+                code.append("__unknownRanges, __unknownIndex, ").append(field.getOrder()).append(");\n");
+                code.append("}\n");
+            }
             // set write to byte
             code.append(CodedConstant.getMappedWriteCode(field, "output", 
-                    field.getOrder(), field.getFieldType(), isList));
+                    field.getOrder(), field.getFieldType(), isList, debug, outputPath));
+        }
+        if (isUnknownFieldsAware()) {
+            code.append("if (__unknownRanges != null) {\n");
+            code.append("UnknownFields.writeFieldsBefore(output, t.getUnknownFields(), ");
+            code.append("__unknownRanges, __unknownIndex, Integer.MAX_VALUE);\n");
+            code.append("} else ");
+            code.append(getUnknownFieldsWriteCode());
         }
 
         code.append("}\n");
@@ -697,6 +878,9 @@ public class CodeGenerator {
         // encode method
         code.append("public int size(").append(cls.getName().replaceAll("\\$", "."));
         code.append(" t) throws IOException {\n");
+        if (isOriginalBytesAware()) {
+            code.append("if (!isCanonical() && isUnmodified(t)) {\nreturn t.getOriginalBytes().length;\n}\n");
+        }
         code.append("int size = 0;");
         for (FieldInfo field : fields) {
 
@@ -712,8 +896,8 @@ public class CodeGenerator {
                         + field.getField().getName() + " already exsit.");
             }
             // define field
-            code.append(CodedConstant.getMappedTypeDefined(field.getOrder(), field.getFieldType(),
-                    getAccessByField("t", field.getField(), cls), isList));
+            code.append(CodedConstant.getMappedTypeDefined(field, field.getOrder(), field.getFieldType(),
+                    getAccessByField("t", field.getField(), cls), isList, "compressForSize"));
             // compute size
             code.append("if (!CodedConstant.isNull(").append(getAccessByField("t", field.getField(), cls))
                     .append("))\n");
@@ -726,12 +910,79 @@ public class CodeGenerator {
             }
         }
 
+        if (isUnknownFieldsAware()) {
+            code.append(getUnknownFieldsSizeCode());
+        }
         code.append("return size;\n");
         code.append("}\n");
 
         return code.toString();
     }
 
+    /**
+     * check if target class keeps unknown fields
+     * 
+     * @return true if target class implements {@link UnknownFieldsAware}
+     */
+    private boolean isUnknownFieldsAware() {
+        return UnknownFieldsAware.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * check if target class remembers original bytes
+     * 
+     * @return true if target class implements {@link OriginalBytesAware}
+     */
+    private boolean isOriginalBytesAware() {
+        return OriginalBytesAware.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * generate <code>isUnmodified</code> method source code. target object is unmodified if it has original
+     * bytes and all nested messages are unmodified.
+     * 
+     * @return source code
+     */
+    private String getIsUnmodifiedMethodCode() {
+        StringBuilder code = new StringBuilder();
+        code.append("protected boolean isUnmodified(").append(cls.getName().replaceAll("\\$", "."));
+        code.append(" t) {\n");
+        code.append("if (t.getOriginalBytes() == null) {\nreturn false;\n}\n");
+        for (FieldInfo field : fields) {
+            if (field.getFieldType() != FieldType.OBJECT) {
+                continue;
+            }
+            String access = getAccessByField("t", field.getField(), cls);
+            if (isListType(field.getField())) {
+                code.append("if (!CodedConstant.isUnmodifiedList(").append(access).append(")) {\n");
+            } else {
+                code.append("if (!CodedConstant.isUnmodified(").append(access).append(")) {\n");
+            }
+            code.append("return false;\n}\n");
+        }
+        code.append("return true;\n");
+        code.append("}\n");
+        return code.toString();
+    }
+
+    /**
+     * get unknown fields size compute source code
+     * 
+     * @return source code
+     */
+    private String getUnknownFieldsSizeCode() {
+        return "if (t.getUnknownFields() != null) {\nsize += t.getUnknownFields().length;\n}\n";
+    }
+
+    /**
+     * get unknown fields write source code, unknown fields are appended verbatim
+     * 
+     * @return source code
+     */
+    private String getUnknownFieldsWriteCode() {
+        return "if (t.getUnknownFields() != null) {\noutput.writeRawBytes(t.getUnknownFields());\n}\n";
+    }
+
     /**
      * get field access code
      * 
@@ -18,11 +18,17 @@ package com.baidu.bjf.remoting.protobuf;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import com.baidu.bjf.remoting.protobuf.compress.FieldCompressor;
 import com.baidu.bjf.remoting.protobuf.utils.FieldInfo;
+import com.baidu.bjf.remoting.protobuf.utils.ParallelUtils;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.WireFormat;
 
@@ -34,6 +40,11 @@ import com.google.protobuf.WireFormat;
  */
 public class CodedConstant {
 
+    /**
+     * chunk size to copy direct {@link ByteBuffer} field value
+     */
+    private static final int BYTE_BUFFER_CHUNK_SIZE = 8192;
+
     /**
      * get field name
      * 
@@ -46,6 +57,80 @@ public class CodedConstant {
         return fieldName;
     }
 
+    /**
+     * get mapped type defined java expression. value of compressed field is defined as compressed bytes, and
+     * value of UTF-8 cached field is defined as cached bytes.
+     * 
+     * @param field
+     *            field info
+     * @param order
+     *            field order
+     * @param type
+     *            field type
+     * @param express
+     *            java expression
+     * @param isList
+     *            is field type is a {@link List}
+     * @return full java expression
+     */
+    public static String getMappedTypeDefined(FieldInfo field, int order, FieldType type, String express,
+            boolean isList) {
+        return getMappedTypeDefined(field, order, type, express, isList, "compress");
+    }
+
+    /**
+     * get mapped type defined java expression. value of compressed field is defined by the given method of
+     * {@link com.baidu.bjf.remoting.protobuf.compress.FieldCompressor}, so <code>size</code> and
+     * <code>writeTo</code> of generated codec share the compressed bytes of one encode.
+     * 
+     * @param field
+     *            field info
+     * @param order
+     *            field order
+     * @param type
+     *            field type
+     * @param express
+     *            java expression
+     * @param isList
+     *            is field type is a {@link List}
+     * @param compressMethod
+     *            method name of FieldCompressor to compress field value
+     * @return full java expression
+     */
+    public static String getMappedTypeDefined(FieldInfo field, int order, FieldType type, String express,
+            boolean isList, String compressMethod) {
+        if (field.isBlob()) {
+            // blob is streamed on write
+            String fieldName = getFieldName(order);
+            return "Blob " + fieldName + "=" + express + ";\n";
+        }
+        if (field.isByteBuffer()) {
+            String fieldName = getFieldName(order);
+            return "java.nio.ByteBuffer " + fieldName + "=" + express + ";\n";
+        }
+        if (field.isUtf8Cache()) {
+            // cached bytes are shared as ByteString is immutable
+            String fieldName = getFieldName(order);
+            String code = "com.google.protobuf.ByteString " + fieldName + "=null;\n";
+            code += "if (!CodedConstant.isNull(" + express + ")) {\n";
+            code += fieldName + " = com.baidu.bjf.remoting.protobuf.utils.Utf8Cache.encode(" + express + ");\n";
+            code += "}";
+            return code;
+        }
+        if (!field.isCompressed()) {
+            return getMappedTypeDefined(order, type, express, isList);
+        }
+        // compressed value is written as bytes
+        String fieldName = getFieldName(order);
+        String code = "com.google.protobuf.ByteString " + fieldName + "=null;\n";
+        code += "if (!CodedConstant.isNull(" + express + ")) {\n";
+        code += fieldName + " = com.google.protobuf.ByteString.copyFrom(";
+        code += "com.baidu.bjf.remoting.protobuf.compress.FieldCompressor." + compressMethod + "(" + express + ", ";
+        code += field.getCompressThreshold() + "));\n";
+        code += "}";
+        return code;
+    }
+
     /**
      * get mapped type defined java expression.
      * 
@@ -112,10 +197,21 @@ public class CodedConstant {
         
         if (isList) {
             String typeString = type.getType().toUpperCase();
+            if (field.isParallel() && type == FieldType.OBJECT) {
+                return "CodedConstant.computeListSize(" + order + "," + fieldName + ", FieldType." 
+                        + typeString + "," + Boolean.valueOf(debug) + "," + spath + ", true);\n";
+            }
             return "CodedConstant.computeListSize(" + order + "," + fieldName + ", FieldType." 
                     + typeString + "," + Boolean.valueOf(debug) + "," + spath + ");\n";
         }
 
+        if (field.isBlob()) {
+            return "Blob.computeSize(" + order + "," + fieldName + ");\n";
+        }
+        if (field.isByteBuffer()) {
+            return "CodedConstant.computeByteBufferSize(" + order + "," + fieldName + ");\n";
+        }
+
         if (type == FieldType.OBJECT) {
             String typeString = type.getType().toUpperCase();
             return "CodedConstant.computeSize(" + order + "," + fieldName + ", FieldType." + typeString + "," 
@@ -169,6 +265,128 @@ public class CodedConstant {
         return size;
     }
 
+    /**
+     * get list type field serialized size. large {@link FieldType#OBJECT} list is computed in parallel if
+     * parallel is true.
+     * 
+     * @param order
+     *            field order
+     * @param list
+     *            field value
+     * @param type
+     *            field type of list object
+     * @param parallel
+     *            true to enable parallel mode
+     * @return serialized size
+     */
+    public static int computeListSize(final int order, final List list, FieldType type, final boolean debug,
+            final File path, boolean parallel) {
+        // canonical mode is bound to current thread, so it always runs in serial
+        if (!parallel || AbstractCodec.isCanonical() || type != FieldType.OBJECT || list == null
+                || !ParallelUtils.shouldParallel(list.size())) {
+            return computeListSize(order, list, type, debug, path);
+        }
+        try {
+            long size = computeElementSizes(order, list, debug, path).total();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Encoded size " + size + " exceeds max byte array size.");
+            }
+            return (int) size;
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * compute message size of each element of list in parallel segments.
+     * 
+     * @return element sizes and serialized size of each segment
+     * @throws IOException if any target object is invalid
+     */
+    private static ListSizes computeElementSizes(final int order, final List list, final boolean debug,
+            final File path) throws IOException {
+        // create element codec in caller thread before tasks are fanned out
+        final Class elementCls = getElementClass(list);
+        final Codec codec = elementCls == null ? null : ProtobufProxy.create(elementCls, debug, path);
+        final int[] bounds = ParallelUtils.split(list.size());
+        final int[] sizes = new int[list.size()];
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            tasks.add(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return computeObjectSizes(order, list, from, to, sizes, elementCls, codec, debug, path);
+                }
+            });
+        }
+        List<Long> segmentSizes = ParallelUtils.invokeAll(tasks);
+        long[] segments = new long[segmentSizes.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = segmentSizes.get(i);
+        }
+        return new ListSizes(bounds, sizes, segments, elementCls, codec);
+    }
+
+    /**
+     * get class of the first message element in list.
+     * 
+     * @param list target object list
+     * @return class of element, or null if list has no message element
+     */
+    private static Class getElementClass(List list) {
+        for (Object o : list) {
+            if (o != null && !(o instanceof EncodedMessage)) {
+                return o.getClass();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * compute serialized size of objects in a segment of list.
+     * 
+     * @param order field order
+     * @param list target object list
+     * @param from start index of segment
+     * @param to end index of segment, exclusive
+     * @param sizes to store message size of each object by its list index, -1 for null element, may be null
+     * @param elementCls class of element which codec is created for
+     * @param codec codec of element class
+     * @return total serialized size include tag and length
+     * @throws IOException if any target object is invalid
+     */
+    private static long computeObjectSizes(int order, List list, int from, int to, int[] sizes, Class elementCls,
+            Codec codec, boolean debug, File path) throws IOException {
+        int tagSize = CodedOutputStream.computeTagSize(order);
+        long total = 0;
+        for (int j = from; j < to; j++) {
+            Object o = list.get(j);
+            int size;
+            if (o == null) {
+                size = -1;
+            } else if (o instanceof EncodedMessage) {
+                size = ((EncodedMessage) o).size();
+            } else {
+                size = getCodec(o, elementCls, codec, debug, path).size(o);
+            }
+            if (sizes != null) {
+                sizes[j] = size;
+            }
+            if (size >= 0) {
+                total += tagSize + CodedOutputStream.computeRawVarint32Size(size) + size;
+            }
+        }
+        return total;
+    }
+
+    private static Codec getCodec(Object o, Class elementCls, Codec codec, boolean debug, File path) {
+        if (o.getClass() == elementCls) {
+            return codec;
+        }
+        return ProtobufProxy.create(o.getClass(), debug, path);
+    }
+
     /**
      * get object size by {@link FieldType}
      * 
@@ -195,6 +413,11 @@ public class CodedConstant {
         }
 
         if (type == FieldType.OBJECT) {
+            if (o instanceof EncodedMessage) {
+                size = ((EncodedMessage) o).size();
+                size = size + CodedOutputStream.computeRawVarint32Size(size);
+                return size + CodedOutputStream.computeTagSize(order);
+            }
             Class cls = o.getClass();
             Codec target = ProtobufProxy.create(cls, debug, path);
             try {
@@ -211,8 +434,15 @@ public class CodedConstant {
         } else if (type == FieldType.BOOL) {
             size = CodedOutputStream.computeBoolSizeNoTag(Boolean.valueOf(String.valueOf(o)));
         } else if (type == FieldType.BYTES) {
-            byte[] bb = (byte[]) o;
-            size = CodedOutputStream.computeBytesSizeNoTag(ByteString.copyFrom(bb));
+            if (o instanceof ByteBuffer) {
+                int length = ((ByteBuffer) o).remaining();
+                size = CodedOutputStream.computeRawVarint32Size(length) + length;
+            } else if (o instanceof Blob) {
+                size = Blob.computeSize(order, (Blob) o) - CodedOutputStream.computeTagSize(order);
+            } else {
+                byte[] bb = (byte[]) o;
+                size = CodedOutputStream.computeBytesSizeNoTag(ByteString.copyFrom(bb));
+            }
         } else if (type == FieldType.DOUBLE) {
             size = CodedOutputStream.computeDoubleSizeNoTag(Double.valueOf(o.toString()));
         } else if (type == FieldType.FIXED32 || type == FieldType.INT32 || type == FieldType.SFIXED32
@@ -244,6 +474,24 @@ public class CodedConstant {
      * @return full java expression
      */
     public static String getMappedWriteCode(FieldInfo field, String prefix, int order, FieldType type, boolean isList) {
+        return getMappedWriteCode(field, prefix, order, type, isList, false, null);
+    }
+
+    /**
+     * get mapped object byte write java expression
+     * 
+     * @param order
+     *            field order
+     * @param type
+     *            field type
+     * @param debug
+     *            debug flag of nested codecs
+     * @param path
+     *            output path of nested codecs, may be null
+     * @return full java expression
+     */
+    public static String getMappedWriteCode(FieldInfo field, String prefix, int order, FieldType type, boolean isList,
+            boolean debug, File path) {
         String fieldName = getFieldName(order);
         StringBuilder ret = new StringBuilder();
         ret.append("if (").append(fieldName).append("!=null){");
@@ -252,7 +500,23 @@ public class CodedConstant {
             String typeString = type.getType().toUpperCase();
             ret.append("CodedConstant.writeToList(").append(prefix).append(",");
             ret.append(order).append(",").append("FieldType.").append(typeString);
-            ret.append(",").append(fieldName).append(");\n}");
+            ret.append(",").append(fieldName);
+            if (field.isParallel() && type == FieldType.OBJECT) {
+                String spath = "null";
+                if (path != null) {
+                    spath = "new java.io.File(\"" + path.getAbsolutePath().replace('\\', '/') + "\")";
+                }
+                ret.append(",").append(debug).append(",").append(spath).append(", true");
+            }
+            ret.append(");\n}");
+            return ret.toString();
+        } else if (field.isBlob()) {
+            ret.append("Blob.write(").append(prefix).append(",").append(order).append(",").append(fieldName);
+            ret.append(");\n}");
+            return ret.toString();
+        } else if (field.isByteBuffer()) {
+            ret.append("CodedConstant.writeByteBuffer(").append(prefix).append(",").append(order).append(",");
+            ret.append(fieldName).append(");\n}");
             return ret.toString();
         } else {
             // not list so should add convert to primitive type
@@ -312,6 +576,294 @@ public class CodedConstant {
 
     }
 
+    /**
+     * write list to {@link CodedOutputStream} object. large {@link FieldType#OBJECT} list is serialized in
+     * parallel if parallel is true. element sizes are computed in parallel first, segment offsets are derived
+     * from them and each task writes its segment directly into its own region of one byte array, which is then
+     * written to output.
+     * 
+     * @param out
+     *            target output stream to write
+     * @param order
+     *            field order
+     * @param type
+     *            field type
+     * @param list
+     *            target list object to be serialized
+     * @param parallel
+     *            true to enable parallel mode
+     */
+    public static void writeToList(CodedOutputStream out, final int order, FieldType type, final List list,
+            final boolean debug, final File path, boolean parallel) throws IOException {
+        // canonical mode is bound to current thread, so it always runs in serial
+        if (!parallel || AbstractCodec.isCanonical() || type != FieldType.OBJECT || list == null
+                || !ParallelUtils.shouldParallel(list.size())) {
+            writeToList(out, order, type, list);
+            return;
+        }
+
+        final ListSizes ls = computeElementSizes(order, list, debug, path);
+        long total = ls.total();
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Encoded size " + total + " exceeds max byte array size.");
+        }
+
+        // each segment is written into its own region of one byte array
+        final byte[] result = new byte[(int) total];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(ls.segments.length);
+        int offset = 0;
+        for (int i = 0; i < ls.segments.length; i++) {
+            final int segment = i;
+            final int segmentOffset = offset;
+            offset += (int) ls.segments[i];
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    writeSegment(order, list, ls, segment, result, segmentOffset, debug, path);
+                    return null;
+                }
+            });
+        }
+        ParallelUtils.invokeAll(tasks);
+        out.writeRawBytes(result);
+    }
+
+    /**
+     * encode objects in a segment of list with tag and length into region of result array, message sizes of
+     * objects are already computed.
+     * 
+     * @throws IOException if any target object is invalid or its size changed
+     */
+    private static void writeSegment(int order, List list, ListSizes ls, int segment, byte[] result, int offset,
+            boolean debug, File path) throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(result, offset, (int) ls.segments[segment]);
+        int tag = makeTag(order, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        for (int j = ls.bounds[segment]; j < ls.bounds[segment + 1]; j++) {
+            int size = ls.sizes[j];
+            if (size < 0) {
+                continue;
+            }
+            Object o = list.get(j);
+            output.writeRawVarint32(tag);
+            output.writeRawVarint32(size);
+            if (o instanceof EncodedMessage) {
+                output.writeRawBytes(((EncodedMessage) o).getBytes());
+            } else {
+                getCodec(o, ls.elementCls, ls.codec, debug, path).writeTo(o, output);
+            }
+        }
+        output.checkNoSpaceLeft();
+    }
+
+    /**
+     * read all continuous elements of repeated {@link FieldType#OBJECT} field from the byte array which input
+     * stream is created from. element boundaries are scanned by tags and lengths only, then elements are decoded
+     * in parallel if element count reaches the threshold. input stream is moved to the end of the last element.
+     * element codec is created by caller thread and shared by tasks, codecs of nested messages which are created
+     * lazily by tasks are generated by {@link ProtobufProxy} one at a time.
+     * 
+     * @param input
+     *            input stream created from whole byte array, the first tag of field is already read
+     * @param bb
+     *            byte array of input stream
+     * @param tag
+     *            tag of field
+     * @param codec
+     *            codec of element type
+     * @return decoded elements in order
+     * @throws IOException
+     *             if byte array is invalid
+     */
+    public static List readObjectList(CodedInputStream input, final byte[] bb, int tag, final Codec codec)
+            throws IOException {
+        int start = input.getTotalBytesRead();
+        int end = input.getBytesUntilLimit();
+        end = end < 0 ? bb.length : start + end;
+
+        // scan element boundaries
+        int count = 0;
+        int[] offsets = new int[16];
+        int[] lengths = new int[16];
+        CodedInputStream scanner = CodedInputStream.newInstance(bb, start, end - start);
+        int consumed;
+        while (true) {
+            int length = scanner.readRawVarint32();
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            offsets[count] = start + scanner.getTotalBytesRead();
+            lengths[count] = length;
+            count++;
+            scanner.skipRawBytes(length);
+
+            consumed = scanner.getTotalBytesRead();
+            if (scanner.isAtEnd() || scanner.readTag() != tag) {
+                break;
+            }
+        }
+        input.skipRawBytes(consumed);
+
+        final Object[] elements = new Object[count];
+        if (!ParallelUtils.shouldParallel(count)) {
+            for (int i = 0; i < count; i++) {
+                elements[i] = readObject(codec, bb, offsets[i], lengths[i]);
+            }
+            return Arrays.asList(elements);
+        }
+
+        final int[] elementOffsets = offsets;
+        final int[] elementLengths = lengths;
+        final int[] bounds = ParallelUtils.split(count);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int j = from; j < to; j++) {
+                        elements[j] = readObject(codec, bb, elementOffsets[j], elementLengths[j]);
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelUtils.invokeAll(tasks);
+        return Arrays.asList(elements);
+    }
+
+    /**
+     * decode message which implements {@link OriginalBytesAware} from its own bytes, the byte array is kept as
+     * original bytes without copy.
+     * 
+     * @param codec
+     *            codec of message type
+     * @param bytes
+     *            encoded bytes of message, which should not be shared with caller
+     * @return decoded message
+     * @throws IOException
+     *             if byte array is invalid
+     */
+    public static Object readOriginalBytesAware(Codec codec, byte[] bytes) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(bytes);
+        Object o = codec.readFrom(input);
+        input.checkLastTagWas(0);
+        ((OriginalBytesAware) o).setOriginalBytes(bytes);
+        return o;
+    }
+
+    private static Object readObject(Codec codec, byte[] bb, int offset, int length) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(bb, offset, length);
+        Object o = codec.readFrom(input);
+        input.checkLastTagWas(0);
+        if (o instanceof OriginalBytesAware) {
+            ((OriginalBytesAware) o).setOriginalBytes(Arrays.copyOfRange(bb, offset, offset + length));
+        }
+        return o;
+    }
+
+    /**
+     * check if nested message is not modified since decoded.
+     * 
+     * @param o
+     *            nested message, may be null
+     * @return true if null or original bytes can be reused
+     * @see OriginalBytesAware
+     */
+    public static boolean isUnmodified(Object o) {
+        if (o == null || o instanceof EncodedMessage) {
+            return true;
+        }
+        if (!(o instanceof OriginalBytesAware)) {
+            return false;
+        }
+        Codec codec = ProtobufProxy.create(o.getClass());
+        return codec instanceof AbstractCodec && ((AbstractCodec) codec).isUnmodified(o);
+    }
+
+    /**
+     * check if all nested messages in list are not modified since decoded.
+     * 
+     * @param list
+     *            nested message list, may be null
+     * @return true if null or original bytes of all messages can be reused
+     */
+    public static boolean isUnmodifiedList(List list) {
+        if (list == null) {
+            return true;
+        }
+        for (Object o : list) {
+            if (!isUnmodified(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * compute serialized size of {@link ByteBuffer} field from remaining bytes of buffer
+     * 
+     * @param order
+     *            field order
+     * @param buffer
+     *            field value
+     * @return serialized size
+     */
+    public static int computeByteBufferSize(int order, ByteBuffer buffer) {
+        int length = buffer.remaining();
+        return CodedOutputStream.computeTagSize(order) + CodedOutputStream.computeRawVarint32Size(length) + length;
+    }
+
+    /**
+     * write remaining bytes of {@link ByteBuffer} field without changing its position. heap buffer is written from
+     * its backing array, and direct buffer is copied in chunks.
+     * 
+     * @param out
+     *            target output
+     * @param order
+     *            field order
+     * @param buffer
+     *            field value
+     * @throws IOException
+     *             if write failed
+     */
+    public static void writeByteBuffer(CodedOutputStream out, int order, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        out.writeTag(order, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(length);
+        if (buffer.hasArray()) {
+            out.writeRawBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            return;
+        }
+        ByteBuffer source = buffer.duplicate();
+        byte[] chunk = new byte[Math.min(length, BYTE_BUFFER_CHUNK_SIZE)];
+        while (source.hasRemaining()) {
+            int n = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, n);
+            out.writeRawBytes(chunk, 0, n);
+        }
+    }
+
+    /**
+     * read a length delimited {@link ByteBuffer} field value
+     * 
+     * @param input
+     *            input stream
+     * @param bb
+     *            byte array of input stream starting at offset 0, or null if unknown
+     * @return slice of source byte array if bb is set, otherwise buffer wraps the read bytes
+     * @throws IOException
+     *             if read failed
+     */
+    public static ByteBuffer readByteBuffer(CodedInputStream input, byte[] bb) throws IOException {
+        int length = input.readRawVarint32();
+        if (bb != null) {
+            int offset = input.getTotalBytesRead();
+            input.skipRawBytes(length);
+            return ByteBuffer.wrap(bb, offset, length).slice();
+        }
+        return ByteBuffer.wrap(input.readRawBytes(length));
+    }
+
     /**
      * Write object to byte array by {@link FieldType}
      * 
@@ -328,22 +880,41 @@ public class CodedConstant {
         }
 
         if (type == FieldType.OBJECT) {
+            if (o instanceof EncodedMessage) {
+                // splice encoded bytes as sub message
+                byte[] bytes = ((EncodedMessage) o).getBytes();
+                out.writeRawVarint32(makeTag(order, WireFormat.WIRETYPE_LENGTH_DELIMITED));
+                out.writeRawVarint32(bytes.length);
+                out.writeRawBytes(bytes);
+                return;
+            }
 
             Class cls = o.getClass();
             Codec target = ProtobufProxy.create(cls);
 
             out.writeRawVarint32(makeTag(order, WireFormat.WIRETYPE_LENGTH_DELIMITED));
-            out.writeRawVarint32(target.size(o));
-
-            target.writeTo(o, out);
+            // compressed fields are shared by size and writeTo of this message only
+            FieldCompressor.enterScope();
+            try {
+                out.writeRawVarint32(target.size(o));
+                target.writeTo(o, out);
+            } finally {
+                FieldCompressor.exitScope();
+            }
             return;
         }
 
         if (type == FieldType.BOOL) {
             out.writeBool(order, (Boolean) o);
         } else if (type == FieldType.BYTES) {
-            byte[] bb = (byte[]) o;
-            out.writeBytes(order, ByteString.copyFrom(bb));
+            if (o instanceof ByteBuffer) {
+                writeByteBuffer(out, order, (ByteBuffer) o);
+            } else if (o instanceof Blob) {
+                Blob.write(out, order, (Blob) o);
+            } else {
+                byte[] bb = (byte[]) o;
+                out.writeBytes(order, ByteString.copyFrom(bb));
+            }
         } else if (type == FieldType.DOUBLE) {
             out.writeDouble(order, (Double) o);
         } else if (type == FieldType.FIXED32) {
@@ -563,4 +1134,35 @@ public class CodedConstant {
         return "";
     }
 
+    /**
+     * element sizes of a list split into segments for parallel encoding
+     */
+    private static class ListSizes {
+
+        private final int[] bounds;
+
+        private final int[] sizes;
+
+        private final long[] segments;
+
+        private final Class elementCls;
+
+        private final Codec codec;
+
+        ListSizes(int[] bounds, int[] sizes, long[] segments, Class elementCls, Codec codec) {
+            this.bounds = bounds;
+            this.sizes = sizes;
+            this.segments = segments;
+            this.elementCls = elementCls;
+            this.codec = codec;
+        }
+
+        long total() {
+            long total = 0;
+            for (long segment : segments) {
+                total += segment;
+            }
+            return total;
+        }
+    }
 }
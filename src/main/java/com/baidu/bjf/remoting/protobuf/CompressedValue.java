@@ -0,0 +1,169 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import com.baidu.bjf.remoting.protobuf.compress.FieldCompressor;
+
+/**
+ * Holder of compressed {@link FieldType#STRING} or {@link FieldType#BYTES} field value. A decoded value keeps the
+ * encoded bytes and decompresses on first read, and encoded bytes are reused if it is encoded again.
+ * 
+ * <pre>
+ * &#064;Protobuf(fieldType = FieldType.STRING, order = 1, compressThreshold = 1024)
+ * public CompressedValue content;
+ * </pre>
+ * 
+ * @author xiemalin
+ * @since 1.7.4
+ * @see com.baidu.bjf.remoting.protobuf.annotation.Protobuf#compressThreshold()
+ */
+public final class CompressedValue {
+
+    private static final String UTF_8 = "UTF-8";
+
+    private volatile byte[] bytes;
+
+    private volatile byte[] encoded;
+
+    private volatile int encodedThreshold;
+
+    private CompressedValue(byte[] bytes, byte[] encoded, int encodedThreshold) {
+        this.bytes = bytes;
+        this.encoded = encoded;
+        this.encodedThreshold = encodedThreshold;
+    }
+
+    /**
+     * create value from original bytes
+     * 
+     * @param bytes original bytes
+     * @return compressed value holder
+     */
+    public static CompressedValue valueOf(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("Parameter bytes is null");
+        }
+        return new CompressedValue(bytes, null, 0);
+    }
+
+    /**
+     * create value from string in UTF-8
+     * 
+     * @param value original string
+     * @return compressed value holder
+     */
+    public static CompressedValue valueOf(String value) {
+        if (value == null) {
+            throw new NullPointerException("Parameter value is null");
+        }
+        try {
+            return valueOf(value.getBytes(UTF_8));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * create value from encoded bytes, which are not decompressed until read
+     * 
+     * @param encoded encoded bytes produced by {@link FieldCompressor}
+     * @return compressed value holder
+     */
+    public static CompressedValue fromEncoded(byte[] encoded) {
+        if (encoded == null) {
+            throw new NullPointerException("Parameter encoded is null");
+        }
+        return new CompressedValue(null, encoded, -1);
+    }
+
+    /**
+     * get original bytes, decompress on first call
+     * 
+     * @return original bytes
+     * @throws IllegalStateException if encoded bytes are invalid
+     */
+    public byte[] getBytes() {
+        byte[] ret = bytes;
+        if (ret == null) {
+            try {
+                ret = FieldCompressor.decompress(encoded);
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            bytes = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * get original bytes as UTF-8 string
+     * 
+     * @return original string
+     * @throws IllegalStateException if encoded bytes are invalid
+     */
+    public String getString() {
+        try {
+            return new String(getBytes(), UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return true if original bytes are available without decompression
+     */
+    public boolean isDecompressed() {
+        return bytes != null;
+    }
+
+    /**
+     * get encoded bytes. encoded bytes from decode are reused, otherwise original bytes are compressed if size
+     * reaches threshold and kept for later encode with the same threshold.
+     * 
+     * @param threshold minimum size to compress
+     * @return encoded bytes
+     */
+    public byte[] getEncodedBytes(int threshold) {
+        byte[] ret = encoded;
+        if (ret != null && (encodedThreshold < 0 || encodedThreshold == threshold)) {
+            return ret;
+        }
+        ret = FieldCompressor.compress(bytes, threshold);
+        encodedThreshold = threshold;
+        encoded = ret;
+        return ret;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(getBytes());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompressedValue)) {
+            return false;
+        }
+        return Arrays.equals(getBytes(), ((CompressedValue) obj).getBytes());
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+import com.baidu.bjf.remoting.protobuf.compress.FieldCompressor;
+import com.baidu.bjf.remoting.protobuf.utils.FieldInfo;
+import com.baidu.bjf.remoting.protobuf.utils.FieldUtils;
+import com.baidu.bjf.remoting.protobuf.utils.ProtobufProxyUtils;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Field level delta codec between two versions of an object. {@link #diff(Object, Object)} produces a patch which
+ * only contains changed fields, and {@link #applyPatch(Object, byte[])} applies it to the old version.
+ * <p>
+ * Patch is a sequence of entries, each starts with a tag of field order and an operation in wire type bits:
+ * <ul>
+ * <li>field wire type: new field value encoded the same as in message</li>
+ * <li>{@value #OP_NESTED}: length delimited patch of nested message</li>
+ * <li>{@value #OP_CLEAR}: field is set to null</li>
+ * <li>{@value #OP_LIST}: new list size, changed element count, then index and value or nested patch of each
+ * changed element</li>
+ * </ul>
+ * </p>
+ * 
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class DeltaCodec<T> {
+
+    /**
+     * patch operation of nested message
+     */
+    public static final int OP_NESTED = WireFormat.WIRETYPE_START_GROUP;
+
+    /**
+     * patch operation to clear field
+     */
+    public static final int OP_CLEAR = 6;
+
+    /**
+     * patch operation of list field
+     */
+    public static final int OP_LIST = 7;
+
+    private static final Map<Class<?>, DeltaCodec<?>> CACHED = new ConcurrentHashMap<Class<?>, DeltaCodec<?>>();
+
+    private final Class<T> cls;
+
+    private final List<FieldInfo> fields;
+
+    private final Map<Integer, FieldInfo> fieldsByOrder = new HashMap<Integer, FieldInfo>();
+
+    /**
+     * get delta codec of target class
+     * 
+     * @param cls target class with <code>@Protobuf</code> fields
+     * @return delta codec
+     */
+    public static <T> DeltaCodec<T> create(Class<T> cls) {
+        if (cls == null) {
+            throw new NullPointerException("Parameter cls is null");
+        }
+        DeltaCodec<T> codec = (DeltaCodec<T>) CACHED.get(cls);
+        if (codec == null) {
+            codec = new DeltaCodec<T>(cls);
+            CACHED.put(cls, codec);
+        }
+        return codec;
+    }
+
+    private DeltaCodec(Class<T> cls) {
+        List<Field> list = FieldUtils.findMatchedFields(cls, Protobuf.class);
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException("Invalid class [" + cls.getName() + "] no field use annotation @"
+                    + Protobuf.class.getName());
+        }
+        this.cls = cls;
+        this.fields = ProtobufProxyUtils.processDefaultValue(list);
+        Collections.sort(this.fields, new Comparator<FieldInfo>() {
+            public int compare(FieldInfo o1, FieldInfo o2) {
+                return o1.getOrder() < o2.getOrder() ? -1 : (o1.getOrder() == o2.getOrder() ? 0 : 1);
+            }
+        });
+        for (FieldInfo fieldInfo : fields) {
+            fieldInfo.getField().setAccessible(true);
+            fieldsByOrder.put(fieldInfo.getOrder(), fieldInfo);
+        }
+    }
+
+    /**
+     * compute patch from old version to new version
+     * 
+     * @param oldValue old version
+     * @param newValue new version
+     * @return patch bytes, empty if nothing changed
+     * @throws IOException if encode failed
+     */
+    public byte[] diff(T oldValue, T newValue) throws IOException {
+        if (oldValue == null) {
+            throw new NullPointerException("Parameter oldValue is null");
+        }
+        if (newValue == null) {
+            throw new NullPointerException("Parameter newValue is null");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(baos);
+        writeDiff(oldValue, newValue, output);
+        output.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * apply patch to target object
+     * 
+     * @param t target object of old version, which is modified in place
+     * @param patch patch bytes produced by {@link #diff(Object, Object)}
+     * @return target object
+     * @throws IOException if patch is invalid
+     */
+    public T applyPatch(T t, byte[] patch) throws IOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        if (patch == null) {
+            throw new NullPointerException("Parameter patch is null");
+        }
+        CodedInputStream input = CodedInputStream.newInstance(patch);
+        // limit is set so that list headers can be checked against remaining bytes
+        input.pushLimit(patch.length);
+        applyPatch(t, input);
+        return t;
+    }
+
+    private void writeDiff(Object oldValue, Object newValue, CodedOutputStream out) throws IOException {
+        for (FieldInfo field : fields) {
+            Object o = getValue(oldValue, field);
+            Object n = getValue(newValue, field);
+            int order = field.getOrder();
+            if (CodeGenerator.isListType(field.getField())) {
+                writeListDiff(field, (List) o, (List) n, out);
+            } else if (n == null) {
+                if (o != null) {
+                    out.writeRawVarint32(CodedConstant.makeTag(order, OP_CLEAR));
+                }
+            } else if (isNested(field, o, n)) {
+                byte[] nested = nested(n.getClass()).diff(o, n);
+                if (nested.length > 0) {
+                    out.writeRawVarint32(CodedConstant.makeTag(order, OP_NESTED));
+                    out.writeRawVarint32(nested.length);
+                    out.writeRawBytes(nested);
+                }
+            } else if (!isEquals(o, n)) {
+                if (field.isCompressed()) {
+                    out.writeBytes(order,
+                            ByteString.copyFrom(FieldCompressor.compressValue(n, field.getCompressThreshold())));
+                } else {
+                    CodedConstant.writeObject(out, order, field.getFieldType(), n, false);
+                }
+            }
+        }
+    }
+
+    private void writeListDiff(FieldInfo field, List o, List n, CodedOutputStream out) throws IOException {
+        int order = field.getOrder();
+        if (n == null) {
+            if (o != null) {
+                out.writeRawVarint32(CodedConstant.makeTag(order, OP_CLEAR));
+            }
+            return;
+        }
+
+        int oldSize = o == null ? 0 : o.size();
+        int count = 0;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream elements = CodedOutputStream.newInstance(baos);
+        for (int i = 0; i < n.size(); i++) {
+            Object element = n.get(i);
+            if (element == null) {
+                throw new NullPointerException("Element at index " + i + " of list is null");
+            }
+            Object oldElement = i < oldSize ? o.get(i) : null;
+            if (isNested(field, oldElement, element)) {
+                byte[] nested = nested(element.getClass()).diff(oldElement, element);
+                if (nested.length > 0) {
+                    elements.writeRawVarint32(i);
+                    elements.writeRawVarint32(CodedConstant.makeTag(order, OP_NESTED));
+                    elements.writeRawVarint32(nested.length);
+                    elements.writeRawBytes(nested);
+                    count++;
+                }
+            } else if (!isEquals(oldElement, element)) {
+                elements.writeRawVarint32(i);
+                CodedConstant.writeObject(elements, order, field.getFieldType(), element, true);
+                count++;
+            }
+        }
+        if (o != null && count == 0 && oldSize == n.size()) {
+            return;
+        }
+        elements.flush();
+        out.writeRawVarint32(CodedConstant.makeTag(order, OP_LIST));
+        out.writeRawVarint32(n.size());
+        out.writeRawVarint32(count);
+        out.writeRawBytes(baos.toByteArray());
+    }
+
+    private void applyPatch(Object t, CodedInputStream input) throws IOException {
+        while (!input.isAtEnd()) {
+            int tag = input.readTag();
+            FieldInfo field = fieldsByOrder.get(tag >>> CodedConstant.TAG_TYPE_BITS);
+            if (field == null) {
+                throw new InvalidProtocolBufferException("No field of order " + (tag >>> CodedConstant.TAG_TYPE_BITS)
+                        + " on class '" + cls.getName() + "'");
+            }
+            int op = tag & ((1 << CodedConstant.TAG_TYPE_BITS) - 1);
+            if (op == OP_CLEAR) {
+                setValue(t, field, null);
+            } else if (op == OP_NESTED) {
+                setValue(t, field, readNested(input, getValue(t, field), field.getField().getType()));
+            } else if (op == OP_LIST) {
+                setValue(t, field, readList(input, field, (List) getValue(t, field)));
+            } else {
+                setValue(t, field, readValue(input, field, field.getField().getType()));
+            }
+        }
+        if (t instanceof OriginalBytesAware) {
+            ((OriginalBytesAware) t).setOriginalBytes(null);
+        }
+    }
+
+    private List readList(CodedInputStream input, FieldInfo field, List current) throws IOException {
+        int size = input.readRawVarint32();
+        int count = input.readRawVarint32();
+        if (size < 0 || count < 0) {
+            throw new InvalidProtocolBufferException("Negative list size " + size + " or element count " + count);
+        }
+        // each changed element takes at least an index and a tag
+        if (count > input.getBytesUntilLimit() / 2) {
+            throw new InvalidProtocolBufferException("Element count " + count + " exceeds remaining patch size "
+                    + input.getBytesUntilLimit());
+        }
+        // elements beyond current list are all written as changed ones
+        int currentSize = current == null ? 0 : current.size();
+        if (size > (long) currentSize + count) {
+            throw new InvalidProtocolBufferException("List size " + size + " exceeds current size " + currentSize
+                    + " plus element count " + count);
+        }
+        List list = new ArrayList(size);
+        if (current != null) {
+            list.addAll(current.subList(0, Math.min(size, current.size())));
+        }
+        while (list.size() < size) {
+            list.add(null);
+        }
+
+        Class<?> elementType = getElementType(field.getField());
+        for (int i = 0; i < count; i++) {
+            int index = input.readRawVarint32();
+            if (index >= size) {
+                throw new InvalidProtocolBufferException("Element index " + index + " is out of list size "
+                        + size);
+            }
+            int tag = input.readTag();
+            if ((tag & ((1 << CodedConstant.TAG_TYPE_BITS) - 1)) == OP_NESTED) {
+                list.set(index, readNested(input, list.get(index), elementType));
+            } else {
+                list.set(index, readValue(input, field, elementType));
+            }
+        }
+        return list;
+    }
+
+    private Object readNested(CodedInputStream input, Object current, Class<?> type) throws IOException {
+        byte[] nested = input.readBytes().toByteArray();
+        if (current == null) {
+            try {
+                current = type.newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Class '" + type.getName()
+                        + "' must has default constructor method with no parameters.", e);
+            }
+        }
+        return nested(current.getClass()).applyPatch(current, nested);
+    }
+
+    private Object readValue(CodedInputStream input, FieldInfo field, Class type) throws IOException {
+        FieldType fieldType = field.getFieldType();
+        if (field.isCompressed()) {
+            return FieldCompressor.decompressValue(input.readBytes().toByteArray(), type);
+        } else if (fieldType == FieldType.OBJECT) {
+            byte[] bytes = input.readBytes().toByteArray();
+            if (CodeGenerator.getEncodedMessageType(field.getField()) != null) {
+                return new EncodedMessage(bytes);
+            }
+            return ProtobufProxy.create(type).decode(bytes);
+        } else if (fieldType == FieldType.ENUM) {
+            return Enum.valueOf(type, CodedConstant.getEnumName((Enum[]) type.getEnumConstants(), input.readEnum()));
+        } else if (fieldType == FieldType.BOOL) {
+            return input.readBool();
+        } else if (fieldType == FieldType.BYTES) {
+            if (field.isByteBuffer()) {
+                return CodedConstant.readByteBuffer(input, null);
+            }
+            if (field.isBlob()) {
+                return Blob.readFrom(input);
+            }
+            return input.readBytes().toByteArray();
+        } else if (fieldType == FieldType.DOUBLE) {
+            return input.readDouble();
+        } else if (fieldType == FieldType.FIXED32) {
+            return input.readFixed32();
+        } else if (fieldType == FieldType.FIXED64) {
+            return input.readFixed64();
+        } else if (fieldType == FieldType.FLOAT) {
+            return input.readFloat();
+        } else if (fieldType == FieldType.INT32) {
+            return input.readInt32();
+        } else if (fieldType == FieldType.INT64) {
+            return input.readInt64();
+        } else if (fieldType == FieldType.SFIXED32) {
+            return input.readSFixed32();
+        } else if (fieldType == FieldType.SFIXED64) {
+            return input.readSFixed64();
+        } else if (fieldType == FieldType.SINT32) {
+            return input.readSInt32();
+        } else if (fieldType == FieldType.SINT64) {
+            return input.readSInt64();
+        } else if (fieldType == FieldType.STRING) {
+            return input.readString();
+        } else if (fieldType == FieldType.UINT32) {
+            return input.readUInt32();
+        } else if (fieldType == FieldType.UINT64) {
+            return input.readUInt64();
+        }
+        throw new IllegalArgumentException("Unsupported field type " + fieldType);
+    }
+
+    private static DeltaCodec<Object> nested(Class<?> cls) {
+        return (DeltaCodec<Object>) create(cls);
+    }
+
+    /**
+     * check if new value can be patched from old value as nested message
+     */
+    private static boolean isNested(FieldInfo field, Object o, Object n) {
+        return field.getFieldType() == FieldType.OBJECT && o != null && o.getClass() == n.getClass()
+                && !(n instanceof EncodedMessage);
+    }
+
+    private static boolean isEquals(Object o, Object n) {
+        if (o == null) {
+            return false;
+        }
+        if (o instanceof byte[] && n instanceof byte[]) {
+            return Arrays.equals((byte[]) o, (byte[]) n);
+        }
+        if (o instanceof Blob) {
+            // blob content may be streamed or spilled, so only the same instance is treated as unchanged
+            return o == n;
+        }
+        if (o instanceof EncodedMessage && n instanceof EncodedMessage) {
+            return Arrays.equals(((EncodedMessage) o).getBytes(), ((EncodedMessage) n).getBytes());
+        }
+        return o.equals(n);
+    }
+
+    private static Class<?> getElementType(Field field) {
+        Type type = field.getGenericType();
+        if (type instanceof ParameterizedType) {
+            Type[] actualTypeArguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (actualTypeArguments != null && actualTypeArguments.length > 0) {
+                Type targetType = actualTypeArguments[0];
+                if (targetType instanceof Class) {
+                    return (Class<?>) targetType;
+                }
+                if (targetType instanceof ParameterizedType) {
+                    return (Class<?>) ((ParameterizedType) targetType).getRawType();
+                }
+            }
+        }
+        return Object.class;
+    }
+
+    private static Object getValue(Object t, FieldInfo field) {
+        try {
+            return field.getField().get(t);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static void setValue(Object t, FieldInfo field, Object value) {
+        try {
+            field.getField().set(t, value);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+}
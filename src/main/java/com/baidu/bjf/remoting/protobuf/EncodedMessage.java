@@ -0,0 +1,96 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.IOException;
+
+/**
+ * Holder of already encoded bytes of a nested message. Used as type of {@link FieldType#OBJECT} field, the bytes
+ * are written as a length delimited sub message directly without decode and encode again, and kept as is on
+ * decode until {@link #decode(Codec)} is called.
+ * <p>
+ * The byte array is kept by reference and should not be modified.
+ * </p>
+ * 
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public final class EncodedMessage<T> {
+
+    private final byte[] bytes;
+
+    /**
+     * Constructor
+     * 
+     * @param bytes encoded bytes of message
+     */
+    public EncodedMessage(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("Parameter bytes is null");
+        }
+        this.bytes = bytes;
+    }
+
+    /**
+     * encode target object to a holder
+     * 
+     * @param codec codec of target object
+     * @param t target object
+     * @return encoded message holder
+     * @throws IOException if target object is invalid
+     */
+    public static <T> EncodedMessage<T> encode(Codec<T> codec, T t) throws IOException {
+        return new EncodedMessage<T>(codec.encode(t));
+    }
+
+    /**
+     * get the bytes
+     * 
+     * @return encoded bytes of message
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return size of encoded bytes
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    /**
+     * decode the message
+     * 
+     * @param codec codec of message type
+     * @return decoded message
+     * @throws IOException if bytes is invalid
+     */
+    public T decode(Codec<T> codec) throws IOException {
+        return codec.decode(bytes);
+    }
+
+    /**
+     * decode the message
+     * 
+     * @param cls message type
+     * @return decoded message
+     * @throws IOException if bytes is invalid
+     */
+    public T decode(Class<T> cls) throws IOException {
+        return ProtobufProxy.create(cls).decode(bytes);
+    }
+}
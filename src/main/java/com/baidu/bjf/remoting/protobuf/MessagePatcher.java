@@ -0,0 +1,238 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+import com.baidu.bjf.remoting.protobuf.compress.FieldCompressor;
+import com.baidu.bjf.remoting.protobuf.utils.FieldInfo;
+import com.baidu.bjf.remoting.protobuf.utils.FieldUtils;
+import com.baidu.bjf.remoting.protobuf.utils.ProtobufProxyUtils;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Utility to patch encoded messages of target class without decoding them. It relies on protocol buffer merge
+ * semantics: concatenated messages are merged, elements of repeated fields are appended and the last value of
+ * scalar fields wins. Fields are addressed by java field name on target class and only top-level fields are
+ * supported.
+ * 
+ * <pre>
+ * MessagePatcher&lt;AddressBook&gt; patcher = new MessagePatcher&lt;AddressBook&gt;(AddressBook.class);
+ * byte[] bb = patcher.appendElements(encoded, &quot;persons&quot;, Collections.singletonList(person));
+ * </pre>
+ * 
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class MessagePatcher<T> {
+
+    private final Class<T> cls;
+
+    private final Map<String, FieldInfo> fields = new HashMap<String, FieldInfo>();
+
+    /**
+     * Constructor
+     * 
+     * @param cls target class with <code>@Protobuf</code> fields
+     */
+    public MessagePatcher(Class<T> cls) {
+        if (cls == null) {
+            throw new NullPointerException("Parameter cls is null");
+        }
+        List<Field> list = FieldUtils.findMatchedFields(cls, Protobuf.class);
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException("Invalid class [" + cls.getName() + "] no field use annotation @"
+                    + Protobuf.class.getName());
+        }
+        for (FieldInfo fieldInfo : ProtobufProxyUtils.processDefaultValue(list)) {
+            fields.put(fieldInfo.getField().getName(), fieldInfo);
+        }
+        this.cls = cls;
+    }
+
+    /**
+     * merge encoded messages by concatenation
+     * 
+     * @param messages encoded messages in merge order
+     * @return merged message
+     */
+    public static byte[] merge(byte[]... messages) {
+        int size = 0;
+        for (byte[] message : messages) {
+            size += message.length;
+        }
+        byte[] ret = new byte[size];
+        int pos = 0;
+        for (byte[] message : messages) {
+            System.arraycopy(message, 0, ret, pos, message.length);
+            pos += message.length;
+        }
+        return ret;
+    }
+
+    /**
+     * encode elements of repeated field as a message fragment, which can be appended to any encoded message of
+     * target class.
+     * 
+     * @param fieldName java field name of list field
+     * @param elements elements to append
+     * @return encoded fragment
+     * @throws IOException if encode failed
+     */
+    public byte[] encodeElements(String fieldName, List<?> elements) throws IOException {
+        FieldInfo field = getField(fieldName);
+        if (!CodeGenerator.isListType(field.getField())) {
+            throw new IllegalArgumentException("Field '" + fieldName + "' of class '" + cls.getName()
+                    + "' is not a list field.");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(baos);
+        for (Object element : elements) {
+            if (element == null) {
+                throw new NullPointerException("Element of list is null");
+            }
+            CodedConstant.writeObject(output, field.getOrder(), field.getFieldType(), element, true);
+        }
+        output.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * append elements to repeated field of encoded message
+     * 
+     * @param message encoded message
+     * @param fieldName java field name of list field
+     * @param elements elements to append
+     * @return patched message
+     * @throws IOException if encode failed
+     */
+    public byte[] appendElements(byte[] message, String fieldName, List<?> elements) throws IOException {
+        return merge(message, encodeElements(fieldName, elements));
+    }
+
+    /**
+     * encode a value of singular field as a message fragment. appended fragment overwrites previous value of
+     * scalar field, but is merged into previous value of {@link FieldType#OBJECT} field.
+     * 
+     * @param fieldName java field name
+     * @param value field value
+     * @return encoded fragment
+     * @throws IOException if encode failed
+     */
+    public byte[] encodeField(String fieldName, Object value) throws IOException {
+        FieldInfo field = getField(fieldName);
+        if (CodeGenerator.isListType(field.getField())) {
+            throw new IllegalArgumentException("Field '" + fieldName + "' of class '" + cls.getName()
+                    + "' is a list field, use encodeElements instead.");
+        }
+        if (value == null) {
+            throw new NullPointerException("Parameter value is null");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(baos);
+        if (field.isCompressed()) {
+            output.writeBytes(field.getOrder(),
+                    ByteString.copyFrom(FieldCompressor.compressValue(value, field.getCompressThreshold())));
+        } else {
+            CodedConstant.writeObject(output, field.getOrder(), field.getFieldType(), value, false);
+        }
+        output.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * set value of singular field on encoded message. scalar value is appended without scanning message. existing
+     * value of {@link FieldType#OBJECT} field is removed first as appended message would be merged into it. null
+     * value removes the field.
+     * 
+     * @param message encoded message
+     * @param fieldName java field name
+     * @param value field value
+     * @return patched message
+     * @throws IOException if encode failed or message is invalid
+     */
+    public byte[] setField(byte[] message, String fieldName, Object value) throws IOException {
+        if (value == null) {
+            return removeFields(message, fieldName);
+        }
+        byte[] fragment = encodeField(fieldName, value);
+        if (getField(fieldName).getFieldType() == FieldType.OBJECT) {
+            message = removeFields(message, fieldName);
+        }
+        return merge(message, fragment);
+    }
+
+    /**
+     * remove all values of fields from encoded message. only tags are parsed, field values are skipped.
+     * 
+     * @param message encoded message
+     * @param fieldNames java field names
+     * @return patched message, or the same array if no field removed
+     * @throws IOException if message is invalid
+     */
+    public byte[] removeFields(byte[] message, String... fieldNames) throws IOException {
+        Set<Integer> orders = new HashSet<Integer>();
+        for (String fieldName : fieldNames) {
+            orders.add(getField(fieldName).getOrder());
+        }
+
+        ByteArrayOutputStream baos = null;
+        int keepStart = 0;
+        CodedInputStream input = CodedInputStream.newInstance(message);
+        while (true) {
+            int start = input.getTotalBytesRead();
+            int tag = input.readTag();
+            if (tag == 0) {
+                break;
+            }
+            input.skipField(tag);
+            if (orders.contains(tag >>> CodedConstant.TAG_TYPE_BITS)) {
+                if (baos == null) {
+                    baos = new ByteArrayOutputStream(message.length);
+                }
+                baos.write(message, keepStart, start - keepStart);
+                keepStart = input.getTotalBytesRead();
+            }
+        }
+        if (baos == null) {
+            return message;
+        }
+        baos.write(message, keepStart, message.length - keepStart);
+        return baos.toByteArray();
+    }
+
+    private FieldInfo getField(String fieldName) {
+        if (fieldName == null) {
+            throw new NullPointerException("Parameter fieldName is null");
+        }
+        FieldInfo field = fields.get(fieldName);
+        if (field == null) {
+            throw new IllegalArgumentException("No field '" + fieldName + "' with @Protobuf on class '"
+                    + cls.getName() + "'");
+        }
+        return field;
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+import com.baidu.bjf.remoting.protobuf.utils.FieldInfo;
+import com.baidu.bjf.remoting.protobuf.utils.FieldUtils;
+import com.baidu.bjf.remoting.protobuf.utils.ProtobufProxyUtils;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Event driven parser of encoded messages of target class. encoded bytes are walked and each field value is passed
+ * to a {@link Visitor} callback typed by its {@link FieldType}, no object of target class is created. nested
+ * messages are reported between {@link Visitor#enterMessage(int)} and {@link Visitor#exitMessage(int)}, so
+ * aggregations such as counts and sums over large payloads can be done without decoding.
+ * <p>
+ * No object is allocated per field: string values are decoded into a reused thread local {@link CharSequence} and
+ * bytes values are passed as a reused {@link ByteBuffer} view of input, both are only valid during the callback.
+ * string values over 8K bytes are decoded into a buffer which is not kept. nested messages and groups deeper than 64
+ * levels are rejected, the same limit as {@link com.google.protobuf.CodedInputStream}.
+ * Packed and unpacked repeated scalar fields are both accepted, unknown fields are skipped. {@link EncodedMessage}
+ * field is walked as nested message of its type argument.
+ * </p>
+ *
+ * <pre>
+ * MessageWalker&lt;AddressBook&gt; walker = MessageWalker.create(AddressBook.class);
+ * final int personsOrder = walker.getOrder(&quot;persons&quot;);
+ * walker.walk(bytes, new MessageWalker.VisitorAdapter() {
+ *     public void enterMessage(int order) {
+ *         if (order == personsOrder) {
+ *             count++;
+ *         }
+ *     }
+ * });
+ * </pre>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class MessageWalker<T> {
+
+    /**
+     * Callbacks of field values, order is field order in the message which is currently walked.
+     */
+    public interface Visitor {
+
+        /**
+         * value of int32, uint32, sint32, fixed32, sfixed32 or enum field
+         *
+         * @param order field order
+         * @param value field value
+         */
+        void onInt(int order, int value);
+
+        /**
+         * value of int64, uint64, sint64, fixed64 or sfixed64 field
+         *
+         * @param order field order
+         * @param value field value
+         */
+        void onLong(int order, long value);
+
+        /**
+         * value of float field
+         *
+         * @param order field order
+         * @param value field value
+         */
+        void onFloat(int order, float value);
+
+        /**
+         * value of double field
+         *
+         * @param order field order
+         * @param value field value
+         */
+        void onDouble(int order, double value);
+
+        /**
+         * value of bool field
+         *
+         * @param order field order
+         * @param value field value
+         */
+        void onBool(int order, boolean value);
+
+        /**
+         * value of string field, it is reused after callback and should be copied by <code>toString()</code> to
+         * keep.
+         *
+         * @param order field order
+         * @param value field value
+         */
+        void onString(int order, CharSequence value);
+
+        /**
+         * value of bytes field, compressed field or {@link EncodedMessage} field without message type argument, it is
+         * a reused view of input from position to limit.
+         *
+         * @param order field order
+         * @param value field value
+         */
+        void onBytes(int order, ByteBuffer value);
+
+        /**
+         * start of nested message field, fields of nested message are reported after it
+         *
+         * @param order field order
+         */
+        void enterMessage(int order);
+
+        /**
+         * end of nested message field
+         *
+         * @param order field order
+         */
+        void exitMessage(int order);
+    }
+
+    /**
+     * Visitor with empty callbacks, only interested callbacks need to be overridden.
+     */
+    public static class VisitorAdapter implements Visitor {
+
+        public void onInt(int order, int value) {
+        }
+
+        public void onLong(int order, long value) {
+        }
+
+        public void onFloat(int order, float value) {
+        }
+
+        public void onDouble(int order, double value) {
+        }
+
+        public void onBool(int order, boolean value) {
+        }
+
+        public void onString(int order, CharSequence value) {
+        }
+
+        public void onBytes(int order, ByteBuffer value) {
+        }
+
+        public void enterMessage(int order) {
+        }
+
+        public void exitMessage(int order) {
+        }
+    }
+
+    private static final int DEFAULT_CHARS_SIZE = 256;
+
+    /**
+     * max capacity of thread local char buffer
+     */
+    private static final int MAX_CACHED_CHARS_SIZE = 8192;
+
+    /**
+     * max nesting levels of messages and groups
+     */
+    private static final int RECURSION_LIMIT = 64;
+
+    private static final Map<Class<?>, MessageWalker<?>> CACHED = new ConcurrentHashMap<Class<?>, MessageWalker<?>>();
+
+    private static final ThreadLocal<CharBuffer> CHARS = new ThreadLocal<CharBuffer>();
+
+    private final Class<T> cls;
+
+    /**
+     * sorted field orders
+     */
+    private final int[] orders;
+
+    /**
+     * field infos in the same index of {@link #orders}
+     */
+    private final FieldInfo[] fields;
+
+    /**
+     * class of nested message in the same index of {@link #orders}, null if field is not message type or is
+     * {@link EncodedMessage} of unknown message type
+     */
+    private final Class<?>[] messageTypes;
+
+    /**
+     * get message walker of target class
+     *
+     * @param cls target class with <code>@Protobuf</code> fields
+     * @return message walker
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> MessageWalker<T> create(Class<T> cls) {
+        if (cls == null) {
+            throw new NullPointerException("Parameter cls is null");
+        }
+        MessageWalker<T> walker = (MessageWalker<T>) CACHED.get(cls);
+        if (walker == null) {
+            walker = new MessageWalker<T>(cls);
+            CACHED.put(cls, walker);
+        }
+        return walker;
+    }
+
+    private MessageWalker(Class<T> cls) {
+        List<Field> list = FieldUtils.findMatchedFields(cls, Protobuf.class);
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException("Invalid class [" + cls.getName() + "] no field use annotation @"
+                    + Protobuf.class.getName());
+        }
+        this.cls = cls;
+        List<FieldInfo> fieldInfos = ProtobufProxyUtils.processDefaultValue(list);
+        int size = fieldInfos.size();
+        orders = new int[size];
+        for (int i = 0; i < size; i++) {
+            orders[i] = fieldInfos.get(i).getOrder();
+        }
+        Arrays.sort(orders);
+        fields = new FieldInfo[size];
+        messageTypes = new Class<?>[size];
+        for (FieldInfo fieldInfo : fieldInfos) {
+            int index = Arrays.binarySearch(orders, fieldInfo.getOrder());
+            fields[index] = fieldInfo;
+            if (fieldInfo.getFieldType() == FieldType.OBJECT) {
+                Class<?> encodedType = CodeGenerator.getEncodedMessageType(fieldInfo.getField());
+                if (encodedType == null) {
+                    messageTypes[index] = getMessageType(fieldInfo.getField());
+                } else if (encodedType != Object.class) {
+                    messageTypes[index] = encodedType;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return class of message or list element
+     */
+    private static Class<?> getMessageType(Field field) {
+        if (!CodeGenerator.isListType(field)) {
+            return field.getType();
+        }
+        Type type = field.getGenericType();
+        if (type instanceof ParameterizedType) {
+            Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (elementType instanceof Class) {
+                return (Class<?>) elementType;
+            }
+        }
+        throw new IllegalArgumentException("Element type of field '" + field.getName() + "' is not a class.");
+    }
+
+    /**
+     * get field order by java field name
+     *
+     * @param fieldName field name of target class
+     * @return field order
+     */
+    public int getOrder(String fieldName) {
+        for (FieldInfo fieldInfo : fields) {
+            if (fieldInfo.getField().getName().equals(fieldName)) {
+                return fieldInfo.getOrder();
+            }
+        }
+        throw new IllegalArgumentException("Field '" + fieldName + "' not found in class " + cls.getName());
+    }
+
+    /**
+     * walk encoded message and pass field values to visitor
+     *
+     * @param bytes encoded message
+     * @param visitor callbacks of field values
+     * @throws IOException if encoded message is malformed
+     */
+    public void walk(byte[] bytes, Visitor visitor) throws IOException {
+        if (bytes == null) {
+            throw new NullPointerException("Parameter bytes is null");
+        }
+        walk(ByteBuffer.wrap(bytes), visitor);
+    }
+
+    /**
+     * walk encoded message from position to limit of buffer, position of buffer is not changed.
+     *
+     * @param buffer encoded message, heap or direct
+     * @param visitor callbacks of field values
+     * @throws IOException if encoded message is malformed
+     */
+    public void walk(ByteBuffer buffer, Visitor visitor) throws IOException {
+        if (buffer == null) {
+            throw new NullPointerException("Parameter buffer is null");
+        }
+        if (visitor == null) {
+            throw new NullPointerException("Parameter visitor is null");
+        }
+        ByteBuffer in = buffer.duplicate();
+        ByteBuffer view = buffer.duplicate();
+        walk(in, in.limit(), view, visitor, 0);
+    }
+
+    private void walk(ByteBuffer in, int end, ByteBuffer view, Visitor visitor, int depth) throws IOException {
+        while (in.position() < end) {
+            int tag = readRawVarint32(in, end);
+            int order = tag >>> 3;
+            int wireType = tag & 7;
+            if (order == 0) {
+                throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+            }
+            int index = Arrays.binarySearch(orders, order);
+            if (index < 0) {
+                skipField(in, end, wireType, order, depth);
+                continue;
+            }
+            FieldInfo fieldInfo = fields[index];
+            FieldType type = fieldInfo.getFieldType();
+            if (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                int length = readRawVarint32(in, end);
+                // compare remaining bytes to avoid overflow of huge length
+                if (length < 0 || length > end - in.position()) {
+                    throw truncated();
+                }
+                int limit = in.position() + length;
+                if (type == FieldType.OBJECT && messageTypes[index] != null) {
+                    if (depth >= RECURSION_LIMIT) {
+                        throw recursionLimitExceeded();
+                    }
+                    visitor.enterMessage(order);
+                    create(messageTypes[index]).walk(in, limit, view, visitor, depth + 1);
+                    visitor.exitMessage(order);
+                } else if (type == FieldType.STRING && !fieldInfo.isCompressed()) {
+                    visitor.onString(order, decodeUtf8(in, limit));
+                } else if (type == FieldType.STRING || type == FieldType.BYTES || type == FieldType.OBJECT) {
+                    view.limit(limit).position(in.position());
+                    visitor.onBytes(order, view);
+                } else {
+                    // packed repeated scalar field
+                    while (in.position() < limit) {
+                        readScalar(in, limit, type, order, visitor);
+                    }
+                }
+                in.position(limit);
+            } else if (wireType == getWireType(type)) {
+                readScalar(in, end, type, order, visitor);
+            } else {
+                skipField(in, end, wireType, order, depth);
+            }
+        }
+        if (in.position() != end) {
+            throw truncated();
+        }
+    }
+
+    private static int getWireType(FieldType type) {
+        switch (type) {
+        case DOUBLE:
+        case FIXED64:
+        case SFIXED64:
+            return WireFormat.WIRETYPE_FIXED64;
+        case FLOAT:
+        case FIXED32:
+        case SFIXED32:
+            return WireFormat.WIRETYPE_FIXED32;
+        case STRING:
+        case BYTES:
+        case OBJECT:
+            return WireFormat.WIRETYPE_LENGTH_DELIMITED;
+        default:
+            return WireFormat.WIRETYPE_VARINT;
+        }
+    }
+
+    private static void readScalar(ByteBuffer in, int end, FieldType type, int order, Visitor visitor)
+            throws IOException {
+        switch (type) {
+        case DOUBLE:
+            visitor.onDouble(order, Double.longBitsToDouble(readRawLittleEndian64(in, end)));
+            break;
+        case FLOAT:
+            visitor.onFloat(order, Float.intBitsToFloat(readRawLittleEndian32(in, end)));
+            break;
+        case INT64:
+        case UINT64:
+            visitor.onLong(order, readRawVarint64(in, end));
+            break;
+        case SINT64:
+            long l = readRawVarint64(in, end);
+            visitor.onLong(order, (l >>> 1) ^ -(l & 1));
+            break;
+        case FIXED64:
+        case SFIXED64:
+            visitor.onLong(order, readRawLittleEndian64(in, end));
+            break;
+        case FIXED32:
+        case SFIXED32:
+            visitor.onInt(order, readRawLittleEndian32(in, end));
+            break;
+        case SINT32:
+            int i = readRawVarint32(in, end);
+            visitor.onInt(order, (i >>> 1) ^ -(i & 1));
+            break;
+        case BOOL:
+            visitor.onBool(order, readRawVarint64(in, end) != 0);
+            break;
+        default:
+            // int32, uint32 and enum
+            visitor.onInt(order, readRawVarint32(in, end));
+            break;
+        }
+    }
+
+    private static void skipField(ByteBuffer in, int end, int wireType, int order, int depth) throws IOException {
+        switch (wireType) {
+        case WireFormat.WIRETYPE_VARINT:
+            readRawVarint64(in, end);
+            break;
+        case WireFormat.WIRETYPE_FIXED64:
+            skip(in, end, 8);
+            break;
+        case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            skip(in, end, readRawVarint32(in, end));
+            break;
+        case WireFormat.WIRETYPE_START_GROUP:
+            if (depth >= RECURSION_LIMIT) {
+                throw recursionLimitExceeded();
+            }
+            int endTag = CodedConstant.makeTag(order, WireFormat.WIRETYPE_END_GROUP);
+            while (true) {
+                int tag = readRawVarint32(in, end);
+                if (tag == endTag) {
+                    break;
+                }
+                skipField(in, end, tag & 7, tag >>> 3, depth + 1);
+            }
+            break;
+        case WireFormat.WIRETYPE_FIXED32:
+            skip(in, end, 4);
+            break;
+        default:
+            throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+        }
+    }
+
+    private static void skip(ByteBuffer in, int end, int length) throws IOException {
+        if (length < 0 || length > end - in.position()) {
+            throw truncated();
+        }
+        in.position(in.position() + length);
+    }
+
+    private static int readRawVarint32(ByteBuffer in, int end) throws IOException {
+        return (int) readRawVarint64(in, end);
+    }
+
+    private static long readRawVarint64(ByteBuffer in, int end) throws IOException {
+        int shift = 0;
+        long result = 0;
+        while (shift < 64) {
+            if (in.position() >= end) {
+                throw truncated();
+            }
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+            shift += 7;
+        }
+        throw new InvalidProtocolBufferException("CodedInputStream encountered a malformed varint.");
+    }
+
+    private static int readRawLittleEndian32(ByteBuffer in, int end) throws IOException {
+        if (end - in.position() < 4) {
+            throw truncated();
+        }
+        return (in.get() & 0xFF) | ((in.get() & 0xFF) << 8) | ((in.get() & 0xFF) << 16) | ((in.get() & 0xFF) << 24);
+    }
+
+    private static long readRawLittleEndian64(ByteBuffer in, int end) throws IOException {
+        long low = readRawLittleEndian32(in, end) & 0xFFFFFFFFL;
+        long high = readRawLittleEndian32(in, end) & 0xFFFFFFFFL;
+        return low | (high << 32);
+    }
+
+    /**
+     * decode UTF-8 bytes to thread local char buffer, or to a new buffer if it is too large to keep
+     */
+    private static CharSequence decodeUtf8(ByteBuffer in, int limit) throws IOException {
+        // char count never exceeds UTF-8 byte count
+        int length = limit - in.position();
+        CharBuffer chars;
+        if (length > MAX_CACHED_CHARS_SIZE) {
+            chars = CharBuffer.allocate(length);
+        } else {
+            chars = CHARS.get();
+            if (chars == null || chars.capacity() < length) {
+                chars = CharBuffer.allocate(Math.max(length, DEFAULT_CHARS_SIZE));
+                CHARS.set(chars);
+            }
+        }
+        chars.clear();
+        while (in.position() < limit) {
+            int b = in.get() & 0xFF;
+            if (b < 0x80) {
+                chars.put((char) b);
+            } else if (b < 0xE0) {
+                chars.put((char) (((b & 0x1F) << 6) | continuation(in, limit)));
+            } else if (b < 0xF0) {
+                int c = ((b & 0x0F) << 12) | (continuation(in, limit) << 6);
+                chars.put((char) (c | continuation(in, limit)));
+            } else {
+                int c = ((b & 0x07) << 18) | (continuation(in, limit) << 12);
+                c |= continuation(in, limit) << 6;
+                c |= continuation(in, limit);
+                // surrogate pair of supplementary code point
+                chars.put((char) (0xD7C0 + (c >>> 10)));
+                chars.put((char) (0xDC00 + (c & 0x3FF)));
+            }
+        }
+        chars.flip();
+        return chars;
+    }
+
+    private static int continuation(ByteBuffer in, int limit) throws IOException {
+        if (in.position() >= limit) {
+            throw new InvalidProtocolBufferException("Malformed UTF-8 string value.");
+        }
+        return in.get() & 0x3F;
+    }
+
+    private static InvalidProtocolBufferException recursionLimitExceeded() {
+        return new InvalidProtocolBufferException("Protocol message had too many levels of nesting, max "
+                + RECURSION_LIMIT + ".");
+    }
+
+    private static InvalidProtocolBufferException truncated() {
+        return new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly "
+                + "in the middle of a field.");
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+/**
+ * Supports to remember the encoded bytes which the object is decoded from. If the object and all its nested
+ * messages are not modified, encode action copies the original bytes instead of serializing fields again.
+ * <p>
+ * Every setter of the implementation should clear the original bytes to mark the object modified. Changes which
+ * bypass setters, such as assigning public fields or adding elements to a decoded list, are not tracked. A copy of
+ * the byte array passed to {@link Codec#decode(byte[])} is kept, so the caller may reuse the array afterwards.
+ * </p>
+ * 
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public interface OriginalBytesAware {
+
+    /**
+     * @return encoded bytes the object is decoded from, or null if modified or not decoded
+     */
+    byte[] getOriginalBytes();
+
+    /**
+     * @param originalBytes encoded bytes the object is decoded from, null to mark the object modified
+     */
+    void setOriginalBytes(byte[] originalBytes);
+}
@@ -123,7 +123,24 @@ public class ProtobufIDLGenerator {
             if (field.hasDescription()) {
                 code.append("// ").append(field.getDescription()).append("\n");
             }
-            if (field.getFieldType() == FieldType.OBJECT) {
+            Class<?> encodedMessageType = CodeGenerator.getEncodedMessageType(field.getField());
+            if (field.getFieldType() == FieldType.OBJECT && encodedMessageType != null) {
+                // use message type of encoded message holder
+                String required = getFieldRequired(field.isRequired());
+                if (CodeGenerator.isListType(field.getField())) {
+                    required = "repeated";
+                }
+                String type = "bytes";
+                if (encodedMessageType != Object.class) {
+                    type = encodedMessageType.getSimpleName();
+                    if (!cachedTypes.contains(encodedMessageType)) {
+                        cachedTypes.add(encodedMessageType);
+                        subTypes.add(encodedMessageType);
+                    }
+                }
+                code.append(required).append(" ").append(type).append(" ").append(field.getField().getName())
+                        .append("=").append(field.getOrder()).append(";\n");
+            } else if (field.getFieldType() == FieldType.OBJECT) {
                 if (CodeGenerator.isListType(field.getField())) {
                     Type type = field.getField().getGenericType();
                     if (type instanceof ParameterizedType) {
@@ -156,6 +173,10 @@ public class ProtobufIDLGenerator {
                 }
             } else {
                 String type = field.getFieldType().getType().toLowerCase();
+                if (field.isCompressed()) {
+                    // compressed value is written as bytes
+                    type = "bytes";
+                }
 
                 if (field.getFieldType() == FieldType.ENUM) {
                     // if enum type
@@ -24,6 +24,7 @@ import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
 import com.baidu.bjf.remoting.protobuf.utils.CodePrinter;
@@ -41,7 +42,7 @@ import com.baidu.bjf.remoting.protobuf.utils.StringUtils;
  */
 public final class ProtobufProxy {
 
-    private static final Map<String, Codec> CACHED = new HashMap<String, Codec>();
+    private static final Map<String, Codec> CACHED = new ConcurrentHashMap<String, Codec>();
     private static final Map<String, Byte[]> CACHED_CLASS_FILE = new HashMap<String, Byte[]>();
 
     /**
@@ -142,6 +143,24 @@ public final class ProtobufProxy {
             }
         }
 
+        String uniClsName = cls.getName();
+        Codec codec = CACHED.get(uniClsName);
+        if (codec != null) {
+            return codec;
+        }
+        return generate(cls, debug, path);
+    }
+
+    /**
+     * generate and compile proxy class. it is serialized as nested codecs may be created from worker threads of
+     * parallel encode and decode, while the shared compiler is not thread safe.
+     * 
+     * @param cls target object class
+     * @param debug true will print generate java source code
+     * @param path output path of class file, may be null
+     * @return proxy instance object.
+     */
+    private static synchronized <T> Codec<T> generate(Class<T> cls, boolean debug, File path) {
         String uniClsName = cls.getName();
         Codec codec = CACHED.get(uniClsName);
         if (codec != null) {
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Collector of unknown fields during decode. Byte ranges of unknown fields are recorded when decoding from byte
+ * array and adjacent ranges are merged, then copied into one compact byte array.
+ * 
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public final class UnknownFields {
+
+    private static final int TAG_TYPE_MASK = (1 << CodedConstant.TAG_TYPE_BITS) - 1;
+
+    private byte[] source;
+
+    /**
+     * start and end pairs of recorded ranges
+     */
+    private int[] ranges = new int[4];
+
+    private int rangeCount;
+
+    /**
+     * copied bytes if read from input stream
+     */
+    private byte[] copied;
+
+    private int copiedLength;
+
+    /**
+     * record byte range of an unknown field
+     * 
+     * @param bb source byte array
+     * @param start start offset of unknown field include tag
+     * @param end end offset of unknown field
+     */
+    public void addRange(byte[] bb, int start, int end) {
+        if (source != null && source != bb) {
+            throw new IllegalArgumentException("Ranges should be recorded from the same byte array.");
+        }
+        source = bb;
+        if (rangeCount > 0 && ranges[rangeCount * 2 - 1] == start) {
+            ranges[rangeCount * 2 - 1] = end;
+            return;
+        }
+        if (rangeCount * 2 == ranges.length) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+        ranges[rangeCount * 2] = start;
+        ranges[rangeCount * 2 + 1] = end;
+        rangeCount++;
+    }
+
+    /**
+     * read an unknown field from input stream and keep its bytes.
+     * 
+     * @param tag tag of field which is already read
+     * @param input input stream
+     * @throws IOException if byte array is invalid
+     */
+    public void copyField(int tag, CodedInputStream input) throws IOException {
+        writeRawVarint32(tag);
+        switch (tag & TAG_TYPE_MASK) {
+        case WireFormat.WIRETYPE_VARINT:
+            long varint = input.readRawVarint64();
+            do {
+                if ((varint & ~0x7FL) == 0) {
+                    writeRawByte((int) varint);
+                    break;
+                }
+                writeRawByte(((int) varint & 0x7F) | 0x80);
+                varint >>>= 7;
+            } while (true);
+            return;
+        case WireFormat.WIRETYPE_FIXED64:
+            writeRawBytes(input.readRawBytes(8));
+            return;
+        case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            int length = input.readRawVarint32();
+            writeRawVarint32(length);
+            writeRawBytes(input.readRawBytes(length));
+            return;
+        case WireFormat.WIRETYPE_START_GROUP:
+            int endTag = CodedConstant.makeTag(tag >>> CodedConstant.TAG_TYPE_BITS, WireFormat.WIRETYPE_END_GROUP);
+            while (true) {
+                int nestedTag = input.readTag();
+                if (nestedTag == 0 || nestedTag == endTag) {
+                    input.checkLastTagWas(endTag);
+                    writeRawVarint32(endTag);
+                    return;
+                }
+                copyField(nestedTag, input);
+            }
+        case WireFormat.WIRETYPE_FIXED32:
+            writeRawBytes(input.readRawBytes(4));
+            return;
+        default:
+            throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+        }
+    }
+
+    /**
+     * @return all unknown fields in one compact byte array, or null if no unknown field
+     */
+    public byte[] toByteArray() {
+        if (copiedLength > 0) {
+            return Arrays.copyOf(copied, copiedLength);
+        }
+        if (rangeCount == 0) {
+            return null;
+        }
+        if (rangeCount == 1) {
+            return Arrays.copyOfRange(source, ranges[0], ranges[1]);
+        }
+        int size = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            size += ranges[i * 2 + 1] - ranges[i * 2];
+        }
+        byte[] ret = new byte[size];
+        int pos = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            int length = ranges[i * 2 + 1] - ranges[i * 2];
+            System.arraycopy(source, ranges[i * 2], ret, pos, length);
+            pos += length;
+        }
+        return ret;
+    }
+
+    /**
+     * split unknown fields into single fields sorted by field number, relative order of fields with the same number
+     * is kept.
+     * 
+     * @param unknownFields unknown fields bytes
+     * @return field number, start offset and end offset of each field
+     * @throws IOException if byte array is invalid
+     */
+    public static int[] sortFields(byte[] unknownFields) throws IOException {
+        int[] ret = new int[12];
+        int count = 0;
+        CodedInputStream input = CodedInputStream.newInstance(unknownFields);
+        while (true) {
+            int start = input.getTotalBytesRead();
+            int tag = input.readTag();
+            if (tag == 0) {
+                break;
+            }
+            input.skipField(tag);
+            if (count * 3 == ret.length) {
+                ret = Arrays.copyOf(ret, ret.length * 2);
+            }
+            int number = tag >>> CodedConstant.TAG_TYPE_BITS;
+            // insertion sort, unknown fields are few and mostly in order already
+            int i = count;
+            while (i > 0 && ret[(i - 1) * 3] > number) {
+                System.arraycopy(ret, (i - 1) * 3, ret, i * 3, 3);
+                i--;
+            }
+            ret[i * 3] = number;
+            ret[i * 3 + 1] = start;
+            ret[i * 3 + 2] = input.getTotalBytesRead();
+            count++;
+        }
+        return Arrays.copyOf(ret, count * 3);
+    }
+
+    /**
+     * write sorted unknown fields whose field number is less than target field number.
+     * 
+     * @param out output stream
+     * @param unknownFields unknown fields bytes
+     * @param sortedFields sorted fields returned by {@link #sortFields(byte[])}
+     * @param index index of first field not written yet
+     * @param number target field number
+     * @return index of first field not written yet
+     * @throws IOException if write failed
+     */
+    public static int writeFieldsBefore(CodedOutputStream out, byte[] unknownFields, int[] sortedFields, int index,
+            int number) throws IOException {
+        while (index * 3 < sortedFields.length && sortedFields[index * 3] < number) {
+            int start = sortedFields[index * 3 + 1];
+            out.writeRawBytes(unknownFields, start, sortedFields[index * 3 + 2] - start);
+            index++;
+        }
+        return index;
+    }
+
+    private void writeRawVarint32(int value) {
+        while ((value & ~0x7F) != 0) {
+            writeRawByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeRawByte(value);
+    }
+
+    private void writeRawByte(int value) {
+        ensureCapacity(1);
+        copied[copiedLength++] = (byte) value;
+    }
+
+    private void writeRawBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, copied, copiedLength, bytes.length);
+        copiedLength += bytes.length;
+    }
+
+    private void ensureCapacity(int more) {
+        if (copied == null) {
+            copied = new byte[Math.max(32, more)];
+        } else if (copiedLength + more > copied.length) {
+            copied = Arrays.copyOf(copied, Math.max(copied.length * 2, copiedLength + more));
+        }
+    }
+}
@@ -64,4 +64,43 @@ public @interface Protobuf {
      */
     String description() default "";
 
+    /**
+     * Set to true to encode and decode large repeated {@link FieldType#OBJECT} field in parallel.
+     * Element count should reach the threshold of
+     * {@link com.baidu.bjf.remoting.protobuf.utils.ParallelUtils#getThreshold()}.
+     * 
+     * @return true to enable parallel mode
+     */
+    boolean parallel() default false;
+
+    /**
+     * Set to compress value of {@link FieldType#STRING} or {@link FieldType#BYTES} field if its byte size reaches
+     * the threshold. Field type could be {@link String}, <code>byte[]</code> or
+     * {@link com.baidu.bjf.remoting.protobuf.CompressedValue} which decompresses lazily. Negative value disables
+     * compression. When a nested message is written, its compressed values are computed by its <code>size</code>
+     * and reused by the following <code>writeTo</code> of the same write. Decoded original size is bounded by
+     * {@link com.baidu.bjf.remoting.protobuf.compress.FieldCompressor#getMaxOriginalSize()}.
+     * 
+     * @return minimum byte size to compress field value
+     */
+    int compressThreshold() default -1;
+
+    /**
+     * Set to true to share decoded {@link FieldType#STRING} values through
+     * {@link com.baidu.bjf.remoting.protobuf.utils.StringPool#getDefault()}, which saves memory of repeated low
+     * cardinality strings.
+     * 
+     * @return true to deduplicate decoded strings
+     */
+    boolean dedup() default false;
+
+    /**
+     * Set to true to cache UTF-8 encoded bytes of {@link FieldType#STRING} values through
+     * {@link com.baidu.bjf.remoting.protobuf.utils.Utf8Cache#getDefault()} on encode, which saves encoding of hot
+     * strings such as labels and names.
+     * 
+     * @return true to cache encoded bytes of strings
+     */
+    boolean utf8Cache() default false;
+
 }
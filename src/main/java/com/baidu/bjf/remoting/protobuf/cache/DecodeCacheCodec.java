@@ -0,0 +1,200 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.utils.MurmurHash3;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Codec wrapper which caches decoded objects by content of input bytes. It is designed for payloads received over
+ * and over with identical bytes, decoding the same bytes again returns the same shared object, so the caller
+ * should treat decoded objects as immutable.
+ * <p>
+ * Input bytes are looked up by a 64-bit hash and confirmed by length and byte comparison. Entries are evicted in
+ * least recently used order once the total size of cached payloads exceeds the memory budget.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class DecodeCacheCodec<T> extends AbstractCodec<T> {
+
+    private final Codec<T> target;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<Long, Entry<T>> cache = new LinkedHashMap<Long, Entry<T>>(16, 0.75f, true);
+
+    private long cachedBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param target codec to decode on cache miss
+     * @param maxBytes memory budget of all cached payloads
+     */
+    public DecodeCacheCodec(Codec<T> target, long maxBytes) {
+        if (target == null) {
+            throw new NullPointerException("Parameter target is null");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Param 'maxBytes' should be positive.");
+        }
+        this.target = target;
+        this.maxBytes = maxBytes;
+    }
+
+    public byte[] encode(T t) throws IOException {
+        return target.encode(t);
+    }
+
+    /**
+     * Do decode action from byte array. Returned object may be shared and should not be modified.
+     */
+    public T decode(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            throw new NullPointerException("Parameter bytes is null");
+        }
+        Long hash = MurmurHash3.hash64(bytes, 0, bytes.length);
+        synchronized (this) {
+            Entry<T> entry = cache.get(hash);
+            if (entry != null && Arrays.equals(entry.bytes, bytes)) {
+                hitCount.incrementAndGet();
+                savedBytes.addAndGet(bytes.length);
+                return entry.value;
+            }
+        }
+
+        missCount.incrementAndGet();
+        if (bytes.length > maxBytes) {
+            return target.decode(bytes);
+        }
+        // decode from the kept copy, as decoded value may share its bytes (e.g. ByteBuffer field)
+        byte[] copy = bytes.clone();
+        T value = target.decode(copy);
+        put(hash, new Entry<T>(copy, value));
+        return value;
+    }
+
+    public int size(T t) throws IOException {
+        return target.size(t);
+    }
+
+    public void writeTo(T t, CodedOutputStream out) throws IOException {
+        target.writeTo(t, out);
+    }
+
+    public T readFrom(CodedInputStream intput) throws IOException {
+        return target.readFrom(intput);
+    }
+
+    /**
+     * remove all cached objects
+     */
+    public synchronized void clear() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * @return hit count of decode actions
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return miss count of decode actions
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return hit rate of decode actions, 0 if no decode action
+     */
+    public double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return total size of input bytes which are not decoded for cache hits
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * @return total size of cached payloads
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * @return count of cached objects
+     */
+    public synchronized int getCachedCount() {
+        return cache.size();
+    }
+
+    private synchronized void put(Long hash, Entry<T> entry) {
+        Entry<T> old = cache.put(hash, entry);
+        if (old != null) {
+            cachedBytes -= old.bytes.length;
+        }
+        cachedBytes += entry.bytes.length;
+
+        Iterator<Map.Entry<Long, Entry<T>>> it = cache.entrySet().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            cachedBytes -= it.next().getValue().bytes.length;
+            it.remove();
+        }
+    }
+
+    /**
+     * cached payload and decoded object
+     */
+    private static class Entry<T> {
+
+        private final byte[] bytes;
+
+        private final T value;
+
+        Entry(byte[] bytes, T value) {
+            this.bytes = bytes;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.cache;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Codec wrapper which memorizes encoded bytes by object identity. It is designed to broadcast immutable messages,
+ * repeated encode actions on the same object return the same shared byte array, which should not be modified.
+ * <p>
+ * Objects are weakly referenced and the cached bytes are evicted in least recently used order once the total
+ * size exceeds the memory budget. Use {@link #encode(Object, long)} with a version stamp if the object may be
+ * changed, a different version encodes the object again.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class EncodeCacheCodec<T> extends AbstractCodec<T> {
+
+    /**
+     * default version stamp of {@link #encode(Object)}
+     */
+    private static final long DEFAULT_VERSION = 0L;
+
+    private final Codec<T> target;
+
+    private final long maxBytes;
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    private final LinkedHashMap<IdentityKey, Entry> cache = new LinkedHashMap<IdentityKey, Entry>(16, 0.75f, true);
+
+    private long cachedBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param target codec to encode on cache miss
+     * @param maxBytes memory budget of all cached bytes
+     */
+    public EncodeCacheCodec(Codec<T> target, long maxBytes) {
+        if (target == null) {
+            throw new NullPointerException("Parameter target is null");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Param 'maxBytes' should be positive.");
+        }
+        this.target = target;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Do byte encode action. Returned byte array is shared and should not be modified.
+     */
+    public byte[] encode(T t) throws IOException {
+        return encode(t, DEFAULT_VERSION);
+    }
+
+    /**
+     * Do byte encode action with version stamp. Returned byte array is shared and should not be modified.
+     *
+     * @param t target object
+     * @param version version stamp of target object, cached bytes of other version are not used
+     * @return encoded byte array
+     * @throws IOException if target object is invalid
+     */
+    public byte[] encode(T t, long version) throws IOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        Entry entry = get(t, version);
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry.bytes;
+        }
+        missCount.incrementAndGet();
+        byte[] bytes = target.encode(t);
+        put(t, version, bytes);
+        return bytes;
+    }
+
+    /**
+     * Do byte encode action and return a read only buffer of the shared bytes.
+     *
+     * @param t target object
+     * @return read only byte buffer
+     * @throws IOException if target object is invalid
+     */
+    public ByteBuffer encodeToBuffer(T t) throws IOException {
+        return encodeToBuffer(t, DEFAULT_VERSION);
+    }
+
+    /**
+     * Do byte encode action with version stamp and return a read only buffer of the shared bytes.
+     *
+     * @param t target object
+     * @param version version stamp of target object
+     * @return read only byte buffer
+     * @throws IOException if target object is invalid
+     */
+    public ByteBuffer encodeToBuffer(T t, long version) throws IOException {
+        return ByteBuffer.wrap(encode(t, version)).asReadOnlyBuffer();
+    }
+
+    public T decode(byte[] bytes) throws IOException {
+        return target.decode(bytes);
+    }
+
+    public int size(T t) throws IOException {
+        // cached bytes may be not canonical
+        Entry entry = isCanonical() ? null : get(t, DEFAULT_VERSION);
+        if (entry != null) {
+            return entry.bytes.length;
+        }
+        return target.size(t);
+    }
+
+    public void writeTo(T t, CodedOutputStream out) throws IOException {
+        Entry entry = isCanonical() ? null : get(t, DEFAULT_VERSION);
+        if (entry != null) {
+            out.writeRawBytes(entry.bytes);
+            return;
+        }
+        target.writeTo(t, out);
+    }
+
+    public T readFrom(CodedInputStream intput) throws IOException {
+        return target.readFrom(intput);
+    }
+
+    /**
+     * remove cached bytes of target object
+     *
+     * @param t target object
+     */
+    public synchronized void invalidate(T t) {
+        Entry entry = cache.remove(new IdentityKey(t, null));
+        if (entry != null) {
+            cachedBytes -= entry.bytes.length;
+        }
+    }
+
+    /**
+     * remove all cached bytes
+     */
+    public synchronized void clear() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * @return hit count of encode actions
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return miss count of encode actions
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return count of entries evicted by memory budget
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return total size of cached bytes
+     */
+    public synchronized long getCachedBytes() {
+        expunge();
+        return cachedBytes;
+    }
+
+    /**
+     * @return count of cached objects
+     */
+    public synchronized int getCachedCount() {
+        expunge();
+        return cache.size();
+    }
+
+    private synchronized Entry get(T t, long version) {
+        if (t == null) {
+            return null;
+        }
+        expunge();
+        Entry entry = cache.get(new IdentityKey(t, null));
+        if (entry == null || entry.version != version) {
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(T t, long version, byte[] bytes) {
+        expunge();
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        Entry old = cache.put(new IdentityKey(t, queue), new Entry(bytes, version));
+        if (old != null) {
+            cachedBytes -= old.bytes.length;
+        }
+        cachedBytes += bytes.length;
+
+        Iterator<Map.Entry<IdentityKey, Entry>> it = cache.entrySet().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            cachedBytes -= it.next().getValue().bytes.length;
+            it.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * remove entries whose object is garbage collected
+     */
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            Entry entry = cache.remove(ref);
+            if (entry != null) {
+                cachedBytes -= entry.bytes.length;
+            }
+        }
+    }
+
+    /**
+     * cached bytes with version stamp
+     */
+    private static class Entry {
+
+        private final byte[] bytes;
+
+        private final long version;
+
+        Entry(byte[] bytes, long version) {
+            this.bytes = bytes;
+            this.version = version;
+        }
+    }
+
+    /**
+     * weak reference key compared by object identity
+     */
+    private static class IdentityKey extends WeakReference<Object> {
+
+        private final int hash;
+
+        IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IdentityKey)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((IdentityKey) obj).get();
+        }
+    }
+}
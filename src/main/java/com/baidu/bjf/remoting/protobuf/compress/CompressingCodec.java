@@ -0,0 +1,394 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.compress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.utils.ParallelUtils;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Codec wrapper which compresses encoded bytes of target codec with JDK {@link Deflater} if size reaches threshold.
+ * <p>
+ * Each frame starts with a header of algorithm byte, original size and payload size in varint, so it is self
+ * delimited and decompressed into an exactly sized byte array. Messages larger than block size are split into
+ * blocks which are compressed and decompressed in parallel, each block is prefixed by its compressed size.
+ * Bytes are stored as is if compression does not make them smaller. {@link Deflater} instances are pooled by
+ * {@link DeflaterPool}.
+ * </p>
+ * <p>
+ * Frame computed by {@link #size(Object)} is kept for the current thread and reused by the following
+ * {@link #writeTo(Object, CodedOutputStream)} of the same object, so the object is encoded and compressed only once.
+ * The kept frame is dropped by the next {@link #writeTo(Object, CodedOutputStream)}, or by the next
+ * {@link #size(Object)} or {@link #encode(Object)} of another object.
+ * On decode, original size in header is checked against {@link #getMaxOriginalSize()} and block size against
+ * {@link #MIN_BLOCK_SIZE} before allocation.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class CompressingCodec<T> extends AbstractCodec<T> {
+
+    /**
+     * bytes are not compressed
+     */
+    public static final int ALGORITHM_NONE = 0;
+
+    /**
+     * bytes are compressed as one deflate stream
+     */
+    public static final int ALGORITHM_DEFLATE = 1;
+
+    /**
+     * bytes are compressed as deflate streams of each block
+     */
+    public static final int ALGORITHM_DEFLATE_BLOCKS = 2;
+
+    /**
+     * default block size of {@link #ALGORITHM_DEFLATE_BLOCKS}
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    /**
+     * min block size of {@link #ALGORITHM_DEFLATE_BLOCKS}, frames with smaller block size are rejected on decode
+     */
+    public static final int MIN_BLOCK_SIZE = 4096;
+
+    /**
+     * default max original size of a frame to decode
+     */
+    public static final int DEFAULT_MAX_ORIGINAL_SIZE = 64 * 1024 * 1024;
+
+    private final Codec<T> target;
+
+    private final int threshold;
+
+    private final int blockSize;
+
+    private final DeflaterPool pool;
+
+    private volatile int maxOriginalSize = DEFAULT_MAX_ORIGINAL_SIZE;
+
+    /**
+     * frame computed by the last {@link #size(Object)} of current thread
+     */
+    private final ThreadLocal<LastFrame> lastFrame = new ThreadLocal<LastFrame>();
+
+    /**
+     * Constructor with default compression level and block size
+     *
+     * @param target codec to encode and decode original bytes
+     * @param threshold minimum size of original bytes to compress
+     */
+    public CompressingCodec(Codec<T> target, int threshold) {
+        this(target, threshold, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param target codec to encode and decode original bytes
+     * @param threshold minimum size of original bytes to compress
+     * @param level compression level of {@link Deflater}
+     * @param blockSize size of original bytes of each block, at least {@link #MIN_BLOCK_SIZE}
+     */
+    public CompressingCodec(Codec<T> target, int threshold, int level, int blockSize) {
+        if (target == null) {
+            throw new NullPointerException("Parameter target is null");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Param 'threshold' should not be negative.");
+        }
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Param 'blockSize' should not be less than " + MIN_BLOCK_SIZE + ".");
+        }
+        this.target = target;
+        this.threshold = threshold;
+        this.pool = new DeflaterPool(level);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * get max original size of a frame to decode
+     *
+     * @return max original size
+     */
+    public int getMaxOriginalSize() {
+        return maxOriginalSize;
+    }
+
+    /**
+     * set max original size of a frame to decode, frame with larger original size in header is rejected before
+     * allocation.
+     *
+     * @param maxOriginalSize max original size
+     */
+    public void setMaxOriginalSize(int maxOriginalSize) {
+        if (maxOriginalSize < 0) {
+            throw new IllegalArgumentException("Param 'maxOriginalSize' should not be negative.");
+        }
+        this.maxOriginalSize = maxOriginalSize;
+    }
+
+    public byte[] encode(T t) throws IOException {
+        LastFrame last = lastFrame.get();
+        if (last != null && last.source != t) {
+            // frame of another object would never be reused
+            lastFrame.remove();
+        }
+        return compress(target.encode(t));
+    }
+
+    public T decode(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            throw new NullPointerException("Parameter bytes is null");
+        }
+        CodedInputStream input = CodedInputStream.newInstance(bytes);
+        int algorithm = input.readRawByte();
+        int originalSize = readOriginalSize(input);
+        int payloadSize = input.readRawVarint32();
+        int offset = input.getTotalBytesRead();
+        if (offset + payloadSize != bytes.length) {
+            throw new IOException("Payload size " + payloadSize + " mismatch with frame size " + bytes.length);
+        }
+        return target.decode(decompress(algorithm, originalSize, bytes, offset, payloadSize));
+    }
+
+    /**
+     * size of compressed frame, which needs to encode and compress target object. the frame is kept for the
+     * following {@link #writeTo(Object, CodedOutputStream)} of the same object in current thread.
+     */
+    public int size(T t) throws IOException {
+        lastFrame.remove();
+        byte[] frame = compress(target.encode(t));
+        LastFrame last = new LastFrame();
+        last.source = t;
+        last.frame = frame;
+        lastFrame.set(last);
+        return frame.length;
+    }
+
+    public void writeTo(T t, CodedOutputStream out) throws IOException {
+        byte[] frame = null;
+        LastFrame last = lastFrame.get();
+        if (last != null) {
+            lastFrame.remove();
+            if (last.source == t) {
+                frame = last.frame;
+            }
+        }
+        if (frame == null) {
+            frame = encode(t);
+        }
+        out.writeRawBytes(frame);
+    }
+
+    /**
+     * Do batch encode action. Each object is encoded and compressed once into its frame, and frames are written with a
+     * varint length prefix. blocks of large frames are compressed in parallel regardless of parallel flag.
+     */
+    @Override
+    public byte[] encodeAll(List<T> list, boolean parallel) throws IOException {
+        if (list == null) {
+            throw new NullPointerException("Parameter list is null");
+        }
+        int count = list.size();
+        byte[][] frames = new byte[count][];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            T t = list.get(i);
+            if (t == null) {
+                throw new NullPointerException("Element at index " + i + " of list is null");
+            }
+            frames[i] = encode(t);
+            total += CodedOutputStream.computeRawVarint32Size(frames[i].length) + frames[i].length;
+            if (total > Integer.MAX_VALUE) {
+                throw new IOException("Encoded size " + total + " exceeds max byte array size.");
+            }
+        }
+        byte[] result = new byte[(int) total];
+        CodedOutputStream output = CodedOutputStream.newInstance(result);
+        for (byte[] frame : frames) {
+            output.writeRawVarint32(frame.length);
+            output.writeRawBytes(frame);
+        }
+        output.checkNoSpaceLeft();
+        return result;
+    }
+
+    public T readFrom(CodedInputStream input) throws IOException {
+        int algorithm = input.readRawByte();
+        int originalSize = readOriginalSize(input);
+        int payloadSize = input.readRawVarint32();
+        byte[] payload = input.readRawBytes(payloadSize);
+        return target.decode(decompress(algorithm, originalSize, payload, 0, payloadSize));
+    }
+
+    private int readOriginalSize(CodedInputStream input) throws IOException {
+        int originalSize = input.readRawVarint32();
+        if (originalSize < 0 || originalSize > maxOriginalSize) {
+            throw new IOException("Original size " + (originalSize & 0xFFFFFFFFL) + " exceeds max original size "
+                    + maxOriginalSize);
+        }
+        return originalSize;
+    }
+
+    private byte[] compress(final byte[] bytes) throws IOException {
+        int length = bytes.length;
+        if (length < threshold || length == 0) {
+            return frame(ALGORITHM_NONE, length, Arrays.asList(bytes), length, false);
+        }
+        if (length <= blockSize) {
+            byte[] compressed = pool.deflate(bytes, 0, length);
+            if (compressed.length >= length) {
+                return frame(ALGORITHM_NONE, length, Arrays.asList(bytes), length, false);
+            }
+            return frame(ALGORITHM_DEFLATE, length, Arrays.asList(compressed), compressed.length, false);
+        }
+
+        int blocks = (int) (((long) length + blockSize - 1) / blockSize);
+        List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            final int offset = i * blockSize;
+            final int size = Math.min(blockSize, length - offset);
+            tasks.add(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return pool.deflate(bytes, offset, size);
+                }
+            });
+        }
+        List<byte[]> compressed = invoke(tasks);
+
+        long payloadSize = CodedOutputStream.computeRawVarint32Size(blockSize);
+        for (byte[] block : compressed) {
+            payloadSize += CodedOutputStream.computeRawVarint32Size(block.length) + block.length;
+        }
+        if (payloadSize >= length) {
+            return frame(ALGORITHM_NONE, length, Arrays.asList(bytes), length, false);
+        }
+        return frame(ALGORITHM_DEFLATE_BLOCKS, length, compressed, (int) payloadSize, true);
+    }
+
+    private byte[] frame(int algorithm, int originalSize, List<byte[]> payload, int payloadSize, boolean blocks)
+            throws IOException {
+        byte[] result = new byte[1 + CodedOutputStream.computeRawVarint32Size(originalSize)
+                + CodedOutputStream.computeRawVarint32Size(payloadSize) + payloadSize];
+        CodedOutputStream output = CodedOutputStream.newInstance(result);
+        output.writeRawByte(algorithm);
+        output.writeRawVarint32(originalSize);
+        output.writeRawVarint32(payloadSize);
+        if (blocks) {
+            output.writeRawVarint32(blockSize);
+        }
+        for (byte[] bytes : payload) {
+            if (blocks) {
+                output.writeRawVarint32(bytes.length);
+            }
+            output.writeRawBytes(bytes);
+        }
+        output.checkNoSpaceLeft();
+        return result;
+    }
+
+    private byte[] decompress(int algorithm, int originalSize, final byte[] bytes, int offset, int length)
+            throws IOException {
+        if (algorithm == ALGORITHM_NONE) {
+            if (length != originalSize) {
+                throw new IOException("Original size " + originalSize + " mismatch with payload size " + length);
+            }
+            return Arrays.copyOfRange(bytes, offset, offset + length);
+        }
+
+        final byte[] result = new byte[originalSize];
+        if (algorithm == ALGORITHM_DEFLATE) {
+            pool.inflate(bytes, offset, length, result, 0, originalSize);
+            return result;
+        }
+        if (algorithm != ALGORITHM_DEFLATE_BLOCKS) {
+            throw new IOException("Unknown compression algorithm " + algorithm);
+        }
+
+        CodedInputStream input = CodedInputStream.newInstance(bytes, offset, length);
+        int size = input.readRawVarint32();
+        if (size < MIN_BLOCK_SIZE) {
+            throw new IOException("Invalid block size " + size);
+        }
+        // each block takes at least one byte of payload
+        long blocks = ((long) originalSize + size - 1) / size;
+        if (blocks > length) {
+            throw new IOException("Block count " + blocks + " exceeds payload size " + length);
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>((int) blocks);
+        for (int pos = 0; pos < originalSize; pos += size) {
+            final int blockLength = input.readRawVarint32();
+            final int blockOffset = offset + input.getTotalBytesRead();
+            final int resultOffset = pos;
+            final int resultLength = Math.min(size, originalSize - pos);
+            input.skipRawBytes(blockLength);
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    pool.inflate(bytes, blockOffset, blockLength, result, resultOffset, resultLength);
+                    return null;
+                }
+            });
+        }
+        if (!input.isAtEnd()) {
+            throw new IOException("Unexpected bytes after last block");
+        }
+        invoke(tasks);
+        return result;
+    }
+
+    private static <V> List<V> invoke(List<Callable<V>> tasks) throws IOException {
+        if (ParallelUtils.shouldParallel(tasks.size(), 2)) {
+            return ParallelUtils.invokeAll(tasks);
+        }
+        List<V> ret = new ArrayList<V>(tasks.size());
+        try {
+            for (Callable<V> task : tasks) {
+                ret.add(task.call());
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            IOException ex = new IOException(e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+        return ret;
+    }
+
+    /**
+     * frame of the last sized object
+     */
+    private static class LastFrame {
+
+        private Object source;
+
+        private byte[] frame;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Deflater} and {@link Inflater} instances to compress and decompress byte arrays. Instances are
+ * reset after each use and ended if the pool is full.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class DeflaterPool {
+
+    private static final int MAX_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final int level;
+
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(MAX_POOL_SIZE);
+
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(MAX_POOL_SIZE);
+
+    /**
+     * Constructor
+     *
+     * @param level compression level of {@link Deflater}
+     */
+    public DeflaterPool(int level) {
+        // check level is valid
+        new Deflater(level).end();
+        this.level = level;
+    }
+
+    /**
+     * compress byte array range into zlib format
+     *
+     * @param bytes source byte array
+     * @param offset start offset
+     * @param length byte length
+     * @return compressed bytes
+     */
+    public byte[] deflate(byte[] bytes, int offset, int length) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+        try {
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            // compress bound of zlib
+            byte[] buffer = new byte[length + (length >> 12) + (length >> 14) + (length >> 25) + 13];
+            int pos = 0;
+            while (!deflater.finished()) {
+                if (pos == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                pos += deflater.deflate(buffer, pos, buffer.length - pos);
+            }
+            return Arrays.copyOf(buffer, pos);
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * decompress zlib format bytes into exactly sized range of result byte array
+     *
+     * @param bytes compressed byte array
+     * @param offset start offset
+     * @param length byte length
+     * @param result byte array to decompress into
+     * @param resultOffset start offset of result
+     * @param resultLength expected decompressed length
+     * @throws IOException if compressed bytes are invalid or decompressed length mismatch
+     */
+    public void inflate(byte[] bytes, int offset, int length, byte[] result, int resultOffset, int resultLength)
+            throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(bytes, offset, length);
+            int size = 0;
+            while (!inflater.finished()) {
+                int n;
+                if (size < resultLength) {
+                    n = inflater.inflate(result, resultOffset + size, resultLength - size);
+                } else {
+                    // output is full, only end of stream is expected
+                    n = inflater.inflate(new byte[1]);
+                    if (n > 0) {
+                        throw new IOException("Decompressed size exceeds expected size " + resultLength);
+                    }
+                }
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed data is truncated");
+                }
+                size += n;
+            }
+            if (size != resultLength || inflater.getRemaining() != 0) {
+                throw new IOException("Decompressed size mismatch, expect " + resultLength + " but " + size);
+            }
+        } catch (DataFormatException e) {
+            IOException ex = new IOException(e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.compress;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.baidu.bjf.remoting.protobuf.CompressedValue;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Utility class to compress value of {@link com.baidu.bjf.remoting.protobuf.FieldType#STRING} or
+ * {@link com.baidu.bjf.remoting.protobuf.FieldType#BYTES} field. Encoded value starts with a format byte,
+ * {@link #FORMAT_RAW} is followed by original bytes and {@link #FORMAT_DEFLATE} is followed by original size in
+ * varint and zlib format bytes.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public final class FieldCompressor {
+
+    /**
+     * value is not compressed
+     */
+    public static final int FORMAT_RAW = 0;
+
+    /**
+     * value is compressed by deflate
+     */
+    public static final int FORMAT_DEFLATE = 1;
+
+    /**
+     * default max original size of a compressed field value to decode
+     */
+    public static final int DEFAULT_MAX_ORIGINAL_SIZE = 64 * 1024 * 1024;
+
+    private static final String UTF_8 = "UTF-8";
+
+    private static final DeflaterPool POOL = new DeflaterPool(Deflater.DEFAULT_COMPRESSION);
+
+    private static volatile int maxOriginalSize = DEFAULT_MAX_ORIGINAL_SIZE;
+
+    /**
+     * write scope of nested message in current thread, see {@link #enterScope()}
+     */
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<Scope>();
+
+    private FieldCompressor() {
+    }
+
+    /**
+     * get max original size of a compressed field value to decode
+     *
+     * @return max original size
+     */
+    public static int getMaxOriginalSize() {
+        return maxOriginalSize;
+    }
+
+    /**
+     * set max original size of a compressed field value to decode, value with larger original size in header is
+     * rejected before allocation.
+     *
+     * @param maxOriginalSize max original size
+     */
+    public static void setMaxOriginalSize(int maxOriginalSize) {
+        if (maxOriginalSize < 0) {
+            throw new IllegalArgumentException("Param 'maxOriginalSize' should not be negative.");
+        }
+        FieldCompressor.maxOriginalSize = maxOriginalSize;
+    }
+
+    /**
+     * compress byte array if its size reaches threshold
+     *
+     * @param bytes original bytes
+     * @param threshold minimum size to compress
+     * @return encoded value
+     */
+    public static byte[] compress(byte[] bytes, int threshold) {
+        int length = bytes.length;
+        if (length >= threshold && length > 0) {
+            byte[] compressed = POOL.deflate(bytes, 0, length);
+            int headerSize = 1 + CodedOutputStream.computeRawVarint32Size(length);
+            if (headerSize + compressed.length < 1 + length) {
+                byte[] ret = new byte[headerSize + compressed.length];
+                ret[0] = FORMAT_DEFLATE;
+                int pos = 1;
+                int value = length;
+                while ((value & ~0x7F) != 0) {
+                    ret[pos++] = (byte) ((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                ret[pos++] = (byte) value;
+                System.arraycopy(compressed, 0, ret, pos, compressed.length);
+                return ret;
+            }
+        }
+        byte[] ret = new byte[1 + length];
+        ret[0] = FORMAT_RAW;
+        System.arraycopy(bytes, 0, ret, 1, length);
+        return ret;
+    }
+
+    /**
+     * compress UTF-8 bytes of string if its size reaches threshold
+     *
+     * @param value original string
+     * @param threshold minimum size to compress
+     * @return encoded value
+     */
+    public static byte[] compress(String value, int threshold) {
+        return compress(toBytes(value), threshold);
+    }
+
+    /**
+     * get encoded value of {@link CompressedValue}, encoded bytes are reused if exist
+     *
+     * @param value compressed value holder
+     * @param threshold minimum size to compress
+     * @return encoded value
+     */
+    public static byte[] compress(CompressedValue value, int threshold) {
+        return value.getEncodedBytes(threshold);
+    }
+
+    /**
+     * compress field value of {@link String}, <code>byte[]</code> or {@link CompressedValue} type
+     *
+     * @param value field value
+     * @param threshold minimum size to compress
+     * @return encoded value
+     */
+    public static byte[] compressValue(Object value, int threshold) {
+        if (value instanceof CompressedValue) {
+            return compress((CompressedValue) value, threshold);
+        }
+        if (value instanceof byte[]) {
+            return compress((byte[]) value, threshold);
+        }
+        return compress(String.valueOf(value), threshold);
+    }
+
+    /**
+     * enter write scope of a nested message, which covers its <code>size</code> and the following
+     * <code>writeTo</code>. field values compressed by {@link #compressForSize(Object, int)} in the scope are reused
+     * by {@link #compressForWrite(Object, int)}, and all of them are released when the outermost scope exits. must
+     * be paired with {@link #exitScope()} in a finally block.
+     */
+    public static void enterScope() {
+        Scope scope = SCOPE.get();
+        if (scope == null) {
+            scope = new Scope();
+            SCOPE.set(scope);
+        }
+        scope.depth++;
+    }
+
+    /**
+     * exit write scope entered by {@link #enterScope()}
+     */
+    public static void exitScope() {
+        Scope scope = SCOPE.get();
+        if (scope != null && --scope.depth == 0) {
+            SCOPE.remove();
+        }
+    }
+
+    /**
+     * compress field value in <code>size</code> of generated codec. in a write scope the encoded value is kept for
+     * the following {@link #compressForWrite(Object, int)} of the same value, so field value of nested message is
+     * compressed once although its size is computed before it is written.
+     *
+     * @param value field value
+     * @param threshold minimum size to compress
+     * @return encoded value
+     */
+    public static byte[] compressForSize(Object value, int threshold) {
+        Scope scope = SCOPE.get();
+        if (scope == null || value instanceof CompressedValue) {
+            // encoded bytes of CompressedValue are kept by value itself
+            return compressValue(value, threshold);
+        }
+        Remembered r = scope.remembered.get(value);
+        if (r != null && r.threshold == threshold) {
+            return r.encoded;
+        }
+        byte[] encoded = compressValue(value, threshold);
+        scope.remembered.put(value, new Remembered(threshold, encoded));
+        return encoded;
+    }
+
+    /**
+     * compress field value in <code>writeTo</code> of generated codec. encoded value kept by
+     * {@link #compressForSize(Object, int)} in current write scope is reused.
+     *
+     * @param value field value
+     * @param threshold minimum size to compress
+     * @return encoded value
+     */
+    public static byte[] compressForWrite(Object value, int threshold) {
+        Scope scope = SCOPE.get();
+        if (scope != null) {
+            Remembered r = scope.remembered.remove(value);
+            if (r != null && r.threshold == threshold) {
+                return r.encoded;
+            }
+        }
+        return compressValue(value, threshold);
+    }
+
+    /**
+     * decompress encoded value
+     *
+     * @param encoded encoded value
+     * @return original bytes
+     * @throws IOException if encoded value is invalid
+     */
+    public static byte[] decompress(byte[] encoded) throws IOException {
+        if (encoded.length == 0) {
+            throw new IOException("Compressed field value is empty");
+        }
+        int format = encoded[0];
+        if (format == FORMAT_RAW) {
+            byte[] ret = new byte[encoded.length - 1];
+            System.arraycopy(encoded, 1, ret, 0, ret.length);
+            return ret;
+        }
+        if (format != FORMAT_DEFLATE) {
+            throw new IOException("Unknown compressed field format " + format);
+        }
+        CodedInputStream input = CodedInputStream.newInstance(encoded, 1, encoded.length - 1);
+        int size = input.readRawVarint32();
+        if (size < 0 || size > maxOriginalSize) {
+            throw new InvalidProtocolBufferException("Original size " + (size & 0xFFFFFFFFL)
+                    + " of compressed field value exceeds max original size " + maxOriginalSize);
+        }
+        int offset = 1 + input.getTotalBytesRead();
+        byte[] ret = new byte[size];
+        // fails unless exactly size bytes are inflated
+        POOL.inflate(encoded, offset, encoded.length - offset, ret, 0, size);
+        return ret;
+    }
+
+    /**
+     * decompress encoded value as UTF-8 string
+     *
+     * @param encoded encoded value
+     * @return original string
+     * @throws IOException if encoded value is invalid
+     */
+    public static String decompressString(byte[] encoded) throws IOException {
+        return new String(decompress(encoded), UTF_8);
+    }
+
+    /**
+     * decompress encoded value as field value of target type
+     *
+     * @param encoded encoded value
+     * @param type field type of {@link String}, <code>byte[]</code> or {@link CompressedValue}
+     * @return field value, {@link CompressedValue} is not decompressed until read
+     * @throws IOException if encoded value is invalid
+     */
+    public static Object decompressValue(byte[] encoded, Class<?> type) throws IOException {
+        if (type == CompressedValue.class) {
+            return CompressedValue.fromEncoded(encoded);
+        }
+        if (type == String.class) {
+            return decompressString(encoded);
+        }
+        return decompress(encoded);
+    }
+
+    private static byte[] toBytes(String value) {
+        try {
+            return value.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * encoded values of current write scope, keyed by field value
+     */
+    private static class Scope {
+
+        private final Map<Object, Remembered> remembered = new IdentityHashMap<Object, Remembered>();
+
+        private int depth;
+    }
+
+    /**
+     * encoded value of a field value with its threshold
+     */
+    private static class Remembered {
+
+        private final int threshold;
+
+        private final byte[] encoded;
+
+        Remembered(int threshold, byte[] encoded) {
+            this.threshold = threshold;
+            this.encoded = encoded;
+        }
+    }
+}
@@ -0,0 +1,629 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Asynchronous encoding pipeline. producer threads put objects into a bounded ring buffer of preallocated slots,
+ * worker threads encode them into byte arrays owned by slots and reused on next lap, and encoded bytes are passed
+ * to {@link Sink} in submit order.
+ * <p>
+ * Sink is called by one worker at a time, and the bytes passed to it are only valid during the call. A failed
+ * encoding is logged, counted and skipped, and the first failure since last flush is reported by {@link #flush()}
+ * and {@link #close()} after the other objects are passed to sink. A failed sink, or an {@link Error} thrown by
+ * codec, breaks the pipeline.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class AsyncEncoder<T> implements Closeable {
+
+    /**
+     * Logger for this class
+     */
+    private static final Logger LOGGER = Logger.getLogger(AsyncEncoder.class.getName());
+
+    /**
+     * slot buffers larger than this size are not kept for reuse
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Action when ring buffer is full
+     */
+    public enum Backpressure {
+        /**
+         * block producer until a slot is free
+         */
+        BLOCK,
+        /**
+         * drop the object and return false
+         */
+        DROP,
+        /**
+         * throw {@link RejectedExecutionException}
+         */
+        FAIL
+    }
+
+    /**
+     * Target of encoded bytes
+     */
+    public interface Sink {
+
+        /**
+         * consume encoded bytes of one object
+         *
+         * @param bytes buffer holds encoded bytes, only valid during the call
+         * @param offset start offset
+         * @param length byte length
+         * @throws IOException if failed to write
+         */
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private final Codec<T> codec;
+
+    private final Sink sink;
+
+    private final Backpressure backpressure;
+
+    private final Slot<T>[] slots;
+
+    private final int mask;
+
+    private final Thread[] workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition drained = lock.newCondition();
+
+    /**
+     * sequence of next submitted object
+     */
+    private long submitSeq;
+
+    /**
+     * sequence of next object to encode
+     */
+    private long claimSeq;
+
+    /**
+     * sequence of next object to pass to sink
+     */
+    private long emitSeq;
+
+    private boolean emitting;
+
+    private boolean closed;
+
+    private IOException failure;
+
+    /**
+     * first encode failure since last flush
+     */
+    private Throwable encodeFailure;
+
+    private long encodeFailureCount;
+
+    private long droppedCount;
+
+    private long failedCount;
+
+    private long encodedCount;
+
+    private long encodedBytes;
+
+    private long encodeNanos;
+
+    private long maxEncodeNanos;
+
+    private long latencyNanos;
+
+    /**
+     * Constructor
+     *
+     * @param codec codec to encode objects
+     * @param sink target of encoded bytes
+     * @param capacity slot count of ring buffer, rounded up to power of two
+     * @param workerCount count of encoding threads
+     * @param backpressure action when ring buffer is full
+     */
+    public AsyncEncoder(Codec<T> codec, Sink sink, int capacity, int workerCount, Backpressure backpressure) {
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        if (sink == null) {
+            throw new NullPointerException("Parameter sink is null");
+        }
+        if (backpressure == null) {
+            throw new NullPointerException("Parameter backpressure is null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Param 'capacity' should be positive.");
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Param 'workerCount' should be positive.");
+        }
+        this.codec = codec;
+        this.sink = sink;
+        this.backpressure = backpressure;
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        @SuppressWarnings("unchecked")
+        Slot<T>[] ring = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot<T>();
+        }
+        slots = ring;
+        mask = size - 1;
+
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "jprotobuf-async-encoder-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * submit object to encode
+     *
+     * @param t target object
+     * @return true if accepted, false if dropped by {@link Backpressure#DROP}
+     * @throws InterruptedIOException if interrupted while blocked by {@link Backpressure#BLOCK}
+     * @throws RejectedExecutionException if ring buffer is full with {@link Backpressure#FAIL}, or pipeline is
+     *             closed or broken
+     */
+    public boolean submit(T t) throws InterruptedIOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        lock.lock();
+        try {
+            while (true) {
+                if (closed || failure != null) {
+                    throw new RejectedExecutionException("Async encoder is closed or broken.");
+                }
+                if (submitSeq - emitSeq < slots.length) {
+                    break;
+                }
+                if (backpressure == Backpressure.DROP) {
+                    droppedCount++;
+                    return false;
+                }
+                if (backpressure == Backpressure.FAIL) {
+                    throw new RejectedExecutionException("Ring buffer of async encoder is full.");
+                }
+                notFull.await();
+            }
+            Slot<T> slot = slots[(int) (submitSeq & mask)];
+            slot.value = t;
+            slot.length = -1;
+            slot.submitTime = System.nanoTime();
+            submitSeq++;
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            InterruptedIOException ex = new InterruptedIOException("Interrupted while waiting for free slot.");
+            ex.initCause(e);
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * wait until all submitted objects are passed to sink
+     *
+     * @throws IOException if sink failed, or any object failed to encode since last flush
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            while (emitSeq < submitSeq && failure == null) {
+                drained.await();
+            }
+            checkFailure();
+            if (encodeFailure != null) {
+                Throwable cause = encodeFailure;
+                long count = encodeFailureCount;
+                encodeFailure = null;
+                encodeFailureCount = 0;
+                throw new IOException(count + " object(s) of async encoder failed to encode.", cause);
+            }
+        } catch (InterruptedException e) {
+            InterruptedIOException ex = new InterruptedIOException("Interrupted while waiting for flush.");
+            ex.initCause(e);
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * flush submitted objects, stop worker threads and wait for them to exit
+     *
+     * @throws IOException if sink failed, or any object failed to encode since last flush
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            joinWorkers();
+        }
+    }
+
+    private void joinWorkers() throws InterruptedIOException {
+        for (Thread worker : workers) {
+            if (worker == Thread.currentThread()) {
+                // closed by sink in worker thread
+                continue;
+            }
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                InterruptedIOException ex = new InterruptedIOException("Interrupted while waiting for workers.");
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * @return count of objects submitted and not passed to sink yet
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return (int) (submitSeq - emitSeq);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count of accepted objects
+     */
+    public long getSubmittedCount() {
+        lock.lock();
+        try {
+            return submitSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count of objects encoded successfully
+     */
+    public long getEncodedCount() {
+        lock.lock();
+        try {
+            return encodedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return total byte size of encoded objects
+     */
+    public long getEncodedBytes() {
+        lock.lock();
+        try {
+            return encodedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count of objects dropped by {@link Backpressure#DROP}
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count of objects failed to encode
+     */
+    public long getFailedCount() {
+        lock.lock();
+        try {
+            return failedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param unit time unit
+     * @return average encode time of objects
+     */
+    public double getAverageEncodeTime(TimeUnit unit) {
+        lock.lock();
+        try {
+            return encodedCount == 0 ? 0 : (double) unit.convert(encodeNanos, TimeUnit.NANOSECONDS) / encodedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param unit time unit
+     * @return max encode time of objects
+     */
+    public long getMaxEncodeTime(TimeUnit unit) {
+        lock.lock();
+        try {
+            return unit.convert(maxEncodeNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param unit time unit
+     * @return average time from submit to passed to sink
+     */
+    public double getAverageLatency(TimeUnit unit) {
+        lock.lock();
+        try {
+            return encodedCount == 0 ? 0 : (double) unit.convert(latencyNanos, TimeUnit.NANOSECONDS) / encodedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            long seq;
+            Slot<T> slot;
+            lock.lock();
+            try {
+                while (claimSeq == submitSeq && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (claimSeq == submitSeq) {
+                    return;
+                }
+                seq = claimSeq++;
+                slot = slots[(int) (seq & mask)];
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            boolean encoded = false;
+            Throwable cause = null;
+            try {
+                encode(slot);
+                encoded = true;
+            } catch (Exception e) {
+                cause = e;
+            } catch (Error e) {
+                cause = e;
+                throw e;
+            } finally {
+                complete(slot, encoded, cause, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void encode(Slot<T> slot) throws IOException {
+        slot.length = -1;
+        T t = slot.value;
+        int size = codec.size(t);
+        if (slot.buffer == null || slot.buffer.length < size) {
+            slot.buffer = new byte[size];
+        }
+        CodedOutputStream output = CodedOutputStream.newInstance(slot.buffer, 0, size);
+        codec.writeTo(t, output);
+        output.checkNoSpaceLeft();
+        slot.length = size;
+    }
+
+    /**
+     * mark slot done and pass finished slots to sink. slot is marked failed if encode did not return normally.
+     */
+    private void complete(Slot<T> slot, boolean encoded, Throwable cause, long elapsed) {
+        lock.lock();
+        try {
+            slot.value = null;
+            if (encoded) {
+                encodedCount++;
+                encodedBytes += slot.length;
+                encodeNanos += elapsed;
+                maxEncodeNanos = Math.max(maxEncodeNanos, elapsed);
+            } else {
+                slot.length = -1;
+                failedCount++;
+                encodeFailureCount++;
+                if (encodeFailure == null) {
+                    encodeFailure = cause;
+                    LOGGER.log(Level.WARNING, "Failed to encode object in async encoder.", cause);
+                }
+                if (cause instanceof Error && failure == null) {
+                    // worker is going to exit, break the pipeline instead of leaving flush blocked
+                    failure = new IOException("Worker of async encoder failed.", cause);
+                }
+            }
+            slot.done = true;
+            if (!emitting) {
+                emit();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * pass encoded slots to sink in order, lock is released during sink call.
+     */
+    private void emit() {
+        emitting = true;
+        try {
+            while (emitSeq < submitSeq && failure == null) {
+                Slot<T> slot = slots[(int) (emitSeq & mask)];
+                if (!slot.done) {
+                    break;
+                }
+                if (slot.length >= 0) {
+                    latencyNanos += System.nanoTime() - slot.submitTime;
+                    lock.unlock();
+                    try {
+                        sink.write(slot.buffer, 0, slot.length);
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        failure = new IOException(e.getMessage(), e);
+                    } finally {
+                        lock.lock();
+                    }
+                }
+                if (slot.buffer != null && slot.buffer.length > MAX_POOLED_BUFFER_SIZE) {
+                    slot.buffer = null;
+                }
+                slot.done = false;
+                emitSeq++;
+                notFull.signalAll();
+            }
+            if (emitSeq == submitSeq || failure != null) {
+                drained.signalAll();
+            }
+        } finally {
+            emitting = false;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Sink of async encoder failed.", failure);
+        }
+    }
+
+    /**
+     * create sink writes encoded bytes to output stream
+     *
+     * @param os target output stream
+     * @param delimited true to write varint length before each message
+     * @return sink
+     */
+    public static Sink toStream(final OutputStream os, final boolean delimited) {
+        if (os == null) {
+            throw new NullPointerException("Parameter os is null");
+        }
+        return new Sink() {
+            private final byte[] header = new byte[5];
+
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                if (delimited) {
+                    os.write(header, 0, writeRawVarint32(header, length));
+                }
+                os.write(bytes, offset, length);
+            }
+        };
+    }
+
+    /**
+     * create sink writes encoded bytes to channel
+     *
+     * @param channel target channel in blocking mode
+     * @param delimited true to write varint length before each message
+     * @return sink
+     * @throws java.nio.channels.IllegalBlockingModeException if channel is in non-blocking mode
+     */
+    public static Sink toChannel(final WritableByteChannel channel, final boolean delimited) {
+        ChannelWriter.checkBlocking(channel);
+        return new Sink() {
+            private final byte[] header = new byte[5];
+
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                if (delimited) {
+                    ChannelWriter.writeFully(channel, ByteBuffer.wrap(header, 0, writeRawVarint32(header, length)));
+                }
+                ChannelWriter.writeFully(channel, ByteBuffer.wrap(bytes, offset, length));
+            }
+        };
+    }
+
+    private static int writeRawVarint32(byte[] bytes, int value) {
+        int i = 0;
+        while ((value & ~0x7F) != 0) {
+            bytes[i++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[i++] = (byte) value;
+        return i;
+    }
+
+    /**
+     * preallocated slot of ring buffer, buffer is reused on next lap
+     */
+    private static class Slot<T> {
+
+        private T value;
+
+        private byte[] buffer;
+
+        private int length;
+
+        private boolean done;
+
+        private long submitTime;
+    }
+}
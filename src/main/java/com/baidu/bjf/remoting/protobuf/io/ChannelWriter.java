@@ -0,0 +1,405 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.CodedConstant;
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.UnknownFieldsAware;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+import com.baidu.bjf.remoting.protobuf.compress.FieldCompressor;
+import com.baidu.bjf.remoting.protobuf.utils.FieldInfo;
+import com.baidu.bjf.remoting.protobuf.utils.FieldUtils;
+import com.baidu.bjf.remoting.protobuf.utils.ProtobufProxyUtils;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UninitializedMessageException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Writer of objects to NIO channels with gathering writes. single <code>byte[]</code> and {@link String} fields
+ * whose values reach the large field size are passed to channel as separate {@link ByteBuffer}s, so large byte
+ * arrays are never copied. the other fields are encoded into a pooled header buffer.
+ * <p>
+ * Large fields are written after the other fields, which is valid protobuf encoding as parsers accept fields in
+ * any order. the other fields are encoded one by one from their field infos, so each field is written exactly
+ * once. a required field is streamed only if its value is large, so it is never missing.
+ * </p>
+ * <p>
+ * Channel should be in blocking mode, each write returns after the whole message is written. Non-blocking channel
+ * is rejected as partially written buffers could not be resumed.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ChannelWriter<T> {
+
+    /**
+     * default min byte size of a field written as separate buffer
+     */
+    public static final int DEFAULT_LARGE_FIELD_SIZE = 64 * 1024;
+
+    /**
+     * pooled header buffers larger than this size are not kept
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /**
+     * bytes reserved before header for varint length of delimited message
+     */
+    private static final int MAX_VARINT32_SIZE = 5;
+
+    private static final ThreadLocal<HeaderBuffer> BUFFERS = new ThreadLocal<HeaderBuffer>();
+
+    private final Codec<T> codec;
+
+    private final int largeFieldSize;
+
+    private final List<FieldInfo> fieldInfos;
+
+    private final List<FieldInfo> largeFields = new ArrayList<FieldInfo>();
+
+    /**
+     * Constructor
+     *
+     * @param cls target class
+     */
+    public ChannelWriter(Class<T> cls) {
+        this(cls, DEFAULT_LARGE_FIELD_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cls target class
+     * @param largeFieldSize min byte size of a field written as separate buffer
+     */
+    public ChannelWriter(Class<T> cls, int largeFieldSize) {
+        if (cls == null) {
+            throw new NullPointerException("Parameter cls is null");
+        }
+        if (largeFieldSize <= 0) {
+            throw new IllegalArgumentException("Param 'largeFieldSize' should be positive.");
+        }
+        this.codec = ProtobufProxy.create(cls);
+        this.largeFieldSize = largeFieldSize;
+
+        fieldInfos = ProtobufProxyUtils.processDefaultValue(FieldUtils.findMatchedFields(cls, Protobuf.class));
+        for (FieldInfo fieldInfo : fieldInfos) {
+            fieldInfo.getField().setAccessible(true);
+            Class<?> type = fieldInfo.getField().getType();
+            if (fieldInfo.isCompressed()) {
+                continue;
+            }
+            if ((fieldInfo.getFieldType() == FieldType.BYTES && type == byte[].class)
+                    || (fieldInfo.getFieldType() == FieldType.STRING && type == String.class)) {
+                largeFields.add(fieldInfo);
+            }
+        }
+    }
+
+    /**
+     * write object to channel, gathering write is used if channel is a {@link GatheringByteChannel}.
+     *
+     * @param t target object
+     * @param channel target channel in blocking mode
+     * @return count of written bytes
+     * @throws IOException if failed to encode or write
+     * @throws IllegalBlockingModeException if channel is in non-blocking mode
+     */
+    public long write(T t, WritableByteChannel channel) throws IOException {
+        return write(t, channel, false);
+    }
+
+    /**
+     * write object to channel with varint length before it
+     *
+     * @param t target object
+     * @param channel target channel in blocking mode
+     * @return count of written bytes
+     * @throws IOException if failed to encode or write
+     * @throws IllegalBlockingModeException if channel is in non-blocking mode
+     */
+    public long writeDelimited(T t, WritableByteChannel channel) throws IOException {
+        return write(t, channel, true);
+    }
+
+    /**
+     * get encoded bytes as buffers, large fields are wrapped without copy.
+     *
+     * @param t target object
+     * @return buffers in write order
+     * @throws IOException if failed to encode
+     */
+    public ByteBuffer[] toBuffers(T t) throws IOException {
+        return toBuffers(t, false, null);
+    }
+
+    private long write(T t, WritableByteChannel channel, boolean delimited) throws IOException {
+        checkBlocking(channel);
+        HeaderBuffer header = BUFFERS.get();
+        if (header == null) {
+            header = new HeaderBuffer();
+        }
+        ByteBuffer[] buffers = toBuffers(t, delimited, header);
+
+        // keep header buffer for next write of the thread
+        if (header.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+            BUFFERS.set(header);
+        } else {
+            BUFFERS.remove();
+        }
+
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        writeFully(channel, buffers);
+        return total;
+    }
+
+    /**
+     * check channel is not null and not in non-blocking mode
+     *
+     * @param channel target channel
+     * @throws IllegalBlockingModeException if channel is in non-blocking mode
+     */
+    static void checkBlocking(WritableByteChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("Parameter channel is null");
+        }
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+    }
+
+    /**
+     * write all remaining bytes of buffers to blocking channel, gathering write is used if channel is a
+     * {@link GatheringByteChannel}.
+     *
+     * @param channel target channel in blocking mode
+     * @param buffers buffers to write
+     * @throws IOException if failed to write, or channel accepts no bytes
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer... buffers) throws IOException {
+        int index = 0;
+        while (index < buffers.length) {
+            if (!buffers[index].hasRemaining()) {
+                index++;
+                continue;
+            }
+            long written;
+            if (channel instanceof GatheringByteChannel) {
+                written = ((GatheringByteChannel) channel).write(buffers, index, buffers.length - index);
+            } else {
+                written = channel.write(buffers[index]);
+            }
+            if (written == 0) {
+                // blocking channel never returns without progress
+                throw new IOException("Channel accepted no bytes, it may be in non-blocking mode.");
+            }
+        }
+    }
+
+    private ByteBuffer[] toBuffers(T t, boolean delimited, HeaderBuffer header) throws IOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        if (header == null) {
+            header = new HeaderBuffer();
+        }
+        List<FieldInfo> fields = null;
+        List<byte[]> values = null;
+        for (FieldInfo fieldInfo : largeFields) {
+            byte[] value = getLargeValue(t, fieldInfo);
+            if (value != null) {
+                if (fields == null) {
+                    fields = new ArrayList<FieldInfo>();
+                    values = new ArrayList<byte[]>();
+                }
+                fields.add(fieldInfo);
+                values.add(value);
+            }
+        }
+
+        header.reset();
+        header.write(new byte[MAX_VARINT32_SIZE], 0, MAX_VARINT32_SIZE);
+        CodedOutputStream output = CodedOutputStream.newInstance(header);
+        if (fields == null) {
+            codec.writeTo(t, output);
+        } else {
+            writeFields(t, fields, output);
+        }
+        output.flush();
+        int fieldsEnd = header.size();
+
+        // tag and length of each large field follow the other fields
+        long total = fieldsEnd - MAX_VARINT32_SIZE;
+        int position = fieldsEnd;
+        int[] ends = null;
+        if (fields != null) {
+            ends = new int[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                byte[] value = values.get(i);
+                output.writeTag(fields.get(i).getOrder(), WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeRawVarint32(value.length);
+                output.flush();
+                ends[i] = header.size();
+                total += ends[i] - position + value.length;
+                position = ends[i];
+            }
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Encoded size " + total + " exceeds max message size.");
+        }
+
+        byte[] array = header.array();
+        int start = MAX_VARINT32_SIZE;
+        if (delimited) {
+            start -= CodedOutputStream.computeRawVarint32Size((int) total);
+            CodedOutputStream prefix = CodedOutputStream.newInstance(array, start, MAX_VARINT32_SIZE - start);
+            prefix.writeRawVarint32((int) total);
+            prefix.checkNoSpaceLeft();
+        }
+        if (fields == null) {
+            return new ByteBuffer[] { ByteBuffer.wrap(array, start, fieldsEnd - start) };
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[fields.size() * 2 + 1];
+        buffers[0] = ByteBuffer.wrap(array, start, fieldsEnd - start);
+        position = fieldsEnd;
+        for (int i = 0; i < fields.size(); i++) {
+            buffers[i * 2 + 1] = ByteBuffer.wrap(array, position, ends[i] - position);
+            buffers[i * 2 + 2] = ByteBuffer.wrap(values.get(i));
+            position = ends[i];
+        }
+        return buffers;
+    }
+
+    /**
+     * write fields which are not streamed, and unknown fields if kept by target object
+     */
+    private void writeFields(T t, List<FieldInfo> streamed, CodedOutputStream output) throws IOException {
+        for (FieldInfo fieldInfo : fieldInfos) {
+            if (streamed.contains(fieldInfo)) {
+                continue;
+            }
+            Object value = getValue(t, fieldInfo);
+            if (value == null) {
+                if (fieldInfo.isRequired()) {
+                    throw new UninitializedMessageException(Arrays.asList(fieldInfo.getField().getName()));
+                }
+                continue;
+            }
+            int order = fieldInfo.getOrder();
+            FieldType type = fieldInfo.getFieldType();
+            if (value instanceof List) {
+                CodedConstant.writeToList(output, order, type, (List<?>) value);
+            } else if (fieldInfo.isCompressed()) {
+                byte[] compressed = FieldCompressor.compressValue(value, fieldInfo.getCompressThreshold());
+                output.writeBytes(order, ByteString.copyFrom(compressed));
+            } else {
+                CodedConstant.writeObject(output, order, type, toWireValue(value, type), false);
+            }
+        }
+        if (t instanceof UnknownFieldsAware) {
+            byte[] unknownFields = ((UnknownFieldsAware) t).getUnknownFields();
+            if (unknownFields != null) {
+                output.writeRawBytes(unknownFields);
+            }
+        }
+    }
+
+    /**
+     * convert number value to the boxed type written by {@link CodedConstant#writeObject}, e.g. short to int
+     */
+    private static Object toWireValue(Object value, FieldType type) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        Number n = (Number) value;
+        if (type == FieldType.INT32 || type == FieldType.UINT32 || type == FieldType.SINT32
+                || type == FieldType.FIXED32 || type == FieldType.SFIXED32) {
+            return Integer.valueOf(n.intValue());
+        } else if (type == FieldType.INT64 || type == FieldType.UINT64 || type == FieldType.SINT64
+                || type == FieldType.FIXED64 || type == FieldType.SFIXED64) {
+            return Long.valueOf(n.longValue());
+        } else if (type == FieldType.FLOAT) {
+            return Float.valueOf(n.floatValue());
+        } else if (type == FieldType.DOUBLE) {
+            return Double.valueOf(n.doubleValue());
+        }
+        return value;
+    }
+
+    private static Object getValue(Object t, FieldInfo fieldInfo) throws IOException {
+        try {
+            return fieldInfo.getField().get(t);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return bytes of field value if it reaches large field size
+     */
+    private byte[] getLargeValue(T t, FieldInfo fieldInfo) throws IOException {
+        Object value = getValue(t, fieldInfo);
+        if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            return bytes.length >= largeFieldSize ? bytes : null;
+        }
+        if (value instanceof String) {
+            String s = (String) value;
+            // UTF-8 byte length is never less than char length
+            return s.length() >= largeFieldSize ? s.getBytes("UTF-8") : null;
+        }
+        return null;
+    }
+
+    /**
+     * growable header buffer which exposes its byte array to wrap without copy
+     */
+    private static class HeaderBuffer extends ByteArrayOutputStream {
+
+        HeaderBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
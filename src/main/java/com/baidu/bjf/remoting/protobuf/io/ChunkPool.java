@@ -0,0 +1,120 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size byte array chunks used by {@link ChunkedOutput}. chunks are small enough to avoid huge
+ * allocations, and released chunks are kept for reuse up to the max pooled count.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ChunkPool {
+
+    /**
+     * default byte size of chunks
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * default max count of pooled chunks
+     */
+    public static final int DEFAULT_MAX_POOLED = 256;
+
+    private static final ChunkPool DEFAULT = new ChunkPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int chunkSize;
+
+    private final int maxPooled;
+
+    private final Queue<byte[]> chunks = new ConcurrentLinkedQueue<byte[]>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param chunkSize byte size of chunks
+     * @param maxPooled max count of pooled chunks
+     */
+    public ChunkPool(int chunkSize, int maxPooled) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Param 'chunkSize' should be positive.");
+        }
+        if (maxPooled < 0) {
+            throw new IllegalArgumentException("Param 'maxPooled' should not be negative.");
+        }
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * get the default pool
+     *
+     * @return the default pool
+     */
+    public static ChunkPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * get a chunk from pool, or allocate a new one if pool is empty
+     *
+     * @return chunk of chunk size
+     */
+    public byte[] acquire() {
+        byte[] chunk = chunks.poll();
+        if (chunk == null) {
+            return new byte[chunkSize];
+        }
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * return chunk to pool
+     *
+     * @param chunk chunk acquired from this pool
+     */
+    public void release(byte[] chunk) {
+        if (chunk == null || chunk.length != chunkSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        chunks.offer(chunk);
+    }
+
+    /**
+     * @return byte size of chunks
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return count of chunks in pool
+     */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Output stream backed by a chain of fixed size chunks from {@link ChunkPool}, so encoding a very large message
+ * never allocates one contiguous array of its final size. written bytes can be drained to stream or channel, or
+ * exposed as {@link ByteBuffer}s, and chunks should be returned to pool by {@link #release()} after use.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ChunkedOutput extends OutputStream {
+
+    private final ChunkPool pool;
+
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+    private byte[] current;
+
+    private int position;
+
+    private long size;
+
+    /**
+     * Constructor with default chunk pool
+     */
+    public ChunkedOutput() {
+        this(ChunkPool.getDefault());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param pool chunk pool
+     */
+    public ChunkedOutput(ChunkPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("Parameter pool is null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * encode object to chunks
+     *
+     * @param codec codec of object
+     * @param t target object
+     * @param pool chunk pool
+     * @return chunked output holds encoded bytes
+     * @throws IOException if failed to encode
+     */
+    public static <T> ChunkedOutput encode(Codec<T> codec, T t, ChunkPool pool) throws IOException {
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        ChunkedOutput out = new ChunkedOutput(pool);
+        CodedOutputStream output = CodedOutputStream.newInstance(out, Math.min(pool.getChunkSize(), 8192));
+        codec.writeTo(t, output);
+        output.flush();
+        return out;
+    }
+
+    /**
+     * encode object to chunks of default chunk pool
+     *
+     * @param codec codec of object
+     * @param t target object
+     * @return chunked output holds encoded bytes
+     * @throws IOException if failed to encode
+     */
+    public static <T> ChunkedOutput encode(Codec<T> codec, T t) throws IOException {
+        return encode(codec, t, ChunkPool.getDefault());
+    }
+
+    public void write(int b) {
+        if (current == null || position == current.length) {
+            nextChunk();
+        }
+        current[position++] = (byte) b;
+        size++;
+    }
+
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (current == null || position == current.length) {
+                nextChunk();
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(b, off, current, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    /**
+     * @return count of written bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * get written bytes as buffers wrapping the chunks, which are valid until released.
+     *
+     * @return buffers in write order
+     */
+    public ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            byte[] chunk = chunks.get(i);
+            buffers[i] = ByteBuffer.wrap(chunk, 0, i == buffers.length - 1 ? position : chunk.length);
+        }
+        return buffers;
+    }
+
+    /**
+     * get input stream reads written bytes without copy
+     *
+     * @return input stream
+     */
+    public InputStream toInputStream() {
+        return new CompositeInputStream(toByteBuffers());
+    }
+
+    /**
+     * copy written bytes to a byte array, only for small outputs
+     *
+     * @return byte array
+     */
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Size " + size + " exceeds max byte array size.");
+        }
+        byte[] result = new byte[(int) size];
+        int offset = 0;
+        for (ByteBuffer buffer : toByteBuffers()) {
+            int n = buffer.remaining();
+            buffer.get(result, offset, n);
+            offset += n;
+        }
+        return result;
+    }
+
+    /**
+     * write all written bytes to stream
+     *
+     * @param os target stream
+     * @throws IOException if failed to write
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        for (ByteBuffer buffer : toByteBuffers()) {
+            os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+    }
+
+    /**
+     * write all written bytes to channel, gathering write is used if channel is a {@link GatheringByteChannel}.
+     *
+     * @param channel target channel in blocking mode
+     * @throws IOException if failed to write
+     * @throws IllegalBlockingModeException if channel is in non-blocking mode
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ChannelWriter.checkBlocking(channel);
+        ChannelWriter.writeFully(channel, toByteBuffers());
+    }
+
+    /**
+     * return all chunks to pool and reset
+     */
+    public void release() {
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        current = null;
+        position = 0;
+        size = 0;
+    }
+
+    private void nextChunk() {
+        current = pool.acquire();
+        chunks.add(current);
+        position = 0;
+    }
+}
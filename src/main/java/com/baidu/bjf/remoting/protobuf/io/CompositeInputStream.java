@@ -0,0 +1,149 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Input stream reads a list of {@link ByteBuffer} chunks in order without concatenating them. positions of the
+ * chunks are not changed.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class CompositeInputStream extends InputStream {
+
+    private final ByteBuffer[] chunks;
+
+    private int index;
+
+    /**
+     * Constructor
+     *
+     * @param chunks chunks to read
+     */
+    public CompositeInputStream(ByteBuffer... chunks) {
+        if (chunks == null) {
+            throw new NullPointerException("Parameter chunks is null");
+        }
+        this.chunks = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            this.chunks[i] = chunks[i].duplicate();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param chunks chunks to read
+     */
+    public CompositeInputStream(List<ByteBuffer> chunks) {
+        this(chunks.toArray(new ByteBuffer[chunks.size()]));
+    }
+
+    /**
+     * decode object from chunks
+     *
+     * @param codec codec of object
+     * @param chunks encoded bytes in chunks
+     * @return decoded object
+     * @throws IOException if bytes are invalid
+     */
+    public static <T> T decode(Codec<T> codec, List<ByteBuffer> chunks) throws IOException {
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        CodedInputStream input = CodedInputStream.newInstance(new CompositeInputStream(chunks));
+        input.setSizeLimit(Integer.MAX_VALUE);
+        return codec.readFrom(input);
+    }
+
+    /**
+     * decode object from chunks
+     *
+     * @param codec codec of object
+     * @param chunks encoded bytes in chunks
+     * @return decoded object
+     * @throws IOException if bytes are invalid
+     */
+    public static <T> T decode(Codec<T> codec, ByteBuffer... chunks) throws IOException {
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        CodedInputStream input = CodedInputStream.newInstance(new CompositeInputStream(chunks));
+        input.setSizeLimit(Integer.MAX_VALUE);
+        return codec.readFrom(input);
+    }
+
+    public int read() {
+        ByteBuffer chunk = current();
+        if (chunk == null) {
+            return -1;
+        }
+        return chunk.get() & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer chunk = current();
+        if (chunk == null) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    public long skip(long n) {
+        long skipped = 0;
+        while (skipped < n) {
+            ByteBuffer chunk = current();
+            if (chunk == null) {
+                break;
+            }
+            int count = (int) Math.min(n - skipped, chunk.remaining());
+            chunk.position(chunk.position() + count);
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    public int available() throws IOException {
+        ByteBuffer chunk = current();
+        return chunk == null ? 0 : chunk.remaining();
+    }
+
+    /**
+     * @return current chunk with remaining bytes, or null if all chunks are read
+     */
+    private ByteBuffer current() {
+        while (index < chunks.length) {
+            if (chunks[index].hasRemaining()) {
+                return chunks[index];
+            }
+            index++;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.utils.ByteBufferInputStream;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Stateful decoder of varint length delimited frames for non-blocking pipelines. chunks are passed in as they
+ * arrive, and objects are decoded once their frames are complete.
+ * <p>
+ * A frame lies entirely in one chunk is decoded in place from the chunk. only a frame split across chunks is
+ * gathered to a buffer which is reused by later split frames. Decode state is kept in primitive fields, and the
+ * decoder is not thread safe.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class FrameDecoder<T> {
+
+    /**
+     * default max byte size of a frame
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAX_HEADER_SHIFT = 28;
+
+    private final Codec<T> codec;
+
+    private final int maxFrameSize;
+
+    /**
+     * length of current frame, or -1 if reading header
+     */
+    private int frameLength = -1;
+
+    private int headerValue;
+
+    private int headerShift;
+
+    private byte[] frame;
+
+    private int filled;
+
+    /**
+     * Constructor
+     *
+     * @param codec codec to decode frames
+     */
+    public FrameDecoder(Codec<T> codec) {
+        this(codec, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param codec codec to decode frames
+     * @param maxFrameSize max byte size of a frame
+     */
+    public FrameDecoder(Codec<T> codec, int maxFrameSize) {
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("Param 'maxFrameSize' should be positive.");
+        }
+        this.codec = codec;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * consume all remaining bytes of chunk and decode completed frames
+     *
+     * @param chunk received bytes, position is moved to limit
+     * @param out list to add decoded objects
+     * @return count of decoded objects
+     * @throws IOException if frame is malformed or too large, decoder should be reset after it
+     */
+    public int decode(ByteBuffer chunk, List<T> out) throws IOException {
+        if (chunk == null) {
+            throw new NullPointerException("Parameter chunk is null");
+        }
+        if (out == null) {
+            throw new NullPointerException("Parameter out is null");
+        }
+        int count = 0;
+        while (chunk.hasRemaining()) {
+            if (frameLength < 0 && !readHeader(chunk)) {
+                break;
+            }
+
+            if (filled == 0 && chunk.remaining() >= frameLength) {
+                // whole frame in chunk, decode in place
+                int end = chunk.position() + frameLength;
+                ByteBuffer slice = chunk.duplicate();
+                slice.limit(end);
+                out.add(decode(slice));
+                chunk.position(end);
+                frameLength = -1;
+                count++;
+                continue;
+            }
+            if (!chunk.hasRemaining()) {
+                break;
+            }
+
+            if (frame == null || frame.length < frameLength) {
+                frame = new byte[frameLength];
+            }
+            int n = Math.min(frameLength - filled, chunk.remaining());
+            chunk.get(frame, filled, n);
+            filled += n;
+            if (filled == frameLength) {
+                out.add(decode(ByteBuffer.wrap(frame, 0, frameLength)));
+                filled = 0;
+                frameLength = -1;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * check if bytes of an incomplete frame are kept
+     *
+     * @return true if a frame is partially received
+     */
+    public boolean hasPartialFrame() {
+        return frameLength >= 0 || headerShift > 0;
+    }
+
+    /**
+     * drop state of incomplete frame
+     */
+    public void reset() {
+        frameLength = -1;
+        headerValue = 0;
+        headerShift = 0;
+        filled = 0;
+    }
+
+    /**
+     * @return true if header is complete
+     */
+    private boolean readHeader(ByteBuffer chunk) throws IOException {
+        while (chunk.hasRemaining()) {
+            byte b = chunk.get();
+            headerValue |= (b & 0x7F) << headerShift;
+            if (b >= 0) {
+                int length = headerValue;
+                headerValue = 0;
+                headerShift = 0;
+                if (length < 0 || length > maxFrameSize) {
+                    throw new IOException("Frame size " + (length & 0xFFFFFFFFL) + " exceeds max frame size "
+                            + maxFrameSize);
+                }
+                frameLength = length;
+                return true;
+            }
+            headerShift += 7;
+            if (headerShift > MAX_HEADER_SHIFT) {
+                throw new IOException("Malformed varint frame length.");
+            }
+        }
+        return false;
+    }
+
+    private T decode(ByteBuffer bytes) throws IOException {
+        CodedInputStream input;
+        if (bytes.hasArray()) {
+            input = CodedInputStream.newInstance(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                    bytes.remaining());
+        } else {
+            input = CodedInputStream.newInstance(new ByteBufferInputStream(bytes));
+        }
+        input.setSizeLimit(Integer.MAX_VALUE);
+        return codec.readFrom(input);
+    }
+}
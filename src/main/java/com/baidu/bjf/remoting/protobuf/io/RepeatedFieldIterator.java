@@ -0,0 +1,192 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+import com.baidu.bjf.remoting.protobuf.utils.ByteBufferInputStream;
+import com.baidu.bjf.remoting.protobuf.utils.FieldInfo;
+import com.baidu.bjf.remoting.protobuf.utils.FieldUtils;
+import com.baidu.bjf.remoting.protobuf.utils.ProtobufProxyUtils;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Iterator of elements of a repeated message field in an encoded message, elements are decoded one at a time while
+ * reading, so memory is proportional to one element instead of the whole list. other fields of the message are
+ * skipped, and size limit of input is reset for each element so a message of any size can be iterated.
+ *
+ * <pre>
+ * RepeatedFieldIterator&lt;PersonPOJO&gt; it = RepeatedFieldIterator.create(is, AddressBookProtosPOJO.class, &quot;list&quot;);
+ * while (it.hasNext()) {
+ *     PersonPOJO person = it.next();
+ * }
+ * </pre>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class RepeatedFieldIterator<T> implements Iterator<T>, Closeable {
+
+    private final InputStream is;
+
+    private final CodedInputStream input;
+
+    private final int elementTag;
+
+    private final Codec<T> codec;
+
+    private T next;
+
+    private boolean finished;
+
+    /**
+     * Constructor
+     *
+     * @param is input stream of encoded message
+     * @param fieldNumber field number of repeated message field
+     * @param codec codec of element
+     */
+    public RepeatedFieldIterator(InputStream is, int fieldNumber, Codec<T> codec) {
+        if (is == null) {
+            throw new NullPointerException("Parameter is is null");
+        }
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        if (fieldNumber <= 0) {
+            throw new IllegalArgumentException("Param 'fieldNumber' should be positive.");
+        }
+        this.is = is;
+        this.input = CodedInputStream.newInstance(is);
+        this.elementTag = (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+        this.codec = codec;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param buffer encoded message, e.g. a mapped file region
+     * @param fieldNumber field number of repeated message field
+     * @param codec codec of element
+     */
+    public RepeatedFieldIterator(ByteBuffer buffer, int fieldNumber, Codec<T> codec) {
+        this(new ByteBufferInputStream(buffer.duplicate()), fieldNumber, codec);
+    }
+
+    /**
+     * create iterator of repeated field by field name of message class
+     *
+     * @param is input stream of encoded message
+     * @param messageClass message class
+     * @param fieldName name of <code>List</code> field of message objects
+     * @return iterator of elements
+     */
+    public static <T> RepeatedFieldIterator<T> create(InputStream is, Class<?> messageClass, String fieldName) {
+        if (messageClass == null) {
+            throw new NullPointerException("Parameter messageClass is null");
+        }
+        List<FieldInfo> fieldInfos = ProtobufProxyUtils.processDefaultValue(FieldUtils.findMatchedFields(
+                messageClass, Protobuf.class));
+        for (FieldInfo fieldInfo : fieldInfos) {
+            if (!fieldInfo.getField().getName().equals(fieldName)) {
+                continue;
+            }
+            Type type = fieldInfo.getField().getGenericType();
+            if (fieldInfo.getFieldType() != FieldType.OBJECT || !(type instanceof ParameterizedType)) {
+                throw new IllegalArgumentException("Field '" + fieldName + "' is not a list of message type.");
+            }
+            Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (!(elementType instanceof Class)) {
+                throw new IllegalArgumentException("Element type of field '" + fieldName + "' is not a class.");
+            }
+            @SuppressWarnings("unchecked")
+            Class<T> elementClass = (Class<T>) elementType;
+            Codec<T> codec = ProtobufProxy.create(elementClass);
+            return new RepeatedFieldIterator<T>(is, fieldInfo.getOrder(), codec);
+        }
+        throw new IllegalArgumentException("Field '" + fieldName + "' not found in class " + messageClass.getName());
+    }
+
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        try {
+            next = readNext();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return next != null;
+    }
+
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T t = next;
+        next = null;
+        return t;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() throws IOException {
+        finished = true;
+        is.close();
+    }
+
+    /**
+     * @return next element, or null if end of message
+     */
+    private T readNext() throws IOException {
+        while (true) {
+            input.resetSizeCounter();
+            int tag = input.readTag();
+            if (tag == 0) {
+                finished = true;
+                return null;
+            }
+            if (tag != elementTag) {
+                input.skipField(tag);
+                continue;
+            }
+            int length = input.readRawVarint32();
+            int oldLimit = input.pushLimit(length);
+            T t = codec.readFrom(input);
+            input.checkLastTagWas(0);
+            input.popLimit(oldLimit);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.store;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+
+/**
+ * Reader of log file written by {@link MessageLogWriter}. messages are read in order until end of file or the first
+ * bad frame, which is a frame with torn header or payload, invalid length or mismatched CRC32.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class MessageLogReader<T> implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Codec<T> codec;
+
+    private final InputStream is;
+
+    private final long fileLength;
+
+    private final byte[] header = new byte[MessageLogWriter.HEADER_SIZE];
+
+    private long validLength;
+
+    private boolean corrupted;
+
+    private boolean finished;
+
+    /**
+     * Constructor
+     *
+     * @param file log file
+     * @param cls target class
+     * @throws IOException if failed to open log file
+     */
+    public MessageLogReader(File file, Class<T> cls) throws IOException {
+        this(file, ProtobufProxy.create(cls));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file log file
+     * @param codec codec of messages, or null to only check frames
+     * @throws IOException if failed to open log file
+     */
+    public MessageLogReader(File file, Codec<T> codec) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("Parameter file is null");
+        }
+        this.codec = codec;
+        this.fileLength = file.length();
+        this.is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * read next message
+     *
+     * @return next message, or null if end of file or bad frame is reached
+     * @throws IOException if failed to read file or decode message
+     */
+    public T read() throws IOException {
+        byte[] payload = readFrame();
+        if (payload == null) {
+            return null;
+        }
+        if (codec == null) {
+            throw new IllegalStateException("Codec is not set for decoding.");
+        }
+        return codec.decode(payload);
+    }
+
+    /**
+     * get length of valid frames read so far
+     *
+     * @return length in bytes
+     */
+    public long getValidLength() {
+        return validLength;
+    }
+
+    /**
+     * check if reading is stopped by a bad frame rather than end of file
+     *
+     * @return true if bad frame is found
+     */
+    public boolean isCorrupted() {
+        return corrupted;
+    }
+
+    public void close() throws IOException {
+        is.close();
+    }
+
+    /**
+     * check all frames of log file and truncate it at the first bad frame.
+     *
+     * @param file log file
+     * @return length of valid frames
+     * @throws IOException if failed to read or truncate log file
+     */
+    public static long recover(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        MessageLogReader<Object> reader = new MessageLogReader<Object>(file, (Codec<Object>) null);
+        try {
+            while (reader.readFrame() != null) {
+                // only check frames
+            }
+        } finally {
+            reader.close();
+        }
+
+        long length = reader.getValidLength();
+        if (length < file.length()) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                raf.close();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return payload of next valid frame, or null if end of file or bad frame is reached
+     */
+    private byte[] readFrame() throws IOException {
+        if (finished) {
+            return null;
+        }
+        int count = readFully(header);
+        if (count < header.length) {
+            finish(count > 0);
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        int length = buffer.getInt(0);
+        int crc = buffer.getInt(4);
+        if (length < 0 || length > fileLength - validLength - header.length) {
+            finish(true);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        if (readFully(payload) < length || MessageLogWriter.checksum(payload, 0, length) != crc) {
+            finish(true);
+            return null;
+        }
+        validLength += header.length + length;
+        return payload;
+    }
+
+    private void finish(boolean bad) {
+        finished = true;
+        corrupted = bad;
+    }
+
+    private int readFully(byte[] bytes) throws IOException {
+        int count = 0;
+        while (count < bytes.length) {
+            int n = is.read(bytes, count, bytes.length - count);
+            if (n < 0) {
+                break;
+            }
+            count += n;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+
+/**
+ * Durable append only log writer. each message is written as a frame of 4-byte length, 4-byte CRC32 of length and
+ * payload, and the encoded payload, so torn or corrupted frames are detected by {@link MessageLogReader}.
+ * <p>
+ * Concurrent appends are committed in groups: the first waiting thread writes all pending frames with one write
+ * and one force, while others wait for it. {@link #append(Object)} returns once its message is on storage device.
+ * after any write failure the writer is broken and all appends throw {@link IOException}.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class MessageLogWriter<T> implements Closeable {
+
+    /**
+     * size of frame header, 4-byte length and 4-byte CRC32
+     */
+    static final int HEADER_SIZE = 8;
+
+    private final File file;
+
+    private final Codec<T> codec;
+
+    private final boolean sync;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition committed = lock.newCondition();
+
+    private List<byte[]> pending = new ArrayList<byte[]>();
+
+    private int pendingBytes;
+
+    private long appendedSeq;
+
+    private long committedSeq;
+
+    private boolean writing;
+
+    private IOException failure;
+
+    private boolean closed;
+
+    private long position;
+
+    private long batchCount;
+
+    /**
+     * Constructor, open or create log file of target class and force each commit to storage device.
+     *
+     * @param file log file
+     * @param cls target class
+     * @throws IOException if failed to recover or open log file
+     */
+    public MessageLogWriter(File file, Class<T> cls) throws IOException {
+        this(file, ProtobufProxy.create(cls), true);
+    }
+
+    /**
+     * Constructor, open or create log file. log file is recovered first by truncating at first bad frame.
+     *
+     * @param file log file
+     * @param codec codec of messages
+     * @param sync true to force each commit to storage device
+     * @throws IOException if failed to recover or open log file
+     */
+    public MessageLogWriter(File file, Codec<T> codec, boolean sync) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("Parameter file is null");
+        }
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        this.file = file;
+        this.codec = codec;
+        this.sync = sync;
+        position = MessageLogReader.recover(file);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+    }
+
+    /**
+     * append a message and wait until it is committed with the group of concurrent appends.
+     *
+     * @param t target object
+     * @throws IOException if failed to encode or write, or writer is broken or closed
+     */
+    public void append(T t) throws IOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        // encode out of lock so producers encode in parallel
+        byte[] frame = toFrame(codec.encode(t));
+
+        lock.lock();
+        try {
+            checkState();
+            pending.add(frame);
+            pendingBytes += frame.length;
+            long seq = ++appendedSeq;
+            while (committedSeq < seq) {
+                checkState();
+                if (writing) {
+                    committed.await();
+                } else {
+                    commitPending();
+                }
+            }
+        } catch (InterruptedException e) {
+            InterruptedIOException ex = new InterruptedIOException("Interrupted while waiting for commit.");
+            ex.initCause(e);
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get count of committed groups
+     *
+     * @return count of groups
+     */
+    public long getBatchCount() {
+        lock.lock();
+        try {
+            return batchCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get count of committed messages
+     *
+     * @return count of messages
+     */
+    public long getCommittedCount() {
+        lock.lock();
+        try {
+            return committedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get length of committed frames in log file
+     *
+     * @return length in bytes
+     */
+    public long length() {
+        lock.lock();
+        try {
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            // commit frames of waiting appends before close
+            while (writing || (failure == null && !pending.isEmpty())) {
+                if (writing) {
+                    committed.awaitUninterruptibly();
+                } else {
+                    commitPending();
+                }
+            }
+            closed = true;
+            committed.signalAll();
+            raf.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * write all pending frames as a group, lock is released during write.
+     */
+    private void commitPending() {
+        List<byte[]> batch = pending;
+        ByteBuffer buffer = ByteBuffer.allocate(pendingBytes);
+        long batchSeq = appendedSeq;
+        pending = new ArrayList<byte[]>();
+        pendingBytes = 0;
+        writing = true;
+        long start = position;
+
+        lock.unlock();
+        IOException error = null;
+        try {
+            for (byte[] frame : batch) {
+                buffer.put(frame);
+            }
+            buffer.flip();
+            long pos = start;
+            while (buffer.hasRemaining()) {
+                pos += channel.write(buffer, pos);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+
+        writing = false;
+        if (error != null) {
+            failure = error;
+        } else {
+            position = start + buffer.limit();
+            committedSeq = batchSeq;
+            batchCount++;
+        }
+        committed.signalAll();
+    }
+
+    private void checkState() throws IOException {
+        if (failure != null) {
+            throw new IOException("Message log '" + file + "' is broken by previous write failure.", failure);
+        }
+        if (closed) {
+            throw new IOException("Message log '" + file + "' is closed.");
+        }
+    }
+
+    private static byte[] toFrame(byte[] payload) {
+        byte[] frame = new byte[HEADER_SIZE + payload.length];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(payload.length);
+        buffer.putInt(0);
+        buffer.put(payload);
+        buffer.putInt(4, checksum(payload, 0, payload.length));
+        return frame;
+    }
+
+    /**
+     * CRC32 of big endian length and payload of frame
+     */
+    static int checksum(byte[] payload, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+        crc.update(payload, offset, length);
+        return (int) crc.getValue();
+    }
+}
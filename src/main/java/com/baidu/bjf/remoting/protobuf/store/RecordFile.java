@@ -0,0 +1,804 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.store;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.utils.ByteBufferInputStream;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Record store which appends length delimited messages to a data file and keeps offset of each record in a sidecar
+ * index file named with <code>.idx</code> suffix. data file has the same layout as
+ * {@link com.baidu.bjf.remoting.protobuf.AbstractCodec#encodeAll(java.util.List)}, and index file is big endian
+ * 8-byte offsets.
+ * <p>
+ * Both files are read through {@link MappedByteBuffer} segments, so a record is fetched by ordinal in O(1) and
+ * decoded straight from mapped region. a record crossing a segment boundary is read to a byte array instead.
+ * </p>
+ * <p>
+ * Removed records are marked in index and skipped by iterator, {@link #compact()} rewrites live records to drop
+ * them, which changes ordinals. On open, index entries beyond data and torn record at tail of data file are
+ * dropped, and records appended without index are indexed again. methods of this class are thread safe.
+ * </p>
+ * <p>
+ * Compacted files are written aside and committed by a marker file named with <code>.compact.done</code> suffix.
+ * Current files are renamed aside before compacted files take their place, and are deleted only after both are in
+ * place. If the process dies during the swap, open completes it when the marker exists, otherwise compacted files
+ * are dropped and current files are kept.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class RecordFile<T> implements Iterable<T>, Closeable {
+
+    /**
+     * default size of mapped segments
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * suffix of index file
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * suffix of compacted files before they replace current ones
+     */
+    static final String COMPACT_SUFFIX = ".compact";
+
+    /**
+     * suffix of marker file which commits compacted files
+     */
+    static final String MARKER_SUFFIX = ".compact.done";
+
+    /**
+     * suffix of current files moved aside during swap
+     */
+    static final String OLD_SUFFIX = ".old";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private static final int MAX_HEADER_SIZE = 5;
+
+    private static final long REMOVED_FLAG = Long.MIN_VALUE;
+
+    private final File file;
+
+    private final File indexFile;
+
+    private final File compactFile;
+
+    private final File compactIndexFile;
+
+    private final File markerFile;
+
+    private final Codec<T> codec;
+
+    private final int segmentSize;
+
+    private RandomAccessFile dataRaf;
+
+    private RandomAccessFile indexRaf;
+
+    private MappedSegments dataSegments;
+
+    private MappedSegments indexSegments;
+
+    private final ByteBuffer dataBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    /**
+     * length of data written to data file
+     */
+    private long dataLength;
+
+    /**
+     * count of index entries written to index file
+     */
+    private long indexCount;
+
+    private boolean closed;
+
+    /**
+     * Constructor, open or create record file of target class.
+     *
+     * @param file data file
+     * @param cls target class
+     * @throws IOException if failed to open files
+     */
+    public RecordFile(File file, Class<T> cls) throws IOException {
+        this(file, ProtobufProxy.create(cls), DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor, open or create record file.
+     *
+     * @param file data file
+     * @param codec codec of records
+     * @throws IOException if failed to open files
+     */
+    public RecordFile(File file, Codec<T> codec) throws IOException {
+        this(file, codec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor, open or create record file.
+     *
+     * @param file data file
+     * @param codec codec of records
+     * @param segmentSize size of mapped segments, should be a multiple of 8
+     * @throws IOException if failed to open files
+     */
+    public RecordFile(File file, Codec<T> codec, int segmentSize) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("Parameter file is null");
+        }
+        if (codec == null) {
+            throw new NullPointerException("Parameter codec is null");
+        }
+        if (segmentSize <= 0 || segmentSize % INDEX_ENTRY_SIZE != 0) {
+            throw new IllegalArgumentException("Param 'segmentSize' should be a positive multiple of 8.");
+        }
+        this.file = file;
+        this.indexFile = new File(file.getPath() + INDEX_SUFFIX);
+        this.compactFile = new File(file.getPath() + COMPACT_SUFFIX);
+        this.compactIndexFile = new File(compactFile.getPath() + INDEX_SUFFIX);
+        this.markerFile = new File(file.getPath() + MARKER_SUFFIX);
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        recoverCompact();
+        open();
+        recover();
+    }
+
+    /**
+     * append a record
+     *
+     * @param t target object
+     * @return ordinal of appended record
+     * @throws IOException if failed to encode or write
+     */
+    public synchronized long append(T t) throws IOException {
+        if (t == null) {
+            throw new NullPointerException("Parameter t is null");
+        }
+        checkOpen();
+        byte[] bytes = codec.encode(t);
+        int recordSize = CodedOutputStream.computeRawVarint32Size(bytes.length) + bytes.length;
+        long offset = dataLength + dataBuffer.position();
+
+        if (dataBuffer.remaining() < recordSize) {
+            flushData();
+        }
+        if (dataBuffer.remaining() < recordSize) {
+            // large record is written directly
+            ByteBuffer record = ByteBuffer.allocate(recordSize);
+            putRawVarint32(record, bytes.length);
+            record.put(bytes);
+            record.flip();
+            writeFully(dataRaf.getChannel(), record, dataLength);
+            dataLength += recordSize;
+        } else {
+            putRawVarint32(dataBuffer, bytes.length);
+            dataBuffer.put(bytes);
+        }
+
+        if (!indexBuffer.hasRemaining()) {
+            flushIndex();
+        }
+        indexBuffer.putLong(offset);
+        return size() - 1;
+    }
+
+    /**
+     * get record by ordinal
+     *
+     * @param ordinal ordinal of record
+     * @return decoded record, or null if record is removed
+     * @throws IOException if failed to read or decode
+     */
+    public T get(long ordinal) throws IOException {
+        ByteBuffer record;
+        byte[] bytes = null;
+        synchronized (this) {
+            checkOpen();
+            long offset = getOffset(ordinal);
+            if (offset < 0) {
+                return null;
+            }
+            int length = 0;
+            int headerSize = 0;
+            while (true) {
+                if (headerSize == MAX_HEADER_SIZE) {
+                    throw new IOException("Malformed record length at offset " + offset);
+                }
+                byte b = dataSegments.get(offset + headerSize, dataLength);
+                length |= (b & 0x7F) << (headerSize * 7);
+                headerSize++;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            long start = offset + headerSize;
+            record = dataSegments.slice(start, length, dataLength);
+            if (record == null) {
+                bytes = new byte[length];
+                readFully(dataRaf.getChannel(), ByteBuffer.wrap(bytes), start);
+            }
+        }
+        if (bytes != null) {
+            return codec.decode(bytes);
+        }
+        CodedInputStream input = CodedInputStream.newInstance(new ByteBufferInputStream(record));
+        input.setSizeLimit(Integer.MAX_VALUE);
+        return codec.readFrom(input);
+    }
+
+    /**
+     * mark record as removed, space is released on {@link #compact()}.
+     *
+     * @param ordinal ordinal of record
+     * @return true if record is removed by this call
+     * @throws IOException if failed to write index
+     */
+    public synchronized boolean remove(long ordinal) throws IOException {
+        checkOpen();
+        long offset = getOffset(ordinal);
+        if (offset < 0) {
+            return false;
+        }
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(offset | REMOVED_FLAG);
+        entry.flip();
+        writeFully(indexRaf.getChannel(), entry, ordinal * INDEX_ENTRY_SIZE);
+        return true;
+    }
+
+    /**
+     * check if record is removed
+     *
+     * @param ordinal ordinal of record
+     * @return true if removed
+     * @throws IOException if failed to read index
+     */
+    public synchronized boolean isRemoved(long ordinal) throws IOException {
+        checkOpen();
+        return getOffset(ordinal) < 0;
+    }
+
+    /**
+     * get count of records including removed ones
+     *
+     * @return count of records
+     */
+    public synchronized long size() {
+        return indexCount + indexBuffer.position() / INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * get length of data file including buffered bytes
+     *
+     * @return length in bytes
+     */
+    public synchronized long length() {
+        return dataLength + dataBuffer.position();
+    }
+
+    /**
+     * get sequential iterator of live records. records appended after iterator created are not visited.
+     *
+     * @return iterator of records
+     */
+    public Iterator<T> iterator() {
+        final long end = size();
+        return new Iterator<T>() {
+
+            private long next = -1;
+
+            private long last = -1;
+
+            public boolean hasNext() {
+                if (next < 0) {
+                    next = seek(last + 1);
+                }
+                return next < end;
+            }
+
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = -1;
+                try {
+                    return get(last);
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                try {
+                    RecordFile.this.remove(last);
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+
+            private long seek(long from) {
+                try {
+                    long ordinal = from;
+                    while (ordinal < end && isRemoved(ordinal)) {
+                        ordinal++;
+                    }
+                    return ordinal;
+                } catch (IOException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * write buffered records to files
+     *
+     * @throws IOException if failed to write
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        flushData();
+        flushIndex();
+    }
+
+    /**
+     * write buffered records and force them to storage device
+     *
+     * @throws IOException if failed to write
+     */
+    public synchronized void sync() throws IOException {
+        flush();
+        dataRaf.getChannel().force(false);
+        indexRaf.getChannel().force(false);
+    }
+
+    /**
+     * rewrite live records to new files and replace current ones. record bytes are copied without decoding, and
+     * ordinals of records after removed ones are changed. if files fail to be replaced, current files are kept and
+     * opened again.
+     *
+     * @return count of dropped records
+     * @throws IOException if failed to rewrite files
+     */
+    public synchronized long compact() throws IOException {
+        flush();
+        // leftovers of a failed compaction must not be committed by a stale marker
+        if (markerFile.exists() && !markerFile.delete()) {
+            throw new IOException("Failed to delete marker file '" + markerFile + "'.");
+        }
+        discard(compactFile, file);
+        discard(compactIndexFile, indexFile);
+        long indexLength = indexCount * INDEX_ENTRY_SIZE;
+        long dropped = 0;
+        RandomAccessFile tmpRaf = new RandomAccessFile(compactFile, "rw");
+        RandomAccessFile tmpIndexRaf = new RandomAccessFile(compactIndexFile, "rw");
+        try {
+            tmpRaf.setLength(0);
+            tmpIndexRaf.setLength(0);
+            FileChannel source = dataRaf.getChannel();
+            FileChannel target = tmpRaf.getChannel();
+            FileChannel targetIndex = tmpIndexRaf.getChannel();
+            ByteBuffer entries = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            long position = 0;
+            long indexPosition = 0;
+            for (long i = 0; i < indexCount; i++) {
+                long offset = indexSegments.getLong(i * INDEX_ENTRY_SIZE, indexLength);
+                if (offset < 0) {
+                    dropped++;
+                    continue;
+                }
+                long end = dataLength;
+                if (i + 1 < indexCount) {
+                    end = indexSegments.getLong((i + 1) * INDEX_ENTRY_SIZE, indexLength) & ~REMOVED_FLAG;
+                }
+                transferFully(source, offset, end - offset, target, position);
+
+                if (!entries.hasRemaining()) {
+                    entries.flip();
+                    writeFully(targetIndex, entries, indexPosition);
+                    indexPosition += entries.limit();
+                    entries.clear();
+                }
+                entries.putLong(position);
+                position += end - offset;
+            }
+            entries.flip();
+            writeFully(targetIndex, entries, indexPosition);
+            target.force(false);
+            targetIndex.force(false);
+        } finally {
+            tmpRaf.close();
+            tmpIndexRaf.close();
+        }
+
+        // compacted files are complete, from now on they replace current files even if the process dies
+        RandomAccessFile marker = new RandomAccessFile(markerFile, "rw");
+        try {
+            marker.getChannel().force(true);
+        } finally {
+            marker.close();
+        }
+
+        closeFiles();
+        try {
+            moveIn(compactFile, file);
+            moveIn(compactIndexFile, indexFile);
+        } catch (IOException e) {
+            try {
+                moveOut(compactIndexFile, indexFile);
+                moveOut(compactFile, file);
+                if (markerFile.delete()) {
+                    discard(compactFile, file);
+                    discard(compactIndexFile, indexFile);
+                }
+            } catch (IOException ex) {
+                // swap is completed by next open as marker is kept
+                closed = true;
+                throw e;
+            }
+            open();
+            throw e;
+        }
+        open();
+        finishCompact();
+        return dropped;
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closeFiles();
+        closed = true;
+    }
+
+    private void open() throws IOException {
+        dataRaf = new RandomAccessFile(file, "rw");
+        indexRaf = new RandomAccessFile(indexFile, "rw");
+        dataLength = dataRaf.length();
+        indexCount = indexRaf.length() / INDEX_ENTRY_SIZE;
+        dataSegments = new MappedSegments(dataRaf.getChannel(), segmentSize);
+        indexSegments = new MappedSegments(indexRaf.getChannel(), segmentSize);
+    }
+
+    private void closeFiles() throws IOException {
+        dataSegments = null;
+        indexSegments = null;
+        try {
+            dataRaf.close();
+        } finally {
+            indexRaf.close();
+        }
+    }
+
+    /**
+     * complete swap of compacted files committed by marker, or drop compacted files which are not committed.
+     */
+    private void recoverCompact() throws IOException {
+        if (markerFile.exists()) {
+            moveIn(compactFile, file);
+            moveIn(compactIndexFile, indexFile);
+            finishCompact();
+        } else {
+            discard(compactFile, file);
+            discard(compactIndexFile, indexFile);
+        }
+    }
+
+    /**
+     * delete current files moved aside and then marker, once compacted files are in place
+     */
+    private void finishCompact() throws IOException {
+        delete(new File(file.getPath() + OLD_SUFFIX));
+        delete(new File(indexFile.getPath() + OLD_SUFFIX));
+        delete(markerFile);
+    }
+
+    /**
+     * drop index entries beyond data file, index records appended without index and truncate torn tail record.
+     */
+    private void recover() throws IOException {
+        FileChannel dataChannel = dataRaf.getChannel();
+        long validEnd = 0;
+        while (indexCount > 0) {
+            long offset = readIndex(indexCount - 1) & ~REMOVED_FLAG;
+            long end = readRecordEnd(dataChannel, offset);
+            if (end > 0) {
+                validEnd = end;
+                break;
+            }
+            indexCount--;
+        }
+        if (indexRaf.length() != indexCount * INDEX_ENTRY_SIZE) {
+            indexRaf.setLength(indexCount * INDEX_ENTRY_SIZE);
+        }
+
+        long position = validEnd;
+        while (position < dataLength) {
+            long end = readRecordEnd(dataChannel, position);
+            if (end < 0) {
+                break;
+            }
+            if (!indexBuffer.hasRemaining()) {
+                flushIndex();
+            }
+            indexBuffer.putLong(position);
+            position = end;
+        }
+        if (position < dataLength) {
+            dataLength = position;
+            dataRaf.setLength(dataLength);
+        }
+        flushIndex();
+    }
+
+    private long readIndex(long ordinal) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        readFully(indexRaf.getChannel(), entry, ordinal * INDEX_ENTRY_SIZE);
+        return entry.getLong(0);
+    }
+
+    /**
+     * @return end position of record at offset, or -1 if record is incomplete or malformed
+     */
+    private long readRecordEnd(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_SIZE);
+        while (header.hasRemaining() && offset + header.position() < dataLength) {
+            if (channel.read(header, offset + header.position()) < 0) {
+                break;
+            }
+        }
+        int length = 0;
+        for (int i = 0; i < header.position(); i++) {
+            byte b = header.get(i);
+            length |= (b & 0x7F) << (i * 7);
+            if (b >= 0) {
+                long end = offset + i + 1 + length;
+                return length >= 0 && end <= dataLength ? end : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return offset of record, or negative value if removed
+     */
+    private long getOffset(long ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= size()) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " out of range, size " + size());
+        }
+        if (ordinal >= indexCount) {
+            flushIndex();
+        }
+        return indexSegments.getLong(ordinal * INDEX_ENTRY_SIZE, indexCount * INDEX_ENTRY_SIZE);
+    }
+
+    private void flushData() throws IOException {
+        if (dataBuffer.position() == 0) {
+            return;
+        }
+        dataBuffer.flip();
+        int length = dataBuffer.limit();
+        writeFully(dataRaf.getChannel(), dataBuffer, dataLength);
+        dataBuffer.clear();
+        dataLength += length;
+    }
+
+    private void flushIndex() throws IOException {
+        // index entries should never point beyond written data
+        flushData();
+        if (indexBuffer.position() == 0) {
+            return;
+        }
+        indexBuffer.flip();
+        int length = indexBuffer.limit();
+        writeFully(indexRaf.getChannel(), indexBuffer, indexCount * INDEX_ENTRY_SIZE);
+        indexBuffer.clear();
+        indexCount += length / INDEX_ENTRY_SIZE;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Record file '" + file + "' is closed.");
+        }
+    }
+
+    /**
+     * move target aside and put compacted file in its place. does nothing if compacted file is already in place.
+     */
+    private static void moveIn(File compacted, File target) throws IOException {
+        if (!compacted.exists()) {
+            return;
+        }
+        if (target.exists()) {
+            rename(target, new File(target.getPath() + OLD_SUFFIX));
+        }
+        rename(compacted, target);
+    }
+
+    /**
+     * reverse of {@link #moveIn(File, File)}, put target moved aside back in place.
+     */
+    private static void moveOut(File compacted, File target) throws IOException {
+        File old = new File(target.getPath() + OLD_SUFFIX);
+        if (!old.exists()) {
+            return;
+        }
+        if (target.exists()) {
+            rename(target, compacted);
+        }
+        rename(old, target);
+    }
+
+    /**
+     * drop compacted file which is not committed, and put target moved aside back in place if any.
+     */
+    private static void discard(File compacted, File target) throws IOException {
+        File old = new File(target.getPath() + OLD_SUFFIX);
+        if (old.exists()) {
+            if (target.exists()) {
+                delete(old);
+            } else {
+                rename(old, target);
+            }
+        }
+        delete(compacted);
+    }
+
+    private static void rename(File source, File target) throws IOException {
+        if (!source.renameTo(target)) {
+            throw new IOException("Failed to rename file '" + source + "' to '" + target + "'.");
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete file '" + file + "'.");
+        }
+    }
+
+    private static void putRawVarint32(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, pos);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of file at position " + pos);
+            }
+            pos += count;
+        }
+    }
+
+    private static void transferFully(FileChannel source, long position, long count, FileChannel target,
+            long targetPosition) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = target.transferFrom(source.position(position + done), targetPosition + done, count - done);
+            if (n <= 0) {
+                throw new EOFException("Unexpected end of file at position " + (position + done));
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * read only mapped segments of a growing file, segment is mapped again once accessed beyond its mapped length.
+     */
+    private static class MappedSegments {
+
+        private final FileChannel channel;
+
+        private final int segmentSize;
+
+        private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+        MappedSegments(FileChannel channel, int segmentSize) {
+            this.channel = channel;
+            this.segmentSize = segmentSize;
+        }
+
+        byte get(long position, long fileLength) throws IOException {
+            return segment(position, position + 1, fileLength).get((int) (position % segmentSize));
+        }
+
+        /**
+         * position should be aligned to 8 bytes, so the long never crosses segments
+         */
+        long getLong(long position, long fileLength) throws IOException {
+            return segment(position, position + 8, fileLength).getLong((int) (position % segmentSize));
+        }
+
+        /**
+         * @return view of the region, or null if region crosses segments
+         */
+        ByteBuffer slice(long position, int length, long fileLength) throws IOException {
+            if (length == 0) {
+                return ByteBuffer.allocate(0);
+            }
+            if (position / segmentSize != (position + length - 1) / segmentSize) {
+                return null;
+            }
+            ByteBuffer buffer = segment(position, position + length, fileLength).duplicate();
+            int start = (int) (position % segmentSize);
+            buffer.limit(start + length);
+            buffer.position(start);
+            return buffer;
+        }
+
+        private MappedByteBuffer segment(long position, long end, long fileLength) throws IOException {
+            if (end > fileLength) {
+                throw new EOFException("Position " + end + " is beyond end of file " + fileLength);
+            }
+            int index = (int) (position / segmentSize);
+            if (index >= segments.length) {
+                segments = Arrays.copyOf(segments, index + 1);
+            }
+            long base = (long) index * segmentSize;
+            MappedByteBuffer segment = segments[index];
+            if (segment == null || base + segment.capacity() < end) {
+                long size = Math.min(segmentSize, fileLength - base);
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, base, size);
+                segments[index] = segment;
+            }
+            return segment;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct mapped table split into lock stripes, shared by {@link StringPool} and {@link Utf8Cache}. A new entry
+ * replaces the one in the same slot. Total estimated memory of entries is capped, once it is reached entries are
+ * evicted round robin to make room for new ones.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+class BoundedSlotTable {
+
+    private static final int STRIPES = 16;
+
+    private final Entry[][] stripes;
+
+    private final int slotMask;
+
+    private final long maxBytes;
+
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    /**
+     * next slot to evict when memory cap is reached
+     */
+    private final AtomicInteger evictCursor = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param capacity max count of entries, rounded up to power of two
+     * @param maxBytes memory cap of entries
+     */
+    BoundedSlotTable(int capacity, long maxBytes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Param 'capacity' should be positive.");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Param 'maxBytes' should be positive.");
+        }
+        int slots = 1;
+        while (slots * STRIPES < capacity) {
+            slots <<= 1;
+        }
+        stripes = new Entry[STRIPES][slots];
+        slotMask = slots - 1;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * get entry in the slot of hash, caller should check if it matches the key
+     *
+     * @param hash hash of key
+     * @return entry in the slot, or null if empty
+     */
+    Entry get(int hash) {
+        hash = spread(hash);
+        Entry[] slots = stripes[hash & (STRIPES - 1)];
+        synchronized (slots) {
+            return slots[(hash >>> 4) & slotMask];
+        }
+    }
+
+    /**
+     * put entry into the slot of hash, entries are evicted first if memory cap is reached. entry is dropped if it
+     * still does not fit.
+     *
+     * @param hash hash of key
+     * @param entry entry to put
+     */
+    void put(int hash, Entry entry) {
+        hash = spread(hash);
+        long memory = entry.memory();
+        makeRoom(memory);
+        Entry[] slots = stripes[hash & (STRIPES - 1)];
+        int index = (hash >>> 4) & slotMask;
+        synchronized (slots) {
+            Entry old = slots[index];
+            long delta = memory - (old == null ? 0 : old.memory());
+            if (cachedBytes.get() + delta <= maxBytes) {
+                cachedBytes.addAndGet(delta);
+                slots[index] = entry;
+            }
+        }
+    }
+
+    /**
+     * evict entries round robin until new entry fits in memory cap, or all slots are visited.
+     */
+    private void makeRoom(long memory) {
+        if (memory > maxBytes) {
+            return;
+        }
+        int slotCount = STRIPES * (slotMask + 1);
+        for (int i = 0; i < slotCount && cachedBytes.get() + memory > maxBytes; i++) {
+            int slot = evictCursor.getAndIncrement() & (slotCount - 1);
+            Entry[] slots = stripes[slot & (STRIPES - 1)];
+            int index = (slot >>> 4) & slotMask;
+            synchronized (slots) {
+                if (slots[index] != null) {
+                    cachedBytes.addAndGet(-slots[index].memory());
+                    slots[index] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * remove all entries
+     */
+    void clear() {
+        for (Entry[] slots : stripes) {
+            synchronized (slots) {
+                for (int i = 0; i < slots.length; i++) {
+                    if (slots[i] != null) {
+                        cachedBytes.addAndGet(-slots[i].memory());
+                        slots[i] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return estimated memory of entries
+     */
+    long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    private static int spread(int h) {
+        // spread bits as stripe and slot use different bits
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     * entry of table with its estimated memory, which should not change once put
+     */
+    interface Entry {
+
+        /**
+         * @return estimated memory of entry and all objects it retains
+         */
+        long memory();
+    }
+}
@@ -16,7 +16,9 @@
 package com.baidu.bjf.remoting.protobuf.utils;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 
+import com.baidu.bjf.remoting.protobuf.Blob;
 import com.baidu.bjf.remoting.protobuf.FieldType;
 
 
@@ -50,6 +52,26 @@ public class FieldInfo {
      */
     FieldType fieldType;
 
+    /**
+     * parallel encode and decode for large repeated field
+     */
+    private boolean parallel;
+
+    /**
+     * minimum byte size to compress field value, negative if not compressed
+     */
+    private int compressThreshold = -1;
+
+    /**
+     * share decoded string values through string pool
+     */
+    private boolean dedup;
+
+    /**
+     * cache UTF-8 encoded bytes of string values
+     */
+    private boolean utf8Cache;
+
     /**
      * get the field
      * @return the field
@@ -130,6 +152,93 @@ public class FieldInfo {
         this.description = description;
     }
     
+    /**
+     * get the parallel
+     * @return the parallel
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * set parallel value to parallel
+     * @param parallel the parallel to set
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * get the compressThreshold
+     * @return the compressThreshold
+     */
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * set compressThreshold value to compressThreshold
+     * @param compressThreshold the compressThreshold to set
+     */
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * @return true if field value is compressed
+     */
+    public boolean isCompressed() {
+        return compressThreshold >= 0;
+    }
+
+    /**
+     * get the dedup
+     * @return the dedup
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * set dedup value to dedup
+     * @param dedup the dedup to set
+     */
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * get the utf8Cache
+     * @return the utf8Cache
+     */
+    public boolean isUtf8Cache() {
+        return utf8Cache;
+    }
+
+    /**
+     * set utf8Cache value to utf8Cache
+     * @param utf8Cache the utf8Cache to set
+     */
+    public void setUtf8Cache(boolean utf8Cache) {
+        this.utf8Cache = utf8Cache;
+    }
+
+    /**
+     * check if field type is {@link Blob}
+     * @return true if field is streamed blob
+     */
+    public boolean isBlob() {
+        return field.getType() == Blob.class;
+    }
+
+    /**
+     * check if field type is {@link ByteBuffer}
+     * @return true if field value is a byte buffer
+     */
+    public boolean isByteBuffer() {
+        return field.getType() == ByteBuffer.class;
+    }
+
     public boolean hasDescription() {
         if (description == null || description.trim().length() == 0) {
             return false;
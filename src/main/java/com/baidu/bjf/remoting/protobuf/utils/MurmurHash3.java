@@ -0,0 +1,201 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.utils;
+
+import java.io.OutputStream;
+
+/**
+ * MurmurHash3 x64 128-bit variant, a fast non-cryptographic hash function.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public final class MurmurHash3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private MurmurHash3() {
+    }
+
+    /**
+     * get 64-bit hash value of byte array range, which is the first half of 128-bit hash value
+     *
+     * @param data byte array
+     * @param offset start offset
+     * @param length byte length
+     * @return 64-bit hash value
+     */
+    public static long hash64(byte[] data, int offset, int length) {
+        return hash128(data, offset, length, 0)[0];
+    }
+
+    /**
+     * get 128-bit hash value of byte array range
+     *
+     * @param data byte array
+     * @param offset start offset
+     * @param length byte length
+     * @param seed hash seed
+     * @return 128-bit hash value in two longs
+     */
+    public static long[] hash128(byte[] data, int offset, int length, long seed) {
+        Hasher hasher = new Hasher(seed);
+        hasher.write(data, offset, length);
+        return hasher.hash128();
+    }
+
+    private static long[] finish(long h1, long h2, long length) {
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+        h2 += h1;
+        return new long[] { h1, h2 };
+    }
+
+    private static long getLong(byte[] data, int pos) {
+        return (data[pos] & 0xFFL) | ((data[pos + 1] & 0xFFL) << 8) | ((data[pos + 2] & 0xFFL) << 16)
+                | ((data[pos + 3] & 0xFFL) << 24) | ((data[pos + 4] & 0xFFL) << 32)
+                | ((data[pos + 5] & 0xFFL) << 40) | ((data[pos + 6] & 0xFFL) << 48)
+                | ((data[pos + 7] & 0xFFL) << 56);
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * Streaming hasher which computes hash value of all bytes written to it without keeping them, hash value is
+     * the same as {@link MurmurHash3#hash128(byte[], int, int, long)} of all written bytes.
+     */
+    public static final class Hasher extends OutputStream {
+
+        private long h1;
+
+        private long h2;
+
+        private final byte[] buffer = new byte[16];
+
+        private int bufferLength;
+
+        private long length;
+
+        /**
+         * Constructor
+         * 
+         * @param seed hash seed
+         */
+        public Hasher(long seed) {
+            h1 = seed;
+            h2 = seed;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer[bufferLength++] = (byte) b;
+            length++;
+            if (bufferLength == 16) {
+                mixBlock(buffer, 0);
+                bufferLength = 0;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            length += len;
+            if (bufferLength > 0) {
+                int n = Math.min(16 - bufferLength, len);
+                System.arraycopy(b, off, buffer, bufferLength, n);
+                bufferLength += n;
+                off += n;
+                len -= n;
+                if (bufferLength < 16) {
+                    return;
+                }
+                mixBlock(buffer, 0);
+                bufferLength = 0;
+            }
+            while (len >= 16) {
+                mixBlock(b, off);
+                off += 16;
+                len -= 16;
+            }
+            System.arraycopy(b, off, buffer, 0, len);
+            bufferLength = len;
+        }
+
+        /**
+         * @return 64-bit hash value of written bytes, which is the first half of 128-bit hash value
+         */
+        public long hash64() {
+            return hash128()[0];
+        }
+
+        /**
+         * @return 128-bit hash value of written bytes in two longs
+         */
+        public long[] hash128() {
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = bufferLength - 1; i >= 8; i--) {
+                k2 ^= (buffer[i] & 0xFFL) << ((i - 8) * 8);
+            }
+            for (int i = Math.min(bufferLength, 8) - 1; i >= 0; i--) {
+                k1 ^= (buffer[i] & 0xFFL) << (i * 8);
+            }
+            return finish(h1 ^ mixK1(k1), h2 ^ mixK2(k2), length);
+        }
+
+        private void mixBlock(byte[] data, int pos) {
+            h1 ^= mixK1(getLong(data, pos));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(getLong(data, pos + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+    }
+}
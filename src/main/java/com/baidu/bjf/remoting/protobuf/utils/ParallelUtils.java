@@ -0,0 +1,249 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility class to run encode and decode tasks in parallel on a shared thread pool.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public final class ParallelUtils {
+
+    /**
+     * default minimum element count to switch to parallel mode
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /**
+     * marks threads which are running a parallel task to avoid nested waiting in the same pool
+     */
+    private static final ThreadLocal<Boolean> IN_PARALLEL_TASK = new ThreadLocal<Boolean>();
+
+    private static volatile ExecutorService executorService;
+
+    private static volatile int threshold = DEFAULT_THRESHOLD;
+
+    private ParallelUtils() {
+    }
+
+    /**
+     * get the executorService, a daemon fixed thread pool is created on first access if not set.
+     *
+     * @return the executorService
+     */
+    public static ExecutorService getExecutorService() {
+        ExecutorService es = executorService;
+        if (es == null) {
+            synchronized (ParallelUtils.class) {
+                es = executorService;
+                if (es == null) {
+                    es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                            new DaemonThreadFactory());
+                    executorService = es;
+                }
+            }
+        }
+        return es;
+    }
+
+    /**
+     * set executorService value to executorService
+     *
+     * @param executorService the executorService to set
+     */
+    public static void setExecutorService(ExecutorService executorService) {
+        if (executorService == null) {
+            throw new NullPointerException("Parameter executorService is null");
+        }
+        ParallelUtils.executorService = executorService;
+    }
+
+    /**
+     * get the threshold
+     *
+     * @return minimum element count to switch to parallel mode
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * set threshold value to threshold
+     *
+     * @param threshold minimum element count to switch to parallel mode
+     */
+    public static void setThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Param 'threshold' should be positive.");
+        }
+        ParallelUtils.threshold = threshold;
+    }
+
+    /**
+     * check if element count is large enough to run in parallel. always false in a running parallel task.
+     *
+     * @param count element count
+     * @return true if should run in parallel
+     */
+    public static boolean shouldParallel(int count) {
+        return shouldParallel(count, threshold);
+    }
+
+    /**
+     * check if task count is large enough to run in parallel with specified threshold. always false in a running
+     * parallel task.
+     *
+     * @param count task count
+     * @param threshold minimum task count to switch to parallel mode
+     * @return true if should run in parallel
+     */
+    public static boolean shouldParallel(int count, int threshold) {
+        return count >= threshold && IN_PARALLEL_TASK.get() == null;
+    }
+
+    /**
+     * split element count into continuous segments.
+     *
+     * @param count element count
+     * @return segment bounds, segment i is [bounds[i], bounds[i + 1])
+     */
+    public static int[] split(int count) {
+        int segments = Runtime.getRuntime().availableProcessors() * 4;
+        if (segments > count) {
+            segments = count;
+        }
+        if (segments < 1) {
+            segments = 1;
+        }
+        int[] bounds = new int[segments + 1];
+        for (int i = 0; i <= segments; i++) {
+            bounds[i] = (int) ((long) count * i / segments);
+        }
+        return bounds;
+    }
+
+    /**
+     * run all tasks and wait for completion. the last task runs in caller thread.
+     *
+     * @param tasks tasks to run
+     * @return results in task order
+     * @throws IOException if any task failed
+     */
+    public static <V> List<V> invokeAll(List<Callable<V>> tasks) throws IOException {
+        int size = tasks.size();
+        List<V> ret = new ArrayList<V>(size);
+        if (size == 0) {
+            return ret;
+        }
+
+        ExecutorService es = getExecutorService();
+        List<Future<V>> futures = new ArrayList<Future<V>>(size - 1);
+        for (int i = 0; i < size - 1; i++) {
+            futures.add(es.submit(new MarkedCallable<V>(tasks.get(i))));
+        }
+
+        V last;
+        try {
+            last = new MarkedCallable<V>(tasks.get(size - 1)).call();
+            for (Future<V> future : futures) {
+                ret.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            throw toIOException(e.getCause());
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for parallel tasks.");
+        } catch (Exception e) {
+            cancelAll(futures);
+            throw toIOException(e);
+        }
+        ret.add(last);
+        return ret;
+    }
+
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static IOException toIOException(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        IOException e = new IOException(t.getMessage());
+        e.initCause(t);
+        return e;
+    }
+
+    /**
+     * {@link Callable} wrapper to mark current thread is in a parallel task.
+     */
+    private static class MarkedCallable<V> implements Callable<V> {
+
+        private final Callable<V> target;
+
+        MarkedCallable(Callable<V> target) {
+            this.target = target;
+        }
+
+        public V call() throws Exception {
+            Boolean old = IN_PARALLEL_TASK.get();
+            IN_PARALLEL_TASK.set(Boolean.TRUE);
+            try {
+                return target.call();
+            } finally {
+                if (old == null) {
+                    IN_PARALLEL_TASK.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * thread factory to create daemon worker threads
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "jprotobuf-parallel-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
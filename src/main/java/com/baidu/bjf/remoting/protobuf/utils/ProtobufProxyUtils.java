@@ -16,11 +16,14 @@
 package com.baidu.bjf.remoting.protobuf.utils;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.baidu.bjf.remoting.protobuf.Blob;
+import com.baidu.bjf.remoting.protobuf.CompressedValue;
 import com.baidu.bjf.remoting.protobuf.FieldType;
 import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
 
@@ -54,6 +57,9 @@ public class ProtobufProxyUtils {
         TYPE_MAPPING.put(Double.class, FieldType.DOUBLE);
         TYPE_MAPPING.put(Boolean.class, FieldType.BOOL);
         TYPE_MAPPING.put(boolean.class, FieldType.BOOL);
+        TYPE_MAPPING.put(CompressedValue.class, FieldType.BYTES);
+        TYPE_MAPPING.put(Blob.class, FieldType.BYTES);
+        TYPE_MAPPING.put(ByteBuffer.class, FieldType.BYTES);
     }
 
     /**
@@ -91,6 +97,7 @@ public class ProtobufProxyUtils {
             fieldInfo.setField(field);
             fieldInfo.setRequired(protobuf.required());
             fieldInfo.setDescription(protobuf.description());
+            fieldInfo.setParallel(protobuf.parallel());
 
             // process type
             if (protobuf.fieldType() == FieldType.DEFAULT) {
@@ -108,6 +115,51 @@ public class ProtobufProxyUtils {
                 fieldInfo.setFieldType(protobuf.fieldType());
             }
 
+            if (protobuf.parallel()
+                    && (fieldInfo.getFieldType() != FieldType.OBJECT || !List.class.isAssignableFrom(field.getType()))) {
+                throw new IllegalArgumentException("Parallel mode of field '" + field.getName()
+                        + "' is only supported on list of OBJECT type.");
+            }
+
+            if (protobuf.compressThreshold() >= 0) {
+                if (fieldInfo.getFieldType() != FieldType.STRING && fieldInfo.getFieldType() != FieldType.BYTES) {
+                    throw new RuntimeException("Compression of field '" + field.getName()
+                            + "' is only supported on STRING or BYTES type.");
+                }
+                if (List.class.isAssignableFrom(field.getType())) {
+                    throw new RuntimeException("Compression of list field '" + field.getName() + "' is not support.");
+                }
+                if (protobuf.dedup()) {
+                    throw new RuntimeException("Field '" + field.getName()
+                            + "' could not set both compressThreshold and dedup.");
+                }
+                fieldInfo.setCompressThreshold(protobuf.compressThreshold());
+            } else if (field.getType() == CompressedValue.class) {
+                throw new RuntimeException("Field '" + field.getName() + "' of type "
+                        + CompressedValue.class.getSimpleName() + " should set compressThreshold of @Protobuf.");
+            }
+            if (protobuf.dedup()) {
+                if (fieldInfo.getFieldType() != FieldType.STRING) {
+                    throw new RuntimeException("Dedup of field '" + field.getName()
+                            + "' is only supported on STRING type.");
+                }
+                fieldInfo.setDedup(true);
+            }
+            if ((field.getType() == Blob.class || field.getType() == ByteBuffer.class)
+                    && (fieldInfo.getFieldType() != FieldType.BYTES || fieldInfo.isCompressed() || fieldInfo
+                            .isDedup())) {
+                throw new RuntimeException("Field '" + field.getName() + "' of type "
+                        + field.getType().getSimpleName() + " is only supported on uncompressed BYTES type.");
+            }
+            if (protobuf.utf8Cache()) {
+                if (fieldInfo.getFieldType() != FieldType.STRING || fieldInfo.isCompressed()
+                        || List.class.isAssignableFrom(field.getType())) {
+                    throw new RuntimeException("UTF-8 cache of field '" + field.getName()
+                            + "' is only supported on uncompressed single STRING type.");
+                }
+                fieldInfo.setUtf8Cache(true);
+            }
+
             int order = protobuf.order();
             if (order > 0) {
                 fieldInfo.setOrder(order);
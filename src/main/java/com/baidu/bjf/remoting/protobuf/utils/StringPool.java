@@ -0,0 +1,247 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.utils;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Bounded pool of decoded strings keyed by their UTF-8 bytes, used to share one instance of repeated low
+ * cardinality strings among decoded messages. Lookup is done on raw bytes before a new string is created.
+ * <p>
+ * The pool is a {@link BoundedSlotTable}, a new string replaces the one in the same slot. Total estimated memory of
+ * pooled strings is capped, once it is reached pooled strings are evicted round robin to make room for new ones.
+ * Strings longer than max length are never pooled.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class StringPool {
+
+    /**
+     * default slot count of default pool
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * default memory cap of default pool
+     */
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * default max UTF-8 byte length of pooled string
+     */
+    public static final int DEFAULT_MAX_LENGTH = 128;
+
+    /**
+     * estimated memory of string and entry objects besides content
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final String UTF_8 = "UTF-8";
+
+    private static volatile StringPool defaultPool;
+
+    private final BoundedSlotTable table;
+
+    private final int maxLength;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param capacity max count of pooled strings, rounded up to power of two
+     * @param maxBytes memory cap of pooled strings
+     * @param maxLength max UTF-8 byte length of pooled string
+     */
+    public StringPool(int capacity, long maxBytes, int maxLength) {
+        this.table = new BoundedSlotTable(capacity, maxBytes);
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * get the default pool used by fields with <code>dedup</code> of <code>@Protobuf</code>
+     *
+     * @return the default pool
+     */
+    public static StringPool getDefault() {
+        StringPool pool = defaultPool;
+        if (pool == null) {
+            synchronized (StringPool.class) {
+                pool = defaultPool;
+                if (pool == null) {
+                    pool = new StringPool(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES, DEFAULT_MAX_LENGTH);
+                    defaultPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * set the default pool
+     *
+     * @param pool the default pool to set
+     */
+    public static void setDefault(StringPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("Parameter pool is null");
+        }
+        defaultPool = pool;
+    }
+
+    /**
+     * read a length delimited string from input stream through default pool
+     *
+     * @param input input stream
+     * @param bb byte array of input stream starting at offset 0, or null if unknown
+     * @return pooled string
+     * @throws IOException if read failed
+     */
+    public static String readString(CodedInputStream input, byte[] bb) throws IOException {
+        int length = input.readRawVarint32();
+        if (bb != null) {
+            // look up directly in source byte array
+            int offset = input.getTotalBytesRead();
+            input.skipRawBytes(length);
+            return getDefault().intern(bb, offset, length);
+        }
+        byte[] bytes = input.readRawBytes(length);
+        return getDefault().intern(bytes, 0, length);
+    }
+
+    /**
+     * get pooled string of UTF-8 bytes, a new string is created and pooled if not found.
+     *
+     * @param bytes byte array
+     * @param offset start offset
+     * @param length byte length
+     * @return pooled string
+     */
+    public String intern(byte[] bytes, int offset, int length) {
+        if (length > maxLength) {
+            missCount.incrementAndGet();
+            return newString(bytes, offset, length);
+        }
+        int hash = hash(bytes, offset, length);
+        Entry entry = (Entry) table.get(hash);
+        if (entry != null && entry.hash == hash && entry.equals(bytes, offset, length)) {
+            hitCount.incrementAndGet();
+            return entry.value;
+        }
+
+        missCount.incrementAndGet();
+        String value = newString(bytes, offset, length);
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, offset, copy, 0, length);
+        table.put(hash, new Entry(hash, copy, value));
+        return value;
+    }
+
+    /**
+     * remove all pooled strings
+     */
+    public void clear() {
+        table.clear();
+    }
+
+    /**
+     * @return hit count of lookups
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return miss count of lookups
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return hit rate of lookups, 0 if no lookup
+     */
+    public double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return estimated memory of pooled strings
+     */
+    public long getCachedBytes() {
+        return table.getCachedBytes();
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = length;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h;
+    }
+
+    private static String newString(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * pooled string with its UTF-8 bytes
+     */
+    private static class Entry implements BoundedSlotTable.Entry {
+
+        private final int hash;
+
+        private final byte[] bytes;
+
+        private final String value;
+
+        Entry(int hash, byte[] bytes, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+        boolean equals(byte[] other, int offset, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public long memory() {
+            return ENTRY_OVERHEAD + bytes.length + value.length() * 2L;
+        }
+    }
+}
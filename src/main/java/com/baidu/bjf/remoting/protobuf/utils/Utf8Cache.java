@@ -0,0 +1,199 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Bounded cache of UTF-8 encoded bytes of hot strings used on encode. Cached {@link ByteString} is immutable and
+ * knows its size, so a cached string is neither encoded nor measured again.
+ * <p>
+ * The cache is a {@link BoundedSlotTable}, a new string replaces the one in the same slot. Total estimated memory of
+ * cached strings and their bytes is capped, once it is reached cached strings are evicted round robin to make room
+ * for new ones. Strings longer than max length are never cached.
+ * </p>
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class Utf8Cache {
+
+    /**
+     * default slot count of default cache
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * default memory cap of default cache
+     */
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * default max char length of cached string
+     */
+    public static final int DEFAULT_MAX_LENGTH = 128;
+
+    /**
+     * estimated memory of string, byte string and entry objects besides content
+     */
+    private static final int ENTRY_OVERHEAD = 112;
+
+    private static volatile Utf8Cache defaultCache;
+
+    private final BoundedSlotTable table;
+
+    private final int maxLength;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param capacity max count of cached strings, rounded up to power of two
+     * @param maxBytes memory cap of cached bytes
+     * @param maxLength max char length of cached string
+     */
+    public Utf8Cache(int capacity, long maxBytes, int maxLength) {
+        this.table = new BoundedSlotTable(capacity, maxBytes);
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * get the default cache used by fields with <code>utf8Cache</code> of <code>@Protobuf</code>
+     *
+     * @return the default cache
+     */
+    public static Utf8Cache getDefault() {
+        Utf8Cache cache = defaultCache;
+        if (cache == null) {
+            synchronized (Utf8Cache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    cache = new Utf8Cache(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES, DEFAULT_MAX_LENGTH);
+                    defaultCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * set the default cache
+     *
+     * @param cache the default cache to set
+     */
+    public static void setDefault(Utf8Cache cache) {
+        if (cache == null) {
+            throw new NullPointerException("Parameter cache is null");
+        }
+        defaultCache = cache;
+    }
+
+    /**
+     * get UTF-8 encoded bytes of string through default cache
+     *
+     * @param value string value
+     * @return UTF-8 encoded bytes
+     */
+    public static ByteString encode(String value) {
+        return getDefault().get(value);
+    }
+
+    /**
+     * get UTF-8 encoded bytes of string, it is encoded and cached if not found.
+     *
+     * @param value string value
+     * @return UTF-8 encoded bytes
+     */
+    public ByteString get(String value) {
+        if (value.length() > maxLength) {
+            missCount.incrementAndGet();
+            return ByteString.copyFromUtf8(value);
+        }
+        int hash = value.hashCode();
+        Entry entry = (Entry) table.get(hash);
+        if (entry != null && (entry.value == value || entry.value.equals(value))) {
+            hitCount.incrementAndGet();
+            return entry.bytes;
+        }
+
+        missCount.incrementAndGet();
+        ByteString bytes = ByteString.copyFromUtf8(value);
+        table.put(hash, new Entry(value, bytes));
+        return bytes;
+    }
+
+    /**
+     * remove all cached strings
+     */
+    public void clear() {
+        table.clear();
+    }
+
+    /**
+     * @return hit count of lookups
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return miss count of lookups
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return hit rate of lookups, 0 if no lookup
+     */
+    public double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return estimated memory of cached bytes
+     */
+    public long getCachedBytes() {
+        return table.getCachedBytes();
+    }
+
+    /**
+     * cached string with its UTF-8 bytes, string is kept by cache
+     */
+    private static class Entry implements BoundedSlotTable.Entry {
+
+        private final String value;
+
+        private final ByteString bytes;
+
+        Entry(String value, ByteString bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+
+        public long memory() {
+            // both string and its bytes are retained
+            return ENTRY_OVERHEAD + bytes.size() + value.length() * 2L;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.batch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Test batch encode and decode of {@link AbstractCodec}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class BatchCodecTest {
+
+    private List<PersonPOJO> createPersons(int count) {
+        List<PersonPOJO> list = new ArrayList<PersonPOJO>(count);
+        for (int i = 0; i < count; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "name" + i;
+            person.id = i;
+            if (i % 2 == 0) {
+                person.email = "xiemalin" + i + "@baidu.com";
+            }
+            list.add(person);
+        }
+        return list;
+    }
+
+    @Test
+    public void testEncodeAllAsLengthDelimited() throws IOException {
+        AbstractCodec<PersonPOJO> codec = (AbstractCodec<PersonPOJO>) ProtobufProxy.create(PersonPOJO.class);
+        List<PersonPOJO> list = createPersons(3);
+
+        byte[] bb = codec.encodeAll(list);
+
+        CodedInputStream input = CodedInputStream.newInstance(bb);
+        for (PersonPOJO person : list) {
+            byte[] expected = codec.encode(person);
+            Assert.assertEquals(expected.length, input.readRawVarint32());
+            Assert.assertTrue(Arrays.equals(expected, input.readRawBytes(expected.length)));
+        }
+        Assert.assertTrue(input.isAtEnd());
+    }
+
+    @Test
+    public void testDecodeAll() throws IOException {
+        AbstractCodec<PersonPOJO> codec = (AbstractCodec<PersonPOJO>) ProtobufProxy.create(PersonPOJO.class);
+        List<PersonPOJO> list = createPersons(10);
+
+        byte[] bb = codec.encodeAll(list);
+        List<PersonPOJO> decoded = codec.decodeAll(bb);
+        Assert.assertEquals(10, decoded.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(list.get(i).name, decoded.get(i).name);
+            Assert.assertEquals(list.get(i).id, decoded.get(i).id);
+            Assert.assertEquals(list.get(i).email, decoded.get(i).email);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bb.length + 2);
+        buffer.put((byte) 0);
+        buffer.put(bb);
+        buffer.flip();
+        buffer.position(1);
+        Assert.assertEquals(10, codec.decodeAll(buffer).size());
+
+        Assert.assertEquals(0, codec.decodeAll(new byte[0]).size());
+    }
+
+    @Test
+    public void testParallelEncodeAll() throws IOException {
+        AbstractCodec<PersonPOJO> codec = (AbstractCodec<PersonPOJO>) ProtobufProxy.create(PersonPOJO.class);
+        List<PersonPOJO> list = createPersons(20000);
+
+        byte[] serial = codec.encodeAll(list);
+        byte[] parallel = codec.encodeAll(list, true);
+        Assert.assertTrue(Arrays.equals(serial, parallel));
+
+        List<PersonPOJO> decoded = codec.decodeAll(parallel);
+        Assert.assertEquals(20000, decoded.size());
+        Assert.assertEquals("name19999", decoded.get(19999).name);
+    }
+}
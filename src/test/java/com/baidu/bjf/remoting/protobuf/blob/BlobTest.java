@@ -0,0 +1,137 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.blob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Blob;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Test {@link Blob} fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class BlobTest {
+
+    @After
+    public void tearDown() {
+        Blob.setSpillThreshold(Blob.DEFAULT_SPILL_THRESHOLD);
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    @Test
+    public void testStreamAndSpill() throws IOException {
+        Codec<FileTransferPOJO> codec = ProtobufProxy.create(FileTransferPOJO.class);
+        final byte[] content = createContent(300 * 1024);
+        FileTransferPOJO pojo = new FileTransferPOJO();
+        pojo.name = "data.bin";
+        pojo.checksum = 12345L;
+        pojo.content = Blob.fromStream(new Blob.StreamSource() {
+            public InputStream open() throws IOException {
+                return new ByteArrayInputStream(content);
+            }
+        }, content.length);
+
+        File file = File.createTempFile("transfer", ".bin");
+        FileTransferPOJO decode = null;
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            CodedOutputStream output = CodedOutputStream.newInstance(os);
+            codec.writeTo(pojo, output);
+            output.flush();
+            os.close();
+            Assert.assertEquals(codec.size(pojo), file.length());
+
+            Blob.setSpillThreshold(64 * 1024);
+            InputStream is = new BufferedInputStream(new FileInputStream(file));
+            decode = codec.readFrom(CodedInputStream.newInstance(is));
+            is.close();
+
+            Assert.assertEquals("data.bin", decode.name);
+            Assert.assertEquals(12345L, decode.checksum);
+            Assert.assertTrue(decode.content.isSpilled());
+            Assert.assertEquals(content.length, decode.content.length());
+            Assert.assertTrue(Arrays.equals(content, decode.content.toByteArray()));
+
+            // re-encode spilled blob from its file
+            FileTransferPOJO again = codec.decode(codec.encode(decode));
+            Assert.assertTrue(Arrays.equals(content, again.content.toByteArray()));
+            again.content.delete();
+        } finally {
+            file.delete();
+            if (decode != null) {
+                Assert.assertTrue(decode.content.delete());
+            }
+        }
+    }
+
+    @Test
+    public void testSmallBlob() throws IOException {
+        Codec<FileTransferPOJO> codec = ProtobufProxy.create(FileTransferPOJO.class);
+        FileTransferPOJO pojo = new FileTransferPOJO();
+        pojo.content = Blob.valueOf(createContent(100));
+        FileTransferPOJO decode = codec.decode(codec.encode(pojo));
+        Assert.assertFalse(decode.content.isSpilled());
+        Assert.assertTrue(Arrays.equals(pojo.content.toByteArray(), decode.content.toByteArray()));
+        Assert.assertNull(decode.name);
+
+        pojo.content = null;
+        Assert.assertNull(codec.decode(codec.encode(pojo)).content);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLengthMismatch() throws IOException {
+        Codec<FileTransferPOJO> codec = ProtobufProxy.create(FileTransferPOJO.class);
+        FileTransferPOJO pojo = new FileTransferPOJO();
+        pojo.content = Blob.fromStream(new Blob.StreamSource() {
+            public InputStream open() throws IOException {
+                return new ByteArrayInputStream(new byte[10]);
+            }
+        }, 20);
+        codec.encode(pojo);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidType() {
+        ProtobufProxy.create(InvalidBlobPOJO.class);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.bytebuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Test {@link ByteBuffer} fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ByteBufferFieldTest {
+
+    private static ByteBuffer createPayload(boolean direct, int size) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size + 20) : ByteBuffer.allocate(size + 20);
+        for (int i = 0; i < size + 20; i++) {
+            buffer.put((byte) i);
+        }
+        // only bytes between position and limit are encoded
+        buffer.position(10);
+        buffer.limit(size + 10);
+        return buffer;
+    }
+
+    @Test
+    public void testHeapAndDirect() throws IOException {
+        Codec<FramePOJO> codec = ProtobufProxy.create(FramePOJO.class);
+        for (int direct = 0; direct < 2; direct++) {
+            FramePOJO frame = new FramePOJO();
+            frame.sequence = 7;
+            frame.payload = createPayload(direct == 1, 20000);
+
+            byte[] bytes = codec.encode(frame);
+            Assert.assertEquals(10, frame.payload.position());
+            Assert.assertEquals(bytes.length, codec.size(frame));
+
+            FramePOJO decode = codec.decode(bytes);
+            Assert.assertEquals(7, decode.sequence);
+            Assert.assertEquals(frame.payload, decode.payload);
+            // decoded value is a slice of input bytes
+            Assert.assertSame(bytes, decode.payload.array());
+
+            decode = codec.readFrom(CodedInputStream.newInstance(new ByteArrayInputStream(bytes)));
+            Assert.assertEquals(frame.payload, decode.payload);
+        }
+    }
+
+    @Test
+    public void testNullAndEmpty() throws IOException {
+        Codec<FramePOJO> codec = ProtobufProxy.create(FramePOJO.class);
+        FramePOJO frame = new FramePOJO();
+        Assert.assertNull(codec.decode(codec.encode(frame)).payload);
+
+        frame.payload = ByteBuffer.allocate(0);
+        Assert.assertEquals(0, codec.decode(codec.encode(frame)).payload.remaining());
+    }
+}
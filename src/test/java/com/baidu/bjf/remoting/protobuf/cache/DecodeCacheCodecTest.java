@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.bytebuffer.FramePOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.utils.MurmurHash3;
+
+/**
+ * Test {@link DecodeCacheCodec}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class DecodeCacheCodecTest {
+
+    private byte[] encodePerson(int id) throws IOException {
+        PersonPOJO person = new PersonPOJO();
+        person.name = "xiemalin";
+        person.id = id;
+        return ProtobufProxy.create(PersonPOJO.class).encode(person);
+    }
+
+    @Test
+    public void testDecodeCache() throws IOException {
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        DecodeCacheCodec<PersonPOJO> cached = new DecodeCacheCodec<PersonPOJO>(codec, 1024);
+
+        byte[] bb = encodePerson(100);
+        PersonPOJO decode = cached.decode(bb);
+        Assert.assertEquals(100, decode.id);
+
+        // same content in another array
+        Assert.assertSame(decode, cached.decode(bb.clone()));
+        Assert.assertEquals(1, cached.getHitCount());
+        Assert.assertEquals(1, cached.getMissCount());
+        Assert.assertEquals(bb.length, cached.getSavedBytes());
+        Assert.assertEquals(0.5D, cached.getHitRate());
+
+        // modified input array does not affect cached bytes
+        bb[bb.length - 1] = 101;
+        Assert.assertEquals(101, cached.decode(bb).id);
+        Assert.assertEquals(2, cached.getMissCount());
+    }
+
+    @Test
+    public void testSharedValueNotAliasInput() throws IOException {
+        Codec<FramePOJO> codec = ProtobufProxy.create(FramePOJO.class);
+        DecodeCacheCodec<FramePOJO> cached = new DecodeCacheCodec<FramePOJO>(codec, 1024);
+
+        FramePOJO frame = new FramePOJO();
+        frame.sequence = 1;
+        frame.payload = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 });
+        byte[] bb = codec.encode(frame);
+        byte[] input = bb.clone();
+        cached.decode(input);
+
+        // caller reuses its input buffer
+        Arrays.fill(input, (byte) 0);
+
+        FramePOJO decode = cached.decode(bb);
+        Assert.assertEquals(1, cached.getHitCount());
+        Assert.assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), decode.payload);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        byte[] bb = encodePerson(1);
+        DecodeCacheCodec<PersonPOJO> cached = new DecodeCacheCodec<PersonPOJO>(
+                ProtobufProxy.create(PersonPOJO.class), bb.length * 2);
+
+        cached.decode(encodePerson(1));
+        cached.decode(encodePerson(2));
+        cached.decode(encodePerson(1));
+        cached.decode(encodePerson(3));
+        Assert.assertEquals(2, cached.getCachedCount());
+        Assert.assertEquals(bb.length * 2, cached.getCachedBytes());
+
+        cached.decode(encodePerson(1));
+        Assert.assertEquals(2, cached.getHitCount());
+        cached.decode(encodePerson(2));
+        Assert.assertEquals(4, cached.getMissCount());
+    }
+
+    @Test
+    public void testMurmurHash3() throws IOException {
+        byte[] bb = "The quick brown fox jumps over the lazy dog".getBytes("UTF-8");
+        long[] hash = MurmurHash3.hash128(bb, 0, bb.length, 0);
+        Assert.assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+        Assert.assertEquals(0x7a433ca9c49a9347L, hash[1]);
+        Assert.assertEquals(0L, MurmurHash3.hash64(new byte[0], 0, 0));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+
+/**
+ * Test {@link EncodeCacheCodec}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class EncodeCacheCodecTest {
+
+    private PersonPOJO createPerson(int id) {
+        PersonPOJO person = new PersonPOJO();
+        person.name = "xiemalin";
+        person.id = id;
+        return person;
+    }
+
+    @Test
+    public void testEncodeCache() throws IOException {
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        EncodeCacheCodec<PersonPOJO> cached = new EncodeCacheCodec<PersonPOJO>(codec, 1024);
+
+        PersonPOJO person = createPerson(100);
+        byte[] bb = cached.encode(person);
+        Assert.assertTrue(Arrays.equals(codec.encode(person), bb));
+        Assert.assertSame(bb, cached.encode(person));
+        Assert.assertEquals(1, cached.getHitCount());
+        Assert.assertEquals(1, cached.getMissCount());
+        Assert.assertEquals(bb.length, cached.getCachedBytes());
+
+        // equal object with different identity is not cached
+        Assert.assertNotSame(bb, cached.encode(createPerson(100)));
+        Assert.assertEquals(2, cached.getMissCount());
+
+        ByteBuffer buffer = cached.encodeToBuffer(person);
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(bb.length, buffer.remaining());
+        Assert.assertEquals(2, cached.getHitCount());
+
+        Assert.assertEquals("xiemalin", cached.decode(bb).name);
+    }
+
+    @Test
+    public void testVersion() throws IOException {
+        EncodeCacheCodec<PersonPOJO> cached = new EncodeCacheCodec<PersonPOJO>(
+                ProtobufProxy.create(PersonPOJO.class), 1024);
+
+        PersonPOJO person = createPerson(100);
+        byte[] bb = cached.encode(person, 1L);
+        person.id = 200;
+        Assert.assertSame(bb, cached.encode(person, 1L));
+
+        byte[] changed = cached.encode(person, 2L);
+        Assert.assertEquals(200, cached.decode(changed).id);
+        Assert.assertEquals(1, cached.getCachedCount());
+        Assert.assertEquals(changed.length, cached.getCachedBytes());
+
+        cached.invalidate(person);
+        Assert.assertEquals(0, cached.getCachedCount());
+        Assert.assertEquals(0, cached.getCachedBytes());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        int size = codec.encode(createPerson(1)).length;
+        EncodeCacheCodec<PersonPOJO> cached = new EncodeCacheCodec<PersonPOJO>(codec, size * 2);
+
+        PersonPOJO p1 = createPerson(1);
+        PersonPOJO p2 = createPerson(2);
+        PersonPOJO p3 = createPerson(3);
+        cached.encode(p1);
+        cached.encode(p2);
+        cached.encode(p1);
+        cached.encode(p3);
+
+        Assert.assertEquals(2, cached.getCachedCount());
+        Assert.assertEquals(1, cached.getEvictionCount());
+        // least recently used p2 is evicted
+        cached.encode(p1);
+        Assert.assertEquals(2, cached.getHitCount());
+        cached.encode(p2);
+        Assert.assertEquals(4, cached.getMissCount());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.canonical;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.Person;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.originalbytes.TrackedPersonPOJO;
+import com.baidu.bjf.remoting.protobuf.utils.MurmurHash3;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Test canonical encoding and fingerprint
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class CanonicalEncodeTest {
+
+    private Person createPerson() {
+        return Person.newBuilder().setName("xiemalin").setId(100).setEmail("xiemalin@baidu.com")
+                .setDoubleF(1.5D).setBytesF(ByteString.copyFrom(new byte[] { 1, 2 })).setBoolF(true).build();
+    }
+
+    private static <T> AbstractCodec<T> create(Class<T> cls) {
+        return (AbstractCodec<T>) ProtobufProxy.create(cls);
+    }
+
+    @Test
+    public void testAscendingFieldOrder() throws IOException {
+        ReversedPersonPOJO person = new ReversedPersonPOJO();
+        person.name = "xiemalin";
+        person.id = 100;
+        person.email = "xiemalin@baidu.com";
+        person.doubleF = 1.5D;
+        person.bytesF = new byte[] { 1, 2 };
+        person.boolF = true;
+
+        AbstractCodec<ReversedPersonPOJO> codec = create(ReversedPersonPOJO.class);
+        byte[] expected = createPerson().toByteArray();
+        Assert.assertTrue(Arrays.equals(expected, codec.encode(person)));
+        Assert.assertTrue(Arrays.equals(expected, codec.encodeCanonical(person)));
+    }
+
+    @Test
+    public void testUnknownFieldsMerged() throws IOException {
+        Person person = createPerson();
+        AbstractCodec<SparsePersonPOJO> codec = create(SparsePersonPOJO.class);
+        SparsePersonPOJO decode = codec.decode(person.toByteArray());
+
+        // default encode appends unknown fields
+        byte[] bb = codec.encode(decode);
+        Assert.assertFalse(Arrays.equals(person.toByteArray(), bb));
+        Assert.assertEquals(person, Person.parseFrom(bb));
+
+        Assert.assertTrue(Arrays.equals(person.toByteArray(), codec.encodeCanonical(decode)));
+        Assert.assertEquals(codec.fingerprint(decode), create(ReversedPersonPOJO.class).fingerprint(
+                create(ReversedPersonPOJO.class).decode(bb)));
+    }
+
+    @Test
+    public void testOriginalBytesNotReused() throws IOException {
+        // fields in descending order
+        byte[] bb = new byte[CodedOutputStream.computeInt32Size(2, 100)
+                + CodedOutputStream.computeStringSize(1, "xiemalin")];
+        CodedOutputStream output = CodedOutputStream.newInstance(bb);
+        output.writeInt32(2, 100);
+        output.writeString(1, "xiemalin");
+
+        AbstractCodec<TrackedPersonPOJO> codec = create(TrackedPersonPOJO.class);
+        TrackedPersonPOJO decode = codec.decode(bb);
+        Assert.assertTrue(Arrays.equals(bb, codec.encode(decode)));
+
+        byte[] canonical = codec.encodeCanonical(decode);
+        Assert.assertTrue(Arrays.equals(Person.newBuilder().setName("xiemalin").setId(100).build().toByteArray(),
+                canonical));
+        Assert.assertEquals(MurmurHash3.hash64(canonical, 0, canonical.length), codec.fingerprint(decode));
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        AddressBookProtosPOJO book = new AddressBookProtosPOJO();
+        book.list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < 100; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "xiemalin" + i;
+            person.id = i;
+            book.list.add(person);
+        }
+
+        AbstractCodec<AddressBookProtosPOJO> codec = create(AddressBookProtosPOJO.class);
+        byte[] canonical = codec.encodeCanonical(book);
+        long[] hash = MurmurHash3.hash128(canonical, 0, canonical.length, 0);
+        long[] fingerprint = codec.fingerprint128(book);
+        Assert.assertEquals(hash[0], fingerprint[0]);
+        Assert.assertEquals(hash[1], fingerprint[1]);
+        Assert.assertEquals(hash[0], codec.fingerprint(book));
+
+        book.list.get(50).id = 500;
+        Assert.assertTrue(hash[0] != codec.fingerprint(book));
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.canonical;
+
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.UnknownFieldsAware;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+
+/**
+ * Person POJO with part of fields, other fields are kept as unknown fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class SparsePersonPOJO implements UnknownFieldsAware {
+
+    @Protobuf(fieldType = FieldType.STRING, order = 1, required = true)
+    public String name;
+
+    @Protobuf(fieldType = FieldType.STRING, order = 3, required = false)
+    public String email;
+
+    private byte[] unknownFields;
+
+    public byte[] getUnknownFields() {
+        return unknownFields;
+    }
+
+    public void setUnknownFields(byte[] unknownFields) {
+        this.unknownFields = unknownFields;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.CompressedValue;
+import com.baidu.bjf.remoting.protobuf.DeltaCodec;
+import com.baidu.bjf.remoting.protobuf.MessagePatcher;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Test compressed STRING and BYTES fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class CompressedFieldTest {
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private DocumentPOJO createDocument() {
+        DocumentPOJO document = new DocumentPOJO();
+        document.title = "title";
+        document.content = repeat("jprotobuf content ", 100);
+        document.data = new byte[4096];
+        document.lazyContent = CompressedValue.valueOf(repeat("lazy content ", 100));
+        return document;
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        Codec<DocumentPOJO> codec = ProtobufProxy.create(DocumentPOJO.class);
+        DocumentPOJO document = createDocument();
+        byte[] bb = codec.encode(document);
+        Assert.assertTrue(bb.length < 500);
+        Assert.assertEquals(codec.size(document), bb.length);
+
+        DocumentPOJO decode = codec.decode(bb);
+        Assert.assertEquals("title", decode.title);
+        Assert.assertEquals(document.content, decode.content);
+        Assert.assertTrue(Arrays.equals(document.data, decode.data));
+        Assert.assertEquals(document.lazyContent, decode.lazyContent);
+    }
+
+    @Test
+    public void testLazyDecompress() throws IOException {
+        Codec<DocumentPOJO> codec = ProtobufProxy.create(DocumentPOJO.class);
+        byte[] bb = codec.encode(createDocument());
+
+        DocumentPOJO decode = codec.decode(bb);
+        Assert.assertFalse(decode.lazyContent.isDecompressed());
+
+        // encoded bytes are reused without decompression
+        Assert.assertTrue(Arrays.equals(bb, codec.encode(decode)));
+        Assert.assertFalse(decode.lazyContent.isDecompressed());
+
+        Assert.assertEquals(repeat("lazy content ", 100), decode.lazyContent.getString());
+        Assert.assertTrue(decode.lazyContent.isDecompressed());
+    }
+
+    @Test
+    public void testBelowThreshold() throws IOException {
+        Codec<DocumentPOJO> codec = ProtobufProxy.create(DocumentPOJO.class);
+        DocumentPOJO document = new DocumentPOJO();
+        document.content = "short";
+        byte[] bb = codec.encode(document);
+        Assert.assertEquals(2 + 1 + "short".length(), bb.length);
+        Assert.assertEquals(FieldCompressor.FORMAT_RAW, bb[2]);
+        Assert.assertEquals("short", codec.decode(bb).content);
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        AbstractCodec<DocumentPOJO> codec = (AbstractCodec<DocumentPOJO>) ProtobufProxy.create(DocumentPOJO.class);
+        List<DocumentPOJO> list = codec.decodeAll(codec.encodeAll(Arrays.asList(createDocument(),
+                createDocument())));
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals(createDocument().content, list.get(1).content);
+    }
+
+    @Test
+    public void testPatch() throws IOException {
+        Codec<DocumentPOJO> codec = ProtobufProxy.create(DocumentPOJO.class);
+        DocumentPOJO document = createDocument();
+        String content = repeat("patched content ", 100);
+
+        MessagePatcher<DocumentPOJO> patcher = new MessagePatcher<DocumentPOJO>(DocumentPOJO.class);
+        byte[] bb = patcher.setField(codec.encode(document), "content", content);
+        Assert.assertEquals(content, codec.decode(bb).content);
+
+        DocumentPOJO newValue = codec.decode(codec.encode(document));
+        newValue.lazyContent = CompressedValue.valueOf(content);
+        DeltaCodec<DocumentPOJO> delta = DeltaCodec.create(DocumentPOJO.class);
+        byte[] patch = delta.diff(document, newValue);
+        Assert.assertTrue(patch.length < 100);
+        Assert.assertEquals(content, delta.applyPatch(document, patch).lazyContent.getString());
+    }
+
+    @Test
+    public void testRejectLargeOriginalSize() throws IOException {
+        // deflate format with original size Integer.MAX_VALUE
+        byte[] encoded = new byte[] { FieldCompressor.FORMAT_DEFLATE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x07, 0x78, (byte) 0x9C };
+        try {
+            FieldCompressor.decompress(encoded);
+            Assert.fail();
+        } catch (InvalidProtocolBufferException e) {
+            Assert.assertTrue(e.getMessage().contains("exceeds max original size"));
+        }
+
+        // negative original size
+        encoded = new byte[] { FieldCompressor.FORMAT_DEFLATE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                0x0F };
+        try {
+            FieldCompressor.decompress(encoded);
+            Assert.fail();
+        } catch (InvalidProtocolBufferException e) {
+            Assert.assertTrue(e.getMessage().contains("exceeds max original size"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOriginalSizeMismatch() throws IOException {
+        byte[] encoded = FieldCompressor.compress(repeat("jprotobuf ", 100), 0);
+        Assert.assertEquals(FieldCompressor.FORMAT_DEFLATE, encoded[0]);
+        // declared original size is one byte less than inflated size
+        encoded[1] = (byte) (encoded[1] - 1);
+        FieldCompressor.decompress(encoded);
+    }
+
+    @Test
+    public void testNestedCompressOnce() throws IOException {
+        DocumentPOJO document = createDocument();
+        // not kept outside of write scope
+        Assert.assertNotSame(FieldCompressor.compressForSize(document.data, 64),
+                FieldCompressor.compressForWrite(document.data, 64));
+
+        FieldCompressor.enterScope();
+        try {
+            byte[] sized = FieldCompressor.compressForSize(document.data, 64);
+            Assert.assertSame(sized, FieldCompressor.compressForSize(document.data, 64));
+            Assert.assertSame(sized, FieldCompressor.compressForWrite(document.data, 64));
+        } finally {
+            FieldCompressor.exitScope();
+        }
+
+        Codec<DocumentHolderPOJO> codec = ProtobufProxy.create(DocumentHolderPOJO.class);
+        DocumentHolderPOJO holder = new DocumentHolderPOJO();
+        holder.document = document;
+        Assert.assertEquals(codec.size(holder), codec.encode(holder).length);
+        Assert.assertEquals(document.content, codec.decode(codec.encode(holder)).document.content);
+    }
+
+    @Test
+    public void testMutateAfterSize() throws IOException {
+        Codec<DocumentHolderPOJO> codec = ProtobufProxy.create(DocumentHolderPOJO.class);
+        DocumentHolderPOJO holder = new DocumentHolderPOJO();
+        holder.document = createDocument();
+        codec.size(holder);
+
+        // changed in place after size without write
+        Arrays.fill(holder.document.data, (byte) 7);
+        DocumentHolderPOJO decode = codec.decode(codec.encode(holder));
+        Assert.assertTrue(Arrays.equals(holder.document.data, decode.document.data));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInvalidFieldType() {
+        ProtobufProxy.create(InvalidCompressedPOJO.class);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.compress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Test {@link CompressingCodec}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class CompressingCodecTest {
+
+    private AddressBookProtosPOJO createBook(int count) {
+        AddressBookProtosPOJO book = new AddressBookProtosPOJO();
+        book.list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < count; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "xiemalin" + i;
+            person.id = i;
+            person.email = "xiemalin" + i + "@baidu.com";
+            book.list.add(person);
+        }
+        return book;
+    }
+
+    private void assertBook(int count, AddressBookProtosPOJO book) {
+        Assert.assertEquals(count, book.list.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, book.list.get(i).id);
+            Assert.assertEquals("xiemalin" + i + "@baidu.com", book.list.get(i).email);
+        }
+    }
+
+    @Test
+    public void testBelowThreshold() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(codec,
+                1024);
+
+        AddressBookProtosPOJO book = createBook(2);
+        byte[] bb = compressing.encode(book);
+        Assert.assertEquals(CompressingCodec.ALGORITHM_NONE, bb[0]);
+        Assert.assertEquals(codec.size(book) + 3, bb.length);
+        assertBook(2, compressing.decode(bb));
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(codec,
+                1024);
+
+        AddressBookProtosPOJO book = createBook(1000);
+        byte[] bb = compressing.encode(book);
+        Assert.assertEquals(CompressingCodec.ALGORITHM_DEFLATE, bb[0]);
+        Assert.assertTrue(bb.length < codec.size(book) / 2);
+        assertBook(1000, compressing.decode(bb));
+    }
+
+    @Test
+    public void testDeflateBlocks() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(codec,
+                1024, Deflater.BEST_SPEED, 4096);
+
+        AddressBookProtosPOJO book = createBook(1000);
+        byte[] bb = compressing.encode(book);
+        Assert.assertEquals(CompressingCodec.ALGORITHM_DEFLATE_BLOCKS, bb[0]);
+        Assert.assertTrue(bb.length < codec.size(book) / 2);
+        assertBook(1000, compressing.decode(bb));
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(codec,
+                1024, Deflater.BEST_SPEED, 4096);
+
+        List<AddressBookProtosPOJO> books = Arrays.asList(createBook(1), createBook(100), createBook(1000));
+        List<AddressBookProtosPOJO> decoded = compressing.decodeAll(compressing.encodeAll(books));
+        Assert.assertEquals(3, decoded.size());
+        assertBook(1, decoded.get(0));
+        assertBook(100, decoded.get(1));
+        assertBook(1000, decoded.get(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorrupted() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(codec,
+                1024);
+
+        byte[] bb = compressing.encode(createBook(1000));
+        bb[bb.length / 2] ^= 0x5A;
+        compressing.decode(bb);
+    }
+
+    @Test
+    public void testSizeThenWriteToCompressOnce() throws IOException {
+        final Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        final int[] encodeCount = new int[1];
+        Codec<AddressBookProtosPOJO> counting = new Codec<AddressBookProtosPOJO>() {
+            public byte[] encode(AddressBookProtosPOJO t) throws IOException {
+                encodeCount[0]++;
+                return codec.encode(t);
+            }
+
+            public AddressBookProtosPOJO decode(byte[] bytes) throws IOException {
+                return codec.decode(bytes);
+            }
+
+            public int size(AddressBookProtosPOJO t) throws IOException {
+                return codec.size(t);
+            }
+
+            public void writeTo(AddressBookProtosPOJO t, CodedOutputStream out) throws IOException {
+                codec.writeTo(t, out);
+            }
+
+            public AddressBookProtosPOJO readFrom(CodedInputStream intput) throws IOException {
+                return codec.readFrom(intput);
+            }
+        };
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(counting,
+                1024);
+
+        AddressBookProtosPOJO book = createBook(1000);
+        byte[] bb = new byte[compressing.size(book)];
+        CodedOutputStream output = CodedOutputStream.newInstance(bb);
+        compressing.writeTo(book, output);
+        output.checkNoSpaceLeft();
+        Assert.assertEquals(1, encodeCount[0]);
+        assertBook(1000, compressing.decode(bb));
+
+        // frame is only reused once
+        compressing.writeTo(book, CodedOutputStream.newInstance(new byte[bb.length]));
+        Assert.assertEquals(2, encodeCount[0]);
+
+        List<AddressBookProtosPOJO> books = Arrays.asList(createBook(10), createBook(1000));
+        List<AddressBookProtosPOJO> decoded = compressing.decodeAll(compressing.encodeAll(books));
+        Assert.assertEquals(4, encodeCount[0]);
+        assertBook(10, decoded.get(0));
+        assertBook(1000, decoded.get(1));
+
+        // frame is dropped by encode of another object
+        compressing.size(book);
+        Assert.assertEquals(5, encodeCount[0]);
+        compressing.encode(books.get(0));
+        Assert.assertEquals(6, encodeCount[0]);
+        compressing.writeTo(book, CodedOutputStream.newInstance(new byte[bb.length]));
+        Assert.assertEquals(7, encodeCount[0]);
+    }
+
+    @Test
+    public void testMaxOriginalSize() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(codec,
+                1024);
+
+        // header claims huge original size with a tiny payload
+        byte[] bb = new byte[] { CompressingCodec.ALGORITHM_DEFLATE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x07, 1, 0 };
+        try {
+            compressing.decode(bb);
+            Assert.fail("Should reject frame with original size over max");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().indexOf("max original size") != -1);
+        }
+
+        byte[] frame = compressing.encode(createBook(1000));
+        compressing.setMaxOriginalSize(1024);
+        try {
+            compressing.decode(frame);
+            Assert.fail("Should reject frame with original size over max");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().indexOf("max original size") != -1);
+        }
+    }
+
+    @Test
+    public void testInflateOverExpectedSize() throws IOException {
+        DeflaterPool pool = new DeflaterPool(Deflater.BEST_SPEED);
+        byte[] compressed = pool.deflate(new byte[1024 * 1024], 0, 1024 * 1024);
+        try {
+            pool.inflate(compressed, 0, compressed.length, new byte[16], 0, 16);
+            Assert.fail("Should reject output larger than expected size");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().indexOf("exceeds expected size") != -1);
+        }
+    }
+
+    @Test
+    public void testInvalidBlockSize() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        CompressingCodec<AddressBookProtosPOJO> compressing = new CompressingCodec<AddressBookProtosPOJO>(codec,
+                1024);
+
+        // block size 1 with 1M original size would need a task for each byte
+        byte[] bb = new byte[] { CompressingCodec.ALGORITHM_DEFLATE_BLOCKS, (byte) 0x80, (byte) 0x80, 0x40, 3, 1, 1,
+                0 };
+        try {
+            compressing.decode(bb);
+            Assert.fail("Should reject frame with tiny block size");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().indexOf("Invalid block size") != -1);
+        }
+
+        // valid block size, but far more blocks than payload bytes
+        bb = new byte[] { CompressingCodec.ALGORITHM_DEFLATE_BLOCKS, (byte) 0x80, (byte) 0x80, 0x40, 3,
+                (byte) 0x80, 0x20, 0 };
+        try {
+            compressing.decode(bb);
+            Assert.fail("Should reject frame with block count over payload size");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().indexOf("exceeds payload size") != -1);
+        }
+
+        try {
+            new CompressingCodec<AddressBookProtosPOJO>(codec, 1024, Deflater.BEST_SPEED, 16);
+            Assert.fail("Should reject block size less than min block size");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNotNull(e.getMessage());
+        }
+    }
+}
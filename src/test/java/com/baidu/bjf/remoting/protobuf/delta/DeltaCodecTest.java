@@ -0,0 +1,191 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.delta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Blob;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.DeltaCodec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.blob.FileTransferPOJO;
+import com.baidu.bjf.remoting.protobuf.bytebuffer.FramePOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.TypeDefEnum;
+
+/**
+ * Test {@link DeltaCodec}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class DeltaCodecTest {
+
+    static PersonPOJO createPerson(int id) {
+        PersonPOJO person = new PersonPOJO();
+        person.name = "xiemalin" + id;
+        person.id = id;
+        person.email = "xiemalin" + id + "@baidu.com";
+        person.bytesF = new byte[] { 1, 2, 3 };
+        return person;
+    }
+
+    static AddressBookProtosPOJO createBook(int count) {
+        AddressBookProtosPOJO book = new AddressBookProtosPOJO();
+        book.list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < count; i++) {
+            book.list.add(createPerson(i));
+        }
+        book.typeList = new ArrayList<TypeDefEnum>(Arrays.asList(TypeDefEnum.TEXT, TypeDefEnum.URL));
+        return book;
+    }
+
+    private static <T> T copy(Class<T> cls, T t) throws IOException {
+        Codec<T> codec = ProtobufProxy.create(cls);
+        return codec.decode(codec.encode(t));
+    }
+
+    @Test
+    public void testScalarFields() throws IOException {
+        DeltaCodec<PersonPOJO> delta = DeltaCodec.create(PersonPOJO.class);
+        PersonPOJO oldValue = createPerson(1);
+        PersonPOJO newValue = copy(PersonPOJO.class, oldValue);
+        Assert.assertEquals(0, delta.diff(oldValue, newValue).length);
+
+        newValue.id = 2;
+        newValue.email = null;
+        newValue.doubleF = 1.5D;
+        byte[] patch = delta.diff(oldValue, newValue);
+
+        PersonPOJO patched = delta.applyPatch(copy(PersonPOJO.class, oldValue), patch);
+        Assert.assertEquals(2, patched.id);
+        Assert.assertNull(patched.email);
+        Assert.assertEquals(1.5D, patched.doubleF);
+        Assert.assertEquals("xiemalin1", patched.name);
+        Assert.assertTrue(Arrays.equals(oldValue.bytesF, patched.bytesF));
+    }
+
+    @Test
+    public void testListFields() throws IOException {
+        DeltaCodec<AddressBookProtosPOJO> delta = DeltaCodec.create(AddressBookProtosPOJO.class);
+        AddressBookProtosPOJO oldValue = createBook(10);
+        AddressBookProtosPOJO newValue = copy(AddressBookProtosPOJO.class, oldValue);
+        newValue.list.get(3).email = "new@baidu.com";
+        newValue.list.remove(9);
+        newValue.typeList.add(TypeDefEnum.ID);
+
+        byte[] patch = delta.diff(oldValue, newValue);
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        Assert.assertTrue(patch.length < codec.size(newValue) / 5);
+
+        AddressBookProtosPOJO patched = delta.applyPatch(copy(AddressBookProtosPOJO.class, oldValue), patch);
+        Assert.assertTrue(Arrays.equals(codec.encode(newValue), codec.encode(patched)));
+    }
+
+    @Test
+    public void testNestedField() throws IOException {
+        DeltaCodec<com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO> delta = DeltaCodec
+                .create(com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO.class);
+        com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO oldValue =
+                new com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO();
+        oldValue.name = "book";
+        com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO newValue =
+                new com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO();
+        newValue.name = "book";
+        newValue.list = new com.baidu.bjf.remoting.protobuf.complex.PersonPOJO();
+        newValue.list.name = "xiemalin";
+        newValue.list.id = 1;
+
+        // nested message is set as a whole first
+        delta.applyPatch(oldValue, delta.diff(oldValue, newValue));
+        Assert.assertEquals("xiemalin", oldValue.list.name);
+        Assert.assertNotSame(newValue.list, oldValue.list);
+
+        newValue.list.id = 2;
+        delta.applyPatch(oldValue, delta.diff(oldValue, newValue));
+        Assert.assertEquals(2, oldValue.list.id);
+        Assert.assertEquals("xiemalin", oldValue.list.name);
+    }
+
+    @Test
+    public void testByteBufferField() throws IOException {
+        DeltaCodec<FramePOJO> delta = DeltaCodec.create(FramePOJO.class);
+        FramePOJO oldValue = new FramePOJO();
+        oldValue.sequence = 1;
+        oldValue.payload = ByteBuffer.wrap(new byte[] { 9, 1, 2, 3 }, 1, 3);
+        FramePOJO newValue = new FramePOJO();
+        newValue.sequence = 1;
+        newValue.payload = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        Assert.assertEquals(0, delta.diff(oldValue, newValue).length);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put(new byte[] { 4, 5, 6, 7 }).flip();
+        direct.get();
+        newValue.payload = direct;
+        byte[] patch = delta.diff(oldValue, newValue);
+        Assert.assertEquals(1, direct.position());
+
+        FramePOJO patched = delta.applyPatch(oldValue, patch);
+        Assert.assertEquals(1, patched.sequence);
+        Assert.assertEquals(ByteBuffer.wrap(new byte[] { 5, 6, 7 }), patched.payload);
+    }
+
+    @Test
+    public void testBlobField() throws IOException {
+        DeltaCodec<FileTransferPOJO> delta = DeltaCodec.create(FileTransferPOJO.class);
+        FileTransferPOJO oldValue = new FileTransferPOJO();
+        oldValue.name = "a.txt";
+        oldValue.content = Blob.valueOf(new byte[] { 1, 2, 3 });
+        FileTransferPOJO newValue = new FileTransferPOJO();
+        newValue.name = "a.txt";
+        newValue.content = oldValue.content;
+        Assert.assertEquals(0, delta.diff(oldValue, newValue).length);
+
+        newValue.content = Blob.valueOf(new byte[] { 4, 5, 6, 7 });
+        FileTransferPOJO patched = delta.applyPatch(oldValue, delta.diff(oldValue, newValue));
+        Assert.assertEquals("a.txt", patched.name);
+        Assert.assertTrue(Arrays.equals(new byte[] { 4, 5, 6, 7 }, patched.content.toByteArray()));
+    }
+
+    @Test
+    public void testMalformedListPatch() throws IOException {
+        DeltaCodec<AddressBookProtosPOJO> delta = DeltaCodec.create(AddressBookProtosPOJO.class);
+        byte tag = (byte) ((1 << 3) | DeltaCodec.OP_LIST);
+        byte[][] patches = new byte[][] {
+                // negative list size
+                { tag, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0 },
+                // huge list size without elements
+                { tag, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0 },
+                // element count larger than patch
+                { tag, 1, (byte) 0x80, (byte) 0x80, 0x04 } };
+        for (byte[] patch : patches) {
+            try {
+                delta.applyPatch(createBook(2), patch);
+                Assert.fail("Should reject malformed list patch");
+            } catch (IOException e) {
+                Assert.assertNotNull(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.delta;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.DeltaCodec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+
+/**
+ * Wire size test of delta patch compared with full snapshot over many versions
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class DeltaPressureTest {
+    int times = 1000;
+
+    @Test
+    public void testPatchSize() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        DeltaCodec<AddressBookProtosPOJO> delta = DeltaCodec.create(AddressBookProtosPOJO.class);
+
+        AddressBookProtosPOJO oldValue = DeltaCodecTest.createBook(100);
+        long snapshotSize = 0;
+        long patchSize = 0;
+        for (int i = 0; i < times; i++) {
+            // each version changes one person
+            AddressBookProtosPOJO newValue = codec.decode(codec.encode(oldValue));
+            newValue.list.get(i % 100).id = i + 100;
+            byte[] snapshot = codec.encode(newValue);
+            byte[] patch = delta.diff(oldValue, newValue);
+            snapshotSize += snapshot.length;
+            patchSize += patch.length;
+
+            AddressBookProtosPOJO patched = delta.applyPatch(codec.decode(codec.encode(oldValue)), patch);
+            Assert.assertTrue(Arrays.equals(snapshot, codec.encode(patched)));
+            oldValue = newValue;
+        }
+        Assert.assertTrue(patchSize / times < snapshotSize / times);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.encodedmessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.EncodedMessage;
+import com.baidu.bjf.remoting.protobuf.ProtobufIDLGenerator;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complex.AddressBookProtos.AddressBook;
+import com.baidu.bjf.remoting.protobuf.complex.AddressBookProtos.Person;
+import com.baidu.bjf.remoting.protobuf.complex.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos;
+
+/**
+ * Test {@link EncodedMessage} field is spliced without encode again
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class EncodedMessageTest {
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        Person person = Person.newBuilder().setName("xiemalin").setId(100).setEmail("xiemalin@baidu.com").build();
+
+        EnvelopePOJO envelope = new EnvelopePOJO();
+        envelope.person = new EncodedMessage<PersonPOJO>(person.toByteArray());
+        envelope.name = "envelope";
+
+        Codec<EnvelopePOJO> codec = ProtobufProxy.create(EnvelopePOJO.class);
+        byte[] bb = codec.encode(envelope);
+        Assert.assertEquals(codec.size(envelope), bb.length);
+
+        AddressBook book = AddressBook.parseFrom(bb);
+        Assert.assertEquals(person, book.getPerson());
+
+        EnvelopePOJO decode = codec.decode(bb);
+        Assert.assertTrue(Arrays.equals(person.toByteArray(), decode.person.getBytes()));
+        Assert.assertEquals("xiemalin", decode.person.decode(PersonPOJO.class).name);
+        Assert.assertEquals("envelope", decode.name);
+    }
+
+    @Test
+    public void testList() throws IOException {
+        com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO person = 
+                new com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO();
+        person.name = "xiemalin";
+        person.id = 100;
+        Codec<com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO> personCodec = 
+                ProtobufProxy.create(com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO.class);
+
+        ListEnvelopePOJO envelope = new ListEnvelopePOJO();
+        envelope.list = new ArrayList<EncodedMessage<com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO>>();
+        envelope.list.add(EncodedMessage.encode(personCodec, person));
+        envelope.list.add(EncodedMessage.encode(personCodec, person));
+
+        Codec<ListEnvelopePOJO> codec = ProtobufProxy.create(ListEnvelopePOJO.class);
+        byte[] bb = codec.encode(envelope);
+
+        AddressBookProtos.AddressBook book = AddressBookProtos.AddressBook.parseFrom(bb);
+        Assert.assertEquals(2, book.getPersonCount());
+        Assert.assertEquals("xiemalin", book.getPerson(1).getName());
+
+        ListEnvelopePOJO decode = codec.decode(bb);
+        Assert.assertEquals(2, decode.list.size());
+        Assert.assertEquals(100, decode.list.get(1).decode(personCodec).id);
+    }
+
+    @Test
+    public void testIDL() {
+        String idl = ProtobufIDLGenerator.getIDL(EnvelopePOJO.class);
+        Assert.assertTrue(idl.contains("optional PersonPOJO person=1;"));
+        Assert.assertTrue(idl.contains("message PersonPOJO"));
+    }
+}
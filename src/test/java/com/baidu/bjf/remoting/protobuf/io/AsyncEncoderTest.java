@@ -0,0 +1,213 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Test {@link AsyncEncoder}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class AsyncEncoderTest {
+
+    private PersonPOJO createPerson(int id) {
+        PersonPOJO person = new PersonPOJO();
+        person.name = "name" + id;
+        person.id = id;
+        return person;
+    }
+
+    /**
+     * codec which fails to encode person of id 1
+     */
+    private Codec<PersonPOJO> createFailingCodec(final boolean error) {
+        final Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        return new Codec<PersonPOJO>() {
+            public byte[] encode(PersonPOJO t) throws IOException {
+                return codec.encode(t);
+            }
+
+            public PersonPOJO decode(byte[] bytes) throws IOException {
+                return codec.decode(bytes);
+            }
+
+            public int size(PersonPOJO t) throws IOException {
+                if (t.id == 1) {
+                    if (error) {
+                        throw new Error("encode error");
+                    }
+                    throw new IOException("encode failed");
+                }
+                return codec.size(t);
+            }
+
+            public void writeTo(PersonPOJO t, CodedOutputStream out) throws IOException {
+                codec.writeTo(t, out);
+            }
+
+            public PersonPOJO readFrom(CodedInputStream intput) throws IOException {
+                return codec.readFrom(intput);
+            }
+        };
+    }
+
+    @Test
+    public void testOrderedOutput() throws IOException {
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        AsyncEncoder<PersonPOJO> encoder = new AsyncEncoder<PersonPOJO>(codec, AsyncEncoder.toStream(baos, true), 16,
+                4, AsyncEncoder.Backpressure.BLOCK);
+        List<PersonPOJO> list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < 1000; i++) {
+            PersonPOJO person = createPerson(i);
+            list.add(person);
+            Assert.assertTrue(encoder.submit(person));
+        }
+        encoder.close();
+
+        Assert.assertEquals(0, encoder.getQueueDepth());
+        Assert.assertEquals(1000, encoder.getEncodedCount());
+        Assert.assertTrue(encoder.getAverageLatency(TimeUnit.NANOSECONDS) > 0);
+        byte[] expected = ((AbstractCodec<PersonPOJO>) codec).encodeAll(list);
+        Assert.assertTrue(Arrays.equals(expected, baos.toByteArray()));
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        final CountDownLatch latch = new CountDownLatch(1);
+        AsyncEncoder.Sink sink = new AsyncEncoder.Sink() {
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+        };
+
+        AsyncEncoder<PersonPOJO> encoder = new AsyncEncoder<PersonPOJO>(codec, sink, 4, 1,
+                AsyncEncoder.Backpressure.DROP);
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (encoder.submit(createPerson(i))) {
+                accepted++;
+            }
+        }
+        Assert.assertEquals(4, accepted);
+        Assert.assertEquals(6, encoder.getDroppedCount());
+        Assert.assertEquals(4, encoder.getQueueDepth());
+        latch.countDown();
+        encoder.close();
+        Assert.assertEquals(4, encoder.getEncodedCount());
+
+        final CountDownLatch failLatch = new CountDownLatch(1);
+        encoder = new AsyncEncoder<PersonPOJO>(codec, new AsyncEncoder.Sink() {
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                try {
+                    failLatch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+        }, 2, 1, AsyncEncoder.Backpressure.FAIL);
+        encoder.submit(createPerson(0));
+        encoder.submit(createPerson(1));
+        try {
+            encoder.submit(createPerson(2));
+            Assert.fail("Should reject on full ring buffer");
+        } catch (RejectedExecutionException e) {
+            Assert.assertNotNull(e.getMessage());
+        } finally {
+            failLatch.countDown();
+            encoder.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testSinkFailure() throws IOException {
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        AsyncEncoder<PersonPOJO> encoder = new AsyncEncoder<PersonPOJO>(codec, new AsyncEncoder.Sink() {
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                throw new IOException("sink failed");
+            }
+        }, 4, 2, AsyncEncoder.Backpressure.BLOCK);
+        encoder.submit(createPerson(0));
+        encoder.close();
+    }
+
+    @Test
+    public void testEncodeFailure() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        AsyncEncoder<PersonPOJO> encoder = new AsyncEncoder<PersonPOJO>(createFailingCodec(false),
+                AsyncEncoder.toStream(baos, true), 4, 2, AsyncEncoder.Backpressure.BLOCK);
+        for (int i = 0; i < 3; i++) {
+            encoder.submit(createPerson(i));
+        }
+        try {
+            encoder.flush();
+            Assert.fail("Should report encode failure");
+        } catch (IOException e) {
+            Assert.assertEquals("encode failed", e.getCause().getMessage());
+        }
+        Assert.assertEquals(1, encoder.getFailedCount());
+        Assert.assertEquals(2, encoder.getEncodedCount());
+
+        // failure is reported once, pipeline keeps working
+        encoder.submit(createPerson(3));
+        encoder.close();
+        Assert.assertEquals(3, encoder.getEncodedCount());
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        List<PersonPOJO> decoded = ((AbstractCodec<PersonPOJO>) codec).decodeAll(baos.toByteArray());
+        Assert.assertEquals(3, decoded.size());
+        Assert.assertEquals(3, decoded.get(2).id);
+    }
+
+    @Test(timeout = 10000)
+    public void testEncodeError() throws IOException {
+        AsyncEncoder<PersonPOJO> encoder = new AsyncEncoder<PersonPOJO>(createFailingCodec(true),
+                AsyncEncoder.toStream(new ByteArrayOutputStream(), true), 4, 1, AsyncEncoder.Backpressure.BLOCK);
+        encoder.submit(createPerson(0));
+        encoder.submit(createPerson(1));
+        try {
+            encoder.close();
+            Assert.fail("Should report encode error");
+        } catch (IOException e) {
+            Assert.assertEquals("encode error", e.getCause().getCause().getMessage());
+        }
+        Assert.assertEquals(1, encoder.getFailedCount());
+    }
+}
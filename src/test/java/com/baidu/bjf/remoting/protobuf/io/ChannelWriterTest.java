@@ -0,0 +1,193 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UninitializedMessageException;
+
+/**
+ * Test {@link ChannelWriter}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ChannelWriterTest {
+
+    private BlobPOJO createBlob(int dataSize, int textSize) {
+        BlobPOJO blob = new BlobPOJO();
+        blob.id = 100;
+        blob.data = new byte[dataSize];
+        for (int i = 0; i < dataSize; i++) {
+            blob.data[i] = (byte) i;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < textSize; i++) {
+            sb.append(i % 2 == 0 ? 'a' : '中');
+        }
+        blob.text = sb.toString();
+        blob.name = "blob";
+        return blob;
+    }
+
+    private void assertBlob(BlobPOJO expected, BlobPOJO actual) {
+        Assert.assertEquals(expected.id, actual.id);
+        Assert.assertTrue(Arrays.equals(expected.data, actual.data));
+        Assert.assertEquals(expected.text, actual.text);
+        Assert.assertEquals(expected.name, actual.name);
+    }
+
+    @Test
+    public void testGatheringWrite() throws IOException {
+        Codec<BlobPOJO> codec = ProtobufProxy.create(BlobPOJO.class);
+        ChannelWriter<BlobPOJO> writer = new ChannelWriter<BlobPOJO>(BlobPOJO.class, 1024);
+        BlobPOJO blob = createBlob(100 * 1024, 2048);
+
+        CapturingChannel channel = new CapturingChannel();
+        long written = writer.write(blob, channel);
+        byte[] bytes = channel.baos.toByteArray();
+        Assert.assertEquals(bytes.length, written);
+        assertBlob(blob, codec.decode(bytes));
+
+        // large byte array is passed without copy
+        boolean found = false;
+        for (ByteBuffer buffer : channel.buffers) {
+            found |= buffer.array() == blob.data;
+        }
+        Assert.assertTrue(found);
+        // object is not changed
+        Assert.assertEquals(100 * 1024, blob.data.length);
+    }
+
+    @Test
+    public void testSmallAndDelimited() throws IOException {
+        Codec<BlobPOJO> codec = ProtobufProxy.create(BlobPOJO.class);
+        ChannelWriter<BlobPOJO> writer = new ChannelWriter<BlobPOJO>(BlobPOJO.class, 1024);
+        BlobPOJO small = createBlob(10, 10);
+        BlobPOJO large = createBlob(5000, 5000);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer.writeDelimited(small, Channels.newChannel(baos));
+        writer.writeDelimited(large, Channels.newChannel(baos));
+
+        // small object is encoded to one buffer
+        ByteBuffer[] buffers = writer.toBuffers(small);
+        Assert.assertEquals(1, buffers.length);
+        byte[] smallBytes = new byte[buffers[0].remaining()];
+        buffers[0].get(smallBytes);
+        Assert.assertTrue(Arrays.equals(codec.encode(small), smallBytes));
+        Assert.assertEquals(5, writer.toBuffers(large).length);
+
+        CodedInputStream input = CodedInputStream.newInstance(baos.toByteArray());
+        assertBlob(small, codec.decode(input.readRawBytes(input.readRawVarint32())));
+        assertBlob(large, codec.decode(input.readRawBytes(input.readRawVarint32())));
+        Assert.assertTrue(input.isAtEnd());
+    }
+
+    @Test
+    public void testRequiredLargeFieldWrittenOnce() throws IOException {
+        ChannelWriter<BlobPOJO> writer = new ChannelWriter<BlobPOJO>(BlobPOJO.class, 1024);
+        BlobPOJO blob = createBlob(10, 5000);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer.write(blob, Channels.newChannel(baos));
+        CodedInputStream input = CodedInputStream.newInstance(baos.toByteArray());
+        int textCount = 0;
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag >>> 3 == 3) {
+                textCount++;
+            }
+            input.skipField(tag);
+        }
+        Assert.assertEquals(1, textCount);
+    }
+
+    @Test(expected = UninitializedMessageException.class)
+    public void testMissingRequiredField() throws IOException {
+        ChannelWriter<BlobPOJO> writer = new ChannelWriter<BlobPOJO>(BlobPOJO.class, 1024);
+        BlobPOJO blob = createBlob(4096, 10);
+        blob.text = null;
+        writer.toBuffers(blob);
+    }
+
+    /**
+     * gathering channel records passed buffers
+     */
+    private static class CapturingChannel implements GatheringByteChannel {
+
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                buffers.add(srcs[i]);
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            int n = src.remaining();
+            byte[] bytes = new byte[n];
+            src.get(bytes);
+            baos.write(bytes);
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() throws IOException {
+        }
+    }
+
+    @Test(expected = IllegalBlockingModeException.class)
+    public void testNonBlockingChannel() throws IOException {
+        ChannelWriter<BlobPOJO> writer = new ChannelWriter<BlobPOJO>(BlobPOJO.class, 1024);
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.sink().configureBlocking(false);
+            writer.write(createBlob(4096, 10), pipe.sink());
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Test {@link ChunkedOutput} and {@link CompositeInputStream}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ChunkedOutputTest {
+
+    private AddressBookProtosPOJO createAddressBook(int count) {
+        AddressBookProtosPOJO book = new AddressBookProtosPOJO();
+        book.list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < count; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "name" + i;
+            person.id = i;
+            person.bytesF = new byte[i % 50];
+            book.list.add(person);
+        }
+        return book;
+    }
+
+    @Test
+    public void testEncodeAndDecode() throws IOException {
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        AddressBookProtosPOJO book = createAddressBook(2000);
+        byte[] expected = codec.encode(book);
+
+        ChunkPool pool = new ChunkPool(1000, 1000);
+        ChunkedOutput out = ChunkedOutput.encode(codec, book, pool);
+        Assert.assertEquals(expected.length, out.size());
+        ByteBuffer[] buffers = out.toByteBuffers();
+        Assert.assertEquals((expected.length + 999) / 1000, buffers.length);
+        Assert.assertTrue(Arrays.equals(expected, out.toByteArray()));
+
+        AddressBookProtosPOJO decode = CompositeInputStream.decode(codec, buffers);
+        Assert.assertEquals(2000, decode.list.size());
+        Assert.assertEquals("name1999", decode.list.get(1999).name);
+        Assert.assertEquals(49, decode.list.get(1999).bytesF.length);
+
+        decode = codec.readFrom(CodedInputStream.newInstance(out.toInputStream()));
+        Assert.assertEquals(2000, decode.list.size());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        out.writeTo(baos);
+        out.writeTo(Channels.newChannel(baos));
+        byte[] written = baos.toByteArray();
+        Assert.assertTrue(Arrays.equals(expected, Arrays.copyOfRange(written, 0, expected.length)));
+        Assert.assertTrue(Arrays.equals(expected, Arrays.copyOfRange(written, expected.length, written.length)));
+
+        out.release();
+        Assert.assertEquals(0, out.size());
+        Assert.assertEquals(buffers.length, pool.getPooledCount());
+
+        // chunks are reused
+        out = ChunkedOutput.encode(codec, book, pool);
+        Assert.assertEquals(0, pool.getPooledCount());
+        out.release();
+    }
+
+    @Test(expected = IllegalBlockingModeException.class)
+    public void testNonBlockingChannel() throws IOException {
+        ChunkedOutput output = new ChunkedOutput(new ChunkPool(1024, 4));
+        output.write(new byte[4096]);
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.sink().configureBlocking(false);
+            output.writeTo(pipe.sink());
+        } finally {
+            output.release();
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.AbstractCodec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+
+/**
+ * Test {@link FrameDecoder}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class FrameDecoderTest {
+
+    private byte[] encodeFrames(AbstractCodec<PersonPOJO> codec, int count) throws IOException {
+        List<PersonPOJO> list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < count; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "name" + i;
+            person.id = i;
+            person.bytesF = new byte[i * 10];
+            list.add(person);
+        }
+        return codec.encodeAll(list);
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        AbstractCodec<PersonPOJO> codec = (AbstractCodec<PersonPOJO>) ProtobufProxy.create(PersonPOJO.class);
+        byte[] bytes = encodeFrames(codec, 50);
+
+        int[] chunkSizes = { 1, 3, 7, 64, 1000, bytes.length };
+        for (int chunkSize : chunkSizes) {
+            for (int direct = 0; direct < 2; direct++) {
+                FrameDecoder<PersonPOJO> decoder = new FrameDecoder<PersonPOJO>(codec);
+                List<PersonPOJO> out = new ArrayList<PersonPOJO>();
+                for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+                    int length = Math.min(chunkSize, bytes.length - offset);
+                    ByteBuffer chunk = direct == 0 ? ByteBuffer.wrap(bytes, offset, length) : ByteBuffer
+                            .allocateDirect(length);
+                    if (direct == 1) {
+                        chunk.put(bytes, offset, length);
+                        chunk.flip();
+                    }
+                    decoder.decode(chunk, out);
+                    Assert.assertFalse(chunk.hasRemaining());
+                }
+                Assert.assertFalse(decoder.hasPartialFrame());
+                Assert.assertEquals(50, out.size());
+                for (int i = 0; i < 50; i++) {
+                    Assert.assertEquals(i, out.get(i).id);
+                    Assert.assertEquals(i * 10, out.get(i).bytesF.length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPartialFrame() throws IOException {
+        AbstractCodec<PersonPOJO> codec = (AbstractCodec<PersonPOJO>) ProtobufProxy.create(PersonPOJO.class);
+        byte[] bytes = encodeFrames(codec, 2);
+        FrameDecoder<PersonPOJO> decoder = new FrameDecoder<PersonPOJO>(codec);
+        List<PersonPOJO> out = new ArrayList<PersonPOJO>();
+        Assert.assertEquals(1, decoder.decode(ByteBuffer.wrap(bytes, 0, bytes.length - 1), out));
+        Assert.assertTrue(decoder.hasPartialFrame());
+        decoder.reset();
+        Assert.assertFalse(decoder.hasPartialFrame());
+    }
+
+    @Test(expected = IOException.class)
+    public void testFrameTooLarge() throws IOException {
+        AbstractCodec<PersonPOJO> codec = (AbstractCodec<PersonPOJO>) ProtobufProxy.create(PersonPOJO.class);
+        byte[] bytes = encodeFrames(codec, 10);
+        FrameDecoder<PersonPOJO> decoder = new FrameDecoder<PersonPOJO>(codec, 32);
+        decoder.decode(ByteBuffer.wrap(bytes), new ArrayList<PersonPOJO>());
+    }
+}
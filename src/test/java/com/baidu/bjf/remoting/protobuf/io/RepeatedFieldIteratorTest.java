@@ -0,0 +1,93 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.TypeDefEnum;
+
+/**
+ * Test {@link RepeatedFieldIterator}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class RepeatedFieldIteratorTest {
+
+    private byte[] encodeAddressBook(int count) throws IOException {
+        AddressBookProtosPOJO book = new AddressBookProtosPOJO();
+        book.list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < count; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "name" + i;
+            person.id = i;
+            book.list.add(person);
+        }
+        book.typeList = Arrays.asList(TypeDefEnum.values());
+        return ProtobufProxy.create(AddressBookProtosPOJO.class).encode(book);
+    }
+
+    @Test
+    public void testIterate() throws IOException {
+        byte[] bytes = encodeAddressBook(10000);
+        RepeatedFieldIterator<PersonPOJO> it = RepeatedFieldIterator.create(new ByteArrayInputStream(bytes),
+                AddressBookProtosPOJO.class, "list");
+        int count = 0;
+        while (it.hasNext()) {
+            PersonPOJO person = it.next();
+            Assert.assertEquals(count, person.id);
+            Assert.assertEquals("name" + count, person.name);
+            count++;
+        }
+        it.close();
+        Assert.assertEquals(10000, count);
+        Assert.assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testByteBuffer() throws IOException {
+        byte[] bytes = encodeAddressBook(3);
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+        RepeatedFieldIterator<PersonPOJO> it = new RepeatedFieldIterator<PersonPOJO>(ByteBuffer.wrap(bytes), 1,
+                codec);
+        Assert.assertEquals(0, it.next().id);
+        Assert.assertEquals(1, it.next().id);
+        Assert.assertEquals(2, it.next().id);
+        Assert.assertFalse(it.hasNext());
+
+        // no matched field
+        it = new RepeatedFieldIterator<PersonPOJO>(ByteBuffer.wrap(bytes), 5, codec);
+        Assert.assertFalse(it.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidField() {
+        RepeatedFieldIterator.create(new ByteArrayInputStream(new byte[0]), AddressBookProtosPOJO.class,
+                "typeList");
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.originalbytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.AddressBook;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.Person;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.TypeDef;
+
+/**
+ * Test original bytes are reused to encode unmodified objects. Fields unknown to the POJO classes are
+ * only kept if original bytes are reused.
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class OriginalBytesTest {
+
+    private AddressBook createAddressBook() {
+        Person p1 = Person.newBuilder().setName("xiemalin").setId(100).setEmail("xiemalin@baidu.com").build();
+        Person p2 = Person.newBuilder().setName("baidu").setId(200).setEmail("baidu@baidu.com").build();
+        return AddressBook.newBuilder().addPerson(p1).addPerson(p2).addTypeDef(TypeDef.URL).build();
+    }
+
+    @Test
+    public void testUnmodified() throws IOException {
+        byte[] bb = createAddressBook().toByteArray();
+        Codec<TrackedAddressBookPOJO> codec = ProtobufProxy.create(TrackedAddressBookPOJO.class);
+
+        TrackedAddressBookPOJO decode = codec.decode(bb);
+        Assert.assertNotSame(bb, decode.getOriginalBytes());
+        Assert.assertTrue(Arrays.equals(bb, decode.getOriginalBytes()));
+        Assert.assertNotNull(decode.getList().get(0).getOriginalBytes());
+
+        byte[] encoded = codec.encode(decode);
+        Assert.assertNotSame(bb, encoded);
+        Assert.assertTrue(Arrays.equals(bb, encoded));
+        Assert.assertEquals(bb.length, codec.size(decode));
+    }
+
+    @Test
+    public void testNestedModified() throws IOException {
+        AddressBook book = createAddressBook();
+        Codec<TrackedAddressBookPOJO> codec = ProtobufProxy.create(TrackedAddressBookPOJO.class);
+
+        TrackedAddressBookPOJO decode = codec.decode(book.toByteArray());
+        decode.getList().get(1).setId(300);
+
+        AddressBook parsed = AddressBook.parseFrom(codec.encode(decode));
+        // unmodified person is copied from original bytes
+        Assert.assertEquals(book.getPerson(0), parsed.getPerson(0));
+        // modified person is serialized again
+        Assert.assertEquals(300, parsed.getPerson(1).getId());
+        Assert.assertFalse(parsed.getPerson(1).hasEmail());
+        Assert.assertEquals(0, parsed.getTypeDefCount());
+    }
+
+    @Test
+    public void testModified() throws IOException {
+        Codec<TrackedAddressBookPOJO> codec = ProtobufProxy.create(TrackedAddressBookPOJO.class);
+
+        TrackedAddressBookPOJO decode = codec.decode(createAddressBook().toByteArray());
+        decode.setList(new ArrayList<TrackedPersonPOJO>(decode.getList().subList(0, 1)));
+
+        AddressBook parsed = AddressBook.parseFrom(codec.encode(decode));
+        Assert.assertEquals(1, parsed.getPersonCount());
+        Assert.assertEquals("xiemalin@baidu.com", parsed.getPerson(0).getEmail());
+    }
+
+    @Test
+    public void testReuseInputArray() throws IOException {
+        byte[] bb = createAddressBook().toByteArray();
+        byte[] expected = bb.clone();
+        Codec<TrackedAddressBookPOJO> codec = ProtobufProxy.create(TrackedAddressBookPOJO.class);
+
+        TrackedAddressBookPOJO decode = codec.decode(bb);
+        // receive buffer is reused by caller after decode
+        Arrays.fill(bb, (byte) 0);
+
+        Assert.assertTrue(Arrays.equals(expected, codec.encode(decode)));
+        Assert.assertTrue(Arrays.equals(expected, decode.getOriginalBytes()));
+    }
+}
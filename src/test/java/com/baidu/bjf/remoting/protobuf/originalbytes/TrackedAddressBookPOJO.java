@@ -0,0 +1,53 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.originalbytes;
+
+import java.util.List;
+
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.OriginalBytesAware;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+
+/**
+ * Address book POJO which remembers original bytes
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class TrackedAddressBookPOJO implements OriginalBytesAware {
+
+    @Protobuf(fieldType = FieldType.OBJECT, order = 1, required = false)
+    private List<TrackedPersonPOJO> list;
+
+    private byte[] originalBytes;
+
+    public List<TrackedPersonPOJO> getList() {
+        return list;
+    }
+
+    public void setList(List<TrackedPersonPOJO> list) {
+        this.list = list;
+        originalBytes = null;
+    }
+
+    public byte[] getOriginalBytes() {
+        return originalBytes;
+    }
+
+    public void setOriginalBytes(byte[] originalBytes) {
+        this.originalBytes = originalBytes;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.originalbytes;
+
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.OriginalBytesAware;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+
+/**
+ * Person POJO which remembers original bytes
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class TrackedPersonPOJO implements OriginalBytesAware {
+
+    @Protobuf(fieldType = FieldType.STRING, order = 1, required = true)
+    private String name;
+
+    @Protobuf(fieldType = FieldType.INT32, order = 2, required = true)
+    private int id;
+
+    private byte[] originalBytes;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+        originalBytes = null;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+        originalBytes = null;
+    }
+
+    public byte[] getOriginalBytes() {
+        return originalBytes;
+    }
+
+    public void setOriginalBytes(byte[] originalBytes) {
+        this.originalBytes = originalBytes;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.parallel;
+
+import java.util.List;
+
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.TypeDefEnum;
+
+/**
+ * Address book POJO with parallel repeated field, same wire format as 
+ * {@link com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ParallelAddressBookPOJO {
+
+    @Protobuf(fieldType = FieldType.OBJECT, order = 1, required = false, parallel = true)
+    public List<PersonPOJO> list;
+
+    @Protobuf(fieldType = FieldType.ENUM, order = 2, required = false)
+    public List<TypeDefEnum> typeList;
+}
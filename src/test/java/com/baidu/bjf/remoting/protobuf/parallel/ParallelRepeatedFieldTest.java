@@ -0,0 +1,228 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.parallel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.AddressBook;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.TypeDefEnum;
+import com.baidu.bjf.remoting.protobuf.utils.ParallelUtils;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Test parallel encode and decode of large repeated field
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class ParallelRepeatedFieldTest {
+
+    private List<PersonPOJO> createPersons(int count) {
+        List<PersonPOJO> list = new ArrayList<PersonPOJO>(count);
+        for (int i = 0; i < count; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "name" + i;
+            person.id = i;
+            person.email = "xiemalin" + i + "@baidu.com";
+            person.bytesF = new byte[] { (byte) i, 2 };
+            list.add(person);
+        }
+        return list;
+    }
+
+    private byte[] encodeSerial(List<PersonPOJO> persons) throws IOException {
+        AddressBookProtosPOJO pojo = new AddressBookProtosPOJO();
+        pojo.list = persons;
+        pojo.typeList = new ArrayList<TypeDefEnum>();
+        pojo.typeList.add(TypeDefEnum.URL);
+        return ProtobufProxy.create(AddressBookProtosPOJO.class).encode(pojo);
+    }
+
+    private ParallelAddressBookPOJO createParallel(List<PersonPOJO> persons) {
+        ParallelAddressBookPOJO pojo = new ParallelAddressBookPOJO();
+        pojo.list = persons;
+        pojo.typeList = new ArrayList<TypeDefEnum>();
+        pojo.typeList.add(TypeDefEnum.URL);
+        return pojo;
+    }
+
+    @Test
+    public void testParallelEncode() throws IOException {
+        List<PersonPOJO> persons = createPersons(10000);
+        Codec<ParallelAddressBookPOJO> codec = ProtobufProxy.create(ParallelAddressBookPOJO.class);
+
+        ParallelAddressBookPOJO pojo = createParallel(persons);
+        byte[] bb = codec.encode(pojo);
+        Assert.assertEquals(codec.size(pojo), bb.length);
+        Assert.assertTrue(Arrays.equals(encodeSerial(persons), bb));
+
+        AddressBook book = AddressBook.parseFrom(bb);
+        Assert.assertEquals(10000, book.getPersonCount());
+        Assert.assertEquals("name9999", book.getPerson(9999).getName());
+    }
+
+    @Test
+    public void testParallelWriteTo() throws IOException {
+        List<PersonPOJO> persons = createPersons(10000);
+        Codec<ParallelAddressBookPOJO> codec = ProtobufProxy.create(ParallelAddressBookPOJO.class);
+
+        ParallelAddressBookPOJO pojo = createParallel(persons);
+        byte[] bb = new byte[codec.size(pojo)];
+        CodedOutputStream output = CodedOutputStream.newInstance(bb);
+        codec.writeTo(pojo, output);
+        output.checkNoSpaceLeft();
+        Assert.assertTrue(Arrays.equals(encodeSerial(persons), bb));
+
+        // sizes of changed list are computed again
+        persons.remove(0);
+        Assert.assertTrue(Arrays.equals(encodeSerial(persons), codec.encode(pojo)));
+
+        // element changed between size and writeTo is written with its new size
+        codec.size(pojo);
+        persons.get(0).name = "renamed person with a much longer name";
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        output = CodedOutputStream.newInstance(baos);
+        codec.writeTo(pojo, output);
+        output.flush();
+        Assert.assertTrue(Arrays.equals(encodeSerial(persons), baos.toByteArray()));
+    }
+
+    @Test
+    public void testEncodeBelowThreshold() throws IOException {
+        List<PersonPOJO> persons = createPersons(3);
+        Codec<ParallelAddressBookPOJO> codec = ProtobufProxy.create(ParallelAddressBookPOJO.class);
+        Assert.assertTrue(Arrays.equals(encodeSerial(persons), codec.encode(createParallel(persons))));
+    }
+
+    @Test
+    public void testParallelDecode() throws IOException {
+        List<PersonPOJO> persons = createPersons(10000);
+        byte[] bb = encodeSerial(persons);
+
+        Codec<ParallelAddressBookPOJO> codec = ProtobufProxy.create(ParallelAddressBookPOJO.class);
+        ParallelAddressBookPOJO decoded = codec.decode(bb);
+        Assert.assertEquals(10000, decoded.list.size());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(persons.get(i).name, decoded.list.get(i).name);
+            Assert.assertEquals(persons.get(i).id, decoded.list.get(i).id);
+            Assert.assertTrue(Arrays.equals(persons.get(i).bytesF, decoded.list.get(i).bytesF));
+        }
+        Assert.assertEquals(1, decoded.typeList.size());
+        Assert.assertEquals(TypeDefEnum.URL, decoded.typeList.get(0));
+    }
+
+    @Test
+    public void testParallelDecodeInterleaved() throws IOException {
+        List<PersonPOJO> persons = createPersons(3000);
+        byte[] first = encodeSerial(persons.subList(0, 2000));
+        byte[] second = encodeSerial(persons.subList(2000, 3000));
+        // concatenated messages are merged, repeated elements are split by the enum field
+        byte[] bb = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bb, 0, first.length);
+        System.arraycopy(second, 0, bb, first.length, second.length);
+
+        Codec<ParallelAddressBookPOJO> codec = ProtobufProxy.create(ParallelAddressBookPOJO.class);
+        ParallelAddressBookPOJO decoded = codec.decode(bb);
+        Assert.assertEquals(3000, decoded.list.size());
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertEquals(i, decoded.list.get(i).id);
+        }
+        Assert.assertEquals(2, decoded.typeList.size());
+    }
+
+    @Test
+    public void testParallelEncodeNested() throws IOException {
+        // codecs of element and nested message are not created before, they are created while encoding in parallel
+        NestedTeamPOJO team = new NestedTeamPOJO();
+        team.members = new ArrayList<MemberPOJO>();
+        for (int i = 0; i < 5000; i++) {
+            MemberPOJO member = new MemberPOJO();
+            member.name = "member" + i;
+            member.contact = new ContactPOJO();
+            member.contact.email = "xiemalin" + i + "@baidu.com";
+            member.contact.phone = (long) i;
+            team.members.add(member);
+        }
+
+        Codec<NestedTeamPOJO> codec = ProtobufProxy.create(NestedTeamPOJO.class);
+        byte[] bb = codec.encode(team);
+        Assert.assertEquals(codec.size(team), bb.length);
+
+        int threshold = ParallelUtils.getThreshold();
+        ParallelUtils.setThreshold(Integer.MAX_VALUE);
+        try {
+            Assert.assertTrue(Arrays.equals(codec.encode(team), bb));
+            NestedTeamPOJO decoded = codec.decode(bb);
+            Assert.assertEquals(5000, decoded.members.size());
+            Assert.assertEquals("member4999", decoded.members.get(4999).name);
+            Assert.assertEquals("xiemalin4999@baidu.com", decoded.members.get(4999).contact.email);
+            Assert.assertEquals(4999L, decoded.members.get(4999).contact.phone.longValue());
+        } finally {
+            ParallelUtils.setThreshold(threshold);
+        }
+    }
+
+    @Test
+    public void testParallelDecodeNested() throws IOException {
+        // encoded by hand, so codecs of element and nested message are created while decoding in parallel
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(baos);
+        for (int i = 0; i < 5000; i++) {
+            ByteArrayOutputStream profile = new ByteArrayOutputStream();
+            CodedOutputStream profileOutput = CodedOutputStream.newInstance(profile);
+            profileOutput.writeString(1, "nick" + i);
+            profileOutput.writeInt32(2, i % 100);
+            profileOutput.flush();
+
+            ByteArrayOutputStream account = new ByteArrayOutputStream();
+            CodedOutputStream accountOutput = CodedOutputStream.newInstance(account);
+            accountOutput.writeInt64(1, i);
+            accountOutput.writeBytes(2, ByteString.copyFrom(profile.toByteArray()));
+            accountOutput.flush();
+
+            output.writeBytes(1, ByteString.copyFrom(account.toByteArray()));
+        }
+        output.flush();
+
+        Codec<NestedAccountsPOJO> codec = ProtobufProxy.create(NestedAccountsPOJO.class);
+        NestedAccountsPOJO decoded = codec.decode(baos.toByteArray());
+        Assert.assertEquals(5000, decoded.accounts.size());
+        for (int i = 0; i < 5000; i++) {
+            AccountPOJO account = decoded.accounts.get(i);
+            Assert.assertEquals(i, account.id.longValue());
+            Assert.assertEquals("nick" + i, account.profile.nickname);
+            Assert.assertEquals(i % 100, account.profile.level.intValue());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelField() {
+        ProtobufProxy.create(InvalidParallelPOJO.class);
+    }
+}
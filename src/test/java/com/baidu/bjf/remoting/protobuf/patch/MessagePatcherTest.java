@@ -0,0 +1,167 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.patch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Blob;
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.MessagePatcher;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.blob.FileTransferPOJO;
+import com.baidu.bjf.remoting.protobuf.bytebuffer.FramePOJO;
+import com.baidu.bjf.remoting.protobuf.complex.AddressBookProtos.Person;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.TypeDefEnum;
+
+/**
+ * Test {@link MessagePatcher}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class MessagePatcherTest {
+
+    private PersonPOJO createPerson(int id) {
+        PersonPOJO person = new PersonPOJO();
+        person.name = "xiemalin" + id;
+        person.id = id;
+        return person;
+    }
+
+    private byte[] encodeBook(int count) throws IOException {
+        AddressBookProtosPOJO book = new AddressBookProtosPOJO();
+        book.list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < count; i++) {
+            book.list.add(createPerson(i));
+        }
+        book.typeList = Arrays.asList(TypeDefEnum.TEXT);
+        return ProtobufProxy.create(AddressBookProtosPOJO.class).encode(book);
+    }
+
+    @Test
+    public void testAppendElements() throws IOException {
+        MessagePatcher<AddressBookProtosPOJO> patcher = new MessagePatcher<AddressBookProtosPOJO>(
+                AddressBookProtosPOJO.class);
+        byte[] bb = patcher.appendElements(encodeBook(3), "list", Arrays.asList(createPerson(3), createPerson(4)));
+        bb = patcher.appendElements(bb, "typeList", Arrays.asList(TypeDefEnum.URL));
+
+        Codec<AddressBookProtosPOJO> codec = ProtobufProxy.create(AddressBookProtosPOJO.class);
+        AddressBookProtosPOJO book = codec.decode(bb);
+        Assert.assertEquals(5, book.list.size());
+        Assert.assertEquals("xiemalin4", book.list.get(4).name);
+        Assert.assertEquals(Arrays.asList(TypeDefEnum.TEXT, TypeDefEnum.URL), book.typeList);
+    }
+
+    @Test
+    public void testSetField() throws IOException {
+        MessagePatcher<PersonPOJO> patcher = new MessagePatcher<PersonPOJO>(PersonPOJO.class);
+        Codec<PersonPOJO> codec = ProtobufProxy.create(PersonPOJO.class);
+
+        byte[] bb = codec.encode(createPerson(1));
+        bb = patcher.setField(bb, "id", 100);
+        bb = patcher.setField(bb, "email", "xiemalin@baidu.com");
+        PersonPOJO person = codec.decode(bb);
+        Assert.assertEquals(100, person.id);
+        Assert.assertEquals("xiemalin1", person.name);
+        Assert.assertEquals("xiemalin@baidu.com", person.email);
+
+        bb = patcher.setField(bb, "email", null);
+        Assert.assertNull(codec.decode(bb).email);
+    }
+
+    @Test
+    public void testSetObjectField() throws IOException {
+        MessagePatcher<com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO> patcher =
+                new MessagePatcher<com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO>(
+                        com.baidu.bjf.remoting.protobuf.complex.AddressBookProtosPOJO.class);
+        com.baidu.bjf.remoting.protobuf.complex.PersonPOJO person =
+                new com.baidu.bjf.remoting.protobuf.complex.PersonPOJO();
+        person.name = "xiemalin";
+        person.id = 1;
+        person.email = "xiemalin@baidu.com";
+        byte[] bb = patcher.setField(new byte[0], "list", person);
+
+        person.email = null;
+        bb = patcher.setField(bb, "list", person);
+        bb = patcher.setField(bb, "name", "book");
+
+        // previous person is removed instead of merged
+        Person parsed = com.baidu.bjf.remoting.protobuf.complex.AddressBookProtos.AddressBook.parseFrom(bb)
+                .getPerson();
+        Assert.assertEquals(1, parsed.getId());
+        Assert.assertFalse(parsed.hasEmail());
+    }
+
+    @Test
+    public void testRemoveFields() throws IOException {
+        MessagePatcher<AddressBookProtosPOJO> patcher = new MessagePatcher<AddressBookProtosPOJO>(
+                AddressBookProtosPOJO.class);
+        byte[] bb = encodeBook(3);
+        byte[] removed = patcher.removeFields(bb, "list");
+        AddressBookProtosPOJO book = ProtobufProxy.create(AddressBookProtosPOJO.class).decode(removed);
+        Assert.assertNull(book.list);
+        Assert.assertEquals(1, book.typeList.size());
+
+        Assert.assertSame(removed, patcher.removeFields(removed, "list"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFieldName() throws IOException {
+        new MessagePatcher<PersonPOJO>(PersonPOJO.class).setField(new byte[0], "none", 1);
+    }
+
+    @Test
+    public void testSetByteBufferField() throws IOException {
+        MessagePatcher<FramePOJO> patcher = new MessagePatcher<FramePOJO>(FramePOJO.class);
+        Codec<FramePOJO> codec = ProtobufProxy.create(FramePOJO.class);
+
+        FramePOJO frame = new FramePOJO();
+        frame.sequence = 1;
+        frame.payload = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        ByteBuffer payload = ByteBuffer.wrap(new byte[] { 9, 4, 5 });
+        payload.get();
+        byte[] bb = patcher.setField(codec.encode(frame), "payload", payload);
+        Assert.assertEquals(1, payload.position());
+
+        FramePOJO patched = codec.decode(bb);
+        Assert.assertEquals(1, patched.sequence);
+        Assert.assertEquals(ByteBuffer.wrap(new byte[] { 4, 5 }), patched.payload);
+    }
+
+    @Test
+    public void testSetBlobField() throws IOException {
+        MessagePatcher<FileTransferPOJO> patcher = new MessagePatcher<FileTransferPOJO>(FileTransferPOJO.class);
+        Codec<FileTransferPOJO> codec = ProtobufProxy.create(FileTransferPOJO.class);
+
+        FileTransferPOJO file = new FileTransferPOJO();
+        file.name = "a.txt";
+        file.content = Blob.valueOf(new byte[] { 1, 2, 3 });
+        byte[] bb = patcher.setField(codec.encode(file), "content", Blob.valueOf(new byte[] { 4, 5 }));
+
+        FileTransferPOJO patched = codec.decode(bb);
+        Assert.assertEquals("a.txt", patched.name);
+        Assert.assertTrue(Arrays.equals(new byte[] { 4, 5 }, patched.content.toByteArray()));
+    }
+}
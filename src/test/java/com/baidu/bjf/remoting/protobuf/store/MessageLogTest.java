@@ -0,0 +1,152 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+
+/**
+ * Test {@link MessageLogWriter} and {@link MessageLogReader}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class MessageLogTest {
+
+    private File file;
+
+    private Codec<PersonPOJO> codec;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("messages", ".log");
+        codec = ProtobufProxy.create(PersonPOJO.class);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private PersonPOJO createPerson(int id) {
+        PersonPOJO person = new PersonPOJO();
+        person.name = "name" + id;
+        person.id = id;
+        return person;
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final MessageLogWriter<PersonPOJO> writer = new MessageLogWriter<PersonPOJO>(file, codec, true);
+        final int threads = 8;
+        final int times = 50;
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int base = i * times;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < times; j++) {
+                            writer.append(createPerson(base + j));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            producers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        writer.close();
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(threads * times, writer.getCommittedCount());
+        Assert.assertTrue(writer.getBatchCount() <= threads * times);
+        Assert.assertEquals(file.length(), writer.length());
+
+        MessageLogReader<PersonPOJO> reader = new MessageLogReader<PersonPOJO>(file, codec);
+        Set<Integer> ids = new HashSet<Integer>();
+        PersonPOJO person;
+        while ((person = reader.read()) != null) {
+            Assert.assertEquals("name" + person.id, person.name);
+            ids.add(person.id);
+        }
+        reader.close();
+        Assert.assertEquals(threads * times, ids.size());
+        Assert.assertFalse(reader.isCorrupted());
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        MessageLogWriter<PersonPOJO> writer = new MessageLogWriter<PersonPOJO>(file, codec, false);
+        for (int i = 0; i < 10; i++) {
+            writer.append(createPerson(i));
+        }
+        long length = writer.length();
+        writer.close();
+
+        // corrupt payload of the 6th frame
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long frameLength = length / 10;
+        raf.seek(frameLength * 5 + frameLength - 1);
+        raf.write(0x7F);
+        raf.close();
+
+        MessageLogReader<PersonPOJO> reader = new MessageLogReader<PersonPOJO>(file, codec);
+        int count = 0;
+        while (reader.read() != null) {
+            count++;
+        }
+        reader.close();
+        Assert.assertEquals(5, count);
+        Assert.assertTrue(reader.isCorrupted());
+        Assert.assertEquals(frameLength * 5, reader.getValidLength());
+
+        // torn frame is truncated on open
+        writer = new MessageLogWriter<PersonPOJO>(file, codec, false);
+        Assert.assertEquals(frameLength * 5, file.length());
+        writer.append(createPerson(5));
+        writer.close();
+
+        reader = new MessageLogReader<PersonPOJO>(file, codec);
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(i, reader.read().id);
+        }
+        Assert.assertNull(reader.read());
+        Assert.assertFalse(reader.isCorrupted());
+        reader.close();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+
+/**
+ * Test {@link RecordFile}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class RecordFileTest {
+
+    private File file;
+
+    private Codec<PersonPOJO> codec;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("records", ".dat");
+        codec = ProtobufProxy.create(PersonPOJO.class);
+    }
+
+    @After
+    public void tearDown() {
+        String[] suffixes = new String[] { "", RecordFile.INDEX_SUFFIX, RecordFile.COMPACT_SUFFIX,
+                RecordFile.COMPACT_SUFFIX + RecordFile.INDEX_SUFFIX, RecordFile.OLD_SUFFIX,
+                RecordFile.INDEX_SUFFIX + RecordFile.OLD_SUFFIX, RecordFile.MARKER_SUFFIX };
+        for (String suffix : suffixes) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    private void appendPersons(File target, int from, int to) throws IOException {
+        RecordFile<PersonPOJO> records = new RecordFile<PersonPOJO>(target, codec);
+        for (int i = from; i < to; i++) {
+            records.append(createPerson(i));
+        }
+        records.close();
+    }
+
+    private PersonPOJO createPerson(int id) {
+        PersonPOJO person = new PersonPOJO();
+        person.name = "name" + id;
+        person.id = id;
+        person.email = "person" + id + "@baidu.com";
+        return person;
+    }
+
+    @Test
+    public void testAppendAndGet() throws IOException {
+        // small segments to read records crossing segment boundaries
+        RecordFile<PersonPOJO> records = new RecordFile<PersonPOJO>(file, codec, 64);
+        try {
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(i, records.append(createPerson(i)));
+            }
+            Assert.assertEquals(100, records.size());
+            Assert.assertEquals("name50", records.get(50).name);
+            Assert.assertEquals(99, records.get(99).id);
+            Assert.assertEquals(0, records.get(0).id);
+
+            records.append(createPerson(100));
+            Assert.assertEquals("person100@baidu.com", records.get(100).email);
+        } finally {
+            records.close();
+        }
+
+        records = new RecordFile<PersonPOJO>(file, codec, 64);
+        try {
+            Assert.assertEquals(101, records.size());
+            int id = 0;
+            for (PersonPOJO person : records) {
+                Assert.assertEquals(id++, person.id);
+            }
+            Assert.assertEquals(101, id);
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfRange() throws IOException {
+        RecordFile<PersonPOJO> records = new RecordFile<PersonPOJO>(file, codec);
+        try {
+            records.append(createPerson(0));
+            records.get(1);
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        RecordFile<PersonPOJO> records = new RecordFile<PersonPOJO>(file, codec);
+        for (int i = 0; i < 10; i++) {
+            records.append(createPerson(i));
+        }
+        records.close();
+        long length = file.length();
+
+        // lost last index entries and torn tail record
+        File indexFile = new File(file.getPath() + RecordFile.INDEX_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        raf.setLength(raf.length() - 20);
+        raf.close();
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length - 3);
+        raf.close();
+
+        records = new RecordFile<PersonPOJO>(file, codec);
+        try {
+            Assert.assertEquals(9, records.size());
+            Assert.assertEquals(8, records.get(8).id);
+            Assert.assertEquals(9, records.append(createPerson(9)));
+            Assert.assertEquals(length, records.length());
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test
+    public void testRemoveAndCompact() throws IOException {
+        RecordFile<PersonPOJO> records = new RecordFile<PersonPOJO>(file, codec);
+        try {
+            for (int i = 0; i < 10; i++) {
+                records.append(createPerson(i));
+            }
+            Assert.assertTrue(records.remove(3));
+            Assert.assertFalse(records.remove(3));
+            Assert.assertNull(records.get(3));
+
+            Iterator<PersonPOJO> iterator = records.iterator();
+            int count = 0;
+            while (iterator.hasNext()) {
+                PersonPOJO person = iterator.next();
+                Assert.assertTrue(person.id != 3);
+                if (person.id % 2 == 0) {
+                    iterator.remove();
+                }
+                count++;
+            }
+            Assert.assertEquals(9, count);
+
+            long length = records.length();
+            Assert.assertEquals(6, records.compact());
+            Assert.assertEquals(4, records.size());
+            Assert.assertTrue(records.length() < length);
+            Assert.assertEquals(1, records.get(0).id);
+            Assert.assertEquals(9, records.get(3).id);
+
+            Assert.assertEquals(4, records.append(createPerson(10)));
+            Assert.assertEquals(10, records.get(4).id);
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test
+    public void testRecoverCommittedCompact() throws IOException {
+        appendPersons(file, 0, 10);
+        File compactFile = new File(file.getPath() + RecordFile.COMPACT_SUFFIX);
+        appendPersons(compactFile, 5, 10);
+
+        // died after marker is written and data file is moved aside
+        File marker = new File(file.getPath() + RecordFile.MARKER_SUFFIX);
+        Assert.assertTrue(marker.createNewFile());
+        File oldFile = new File(file.getPath() + RecordFile.OLD_SUFFIX);
+        Assert.assertTrue(file.renameTo(oldFile));
+
+        RecordFile<PersonPOJO> records = new RecordFile<PersonPOJO>(file, codec);
+        try {
+            Assert.assertEquals(5, records.size());
+            Assert.assertEquals(5, records.get(0).id);
+            Assert.assertEquals(9, records.get(4).id);
+        } finally {
+            records.close();
+        }
+        Assert.assertFalse(marker.exists());
+        Assert.assertFalse(oldFile.exists());
+        Assert.assertFalse(compactFile.exists());
+        Assert.assertFalse(new File(compactFile.getPath() + RecordFile.INDEX_SUFFIX).exists());
+    }
+
+    @Test
+    public void testRecoverUncommittedCompact() throws IOException {
+        appendPersons(file, 0, 10);
+        File compactFile = new File(file.getPath() + RecordFile.COMPACT_SUFFIX);
+        appendPersons(compactFile, 5, 10);
+
+        // died before marker is written
+        RecordFile<PersonPOJO> records = new RecordFile<PersonPOJO>(file, codec);
+        try {
+            Assert.assertEquals(10, records.size());
+            Assert.assertEquals(0, records.get(0).id);
+        } finally {
+            records.close();
+        }
+        Assert.assertFalse(compactFile.exists());
+        Assert.assertFalse(new File(compactFile.getPath() + RecordFile.INDEX_SUFFIX).exists());
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.stringpool;
+
+import java.util.List;
+
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+
+/**
+ * POJO with deduplicated string fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class HostPOJO {
+
+    @Protobuf(fieldType = FieldType.STRING, order = 1, dedup = true)
+    public String country;
+
+    @Protobuf(fieldType = FieldType.STRING, order = 2, dedup = true)
+    public List<String> tags;
+
+    @Protobuf(fieldType = FieldType.STRING, order = 3)
+    public String name;
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.stringpool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.utils.StringPool;
+
+/**
+ * Test {@link StringPool} and dedup fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class StringPoolTest {
+
+    private HostPOJO createHost(String name) {
+        HostPOJO host = new HostPOJO();
+        host.country = "CN";
+        host.tags = Arrays.asList("online", "beijing");
+        host.name = name;
+        return host;
+    }
+
+    @Test
+    public void testDedupFields() throws IOException {
+        Codec<HostPOJO> codec = ProtobufProxy.create(HostPOJO.class);
+        HostPOJO host1 = codec.decode(codec.encode(createHost("host")));
+        HostPOJO host2 = codec.decode(codec.encode(createHost("host")));
+
+        Assert.assertEquals("CN", host1.country);
+        Assert.assertSame(host1.country, host2.country);
+        Assert.assertSame(host1.tags.get(1), host2.tags.get(1));
+        Assert.assertEquals("host", host1.name);
+        Assert.assertNotSame(host1.name, host2.name);
+    }
+
+    @Test
+    public void testNestedDedupFields() throws IOException {
+        HostListPOJO list = new HostListPOJO();
+        list.hosts = new ArrayList<HostPOJO>();
+        list.hosts.add(createHost("host1"));
+        list.hosts.add(createHost("host2"));
+
+        Codec<HostListPOJO> codec = ProtobufProxy.create(HostListPOJO.class);
+        HostListPOJO decode = codec.decode(codec.encode(list));
+        Assert.assertSame(decode.hosts.get(0).country, decode.hosts.get(1).country);
+        Assert.assertEquals("host2", decode.hosts.get(1).name);
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        StringPool pool = new StringPool(64, 1024 * 1024, 8);
+        byte[] bb = "CN-CN-1234567890".getBytes("UTF-8");
+
+        String s = pool.intern(bb, 0, 2);
+        Assert.assertEquals("CN", s);
+        Assert.assertSame(s, pool.intern(bb, 3, 2));
+        Assert.assertEquals(1, pool.getHitCount());
+        Assert.assertEquals(1, pool.getMissCount());
+        Assert.assertEquals(0.5D, pool.getHitRate());
+
+        // longer than max length
+        String longString = pool.intern(bb, 0, bb.length);
+        Assert.assertNotSame(longString, pool.intern(bb, 0, bb.length));
+        Assert.assertEquals(3, pool.getMissCount());
+
+        pool.clear();
+        Assert.assertEquals(0, pool.getCachedBytes());
+    }
+
+    @Test
+    public void testMemoryCap() throws IOException {
+        StringPool pool = new StringPool(1024, 1000, 128);
+        for (int i = 0; i < 1000; i++) {
+            byte[] bb = ("value" + i).getBytes("UTF-8");
+            Assert.assertEquals("value" + i, pool.intern(bb, 0, bb.length));
+        }
+        Assert.assertTrue(pool.getCachedBytes() > 0);
+        Assert.assertTrue(pool.getCachedBytes() <= 1000);
+
+        // new string is still pooled after cap is reached
+        byte[] bb = "fresh".getBytes("UTF-8");
+        Assert.assertSame(pool.intern(bb, 0, bb.length), pool.intern(bb, 0, bb.length));
+        Assert.assertTrue(pool.getCachedBytes() <= 1000);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDedupOnInvalidType() {
+        ProtobufProxy.create(InvalidDedupPOJO.class);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.unknownfields;
+
+import com.baidu.bjf.remoting.protobuf.FieldType;
+import com.baidu.bjf.remoting.protobuf.UnknownFieldsAware;
+import com.baidu.bjf.remoting.protobuf.annotation.Protobuf;
+
+/**
+ * Older version of {@link com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO} which keeps unknown fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class OldPersonPOJO implements UnknownFieldsAware {
+
+    @Protobuf(fieldType = FieldType.STRING, order = 1, required = true)
+    public String name;
+
+    @Protobuf(fieldType = FieldType.INT32, order = 2, required = true)
+    public int id;
+
+    private byte[] unknownFields;
+
+    public byte[] getUnknownFields() {
+        return unknownFields;
+    }
+
+    public void setUnknownFields(byte[] unknownFields) {
+        this.unknownFields = unknownFields;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.unknownfields;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.AddressBook;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.Person;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtos.TypeDef;
+import com.google.protobuf.ByteString;
+
+/**
+ * Test unknown fields are kept on decode and written back on encode
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class UnknownFieldsTest {
+
+    private Person createPerson() {
+        return Person.newBuilder().setName("xiemalin").setId(100).setEmail("xiemalin@baidu.com")
+                .setDoubleF(1.5D).setBytesF(ByteString.copyFrom(new byte[] { 1, 2 })).setBoolF(true).build();
+    }
+
+    @Test
+    public void testPassThrough() throws IOException {
+        Person person = createPerson();
+
+        Codec<OldPersonPOJO> codec = ProtobufProxy.create(OldPersonPOJO.class);
+        OldPersonPOJO decode = codec.decode(person.toByteArray());
+        Assert.assertEquals("xiemalin", decode.name);
+        Assert.assertNotNull(decode.getUnknownFields());
+
+        decode.id = 200;
+        byte[] bb = codec.encode(decode);
+        Assert.assertEquals(codec.size(decode), bb.length);
+
+        Person parsed = Person.parseFrom(bb);
+        Assert.assertEquals(person.toBuilder().setId(200).build(), parsed);
+    }
+
+    @Test
+    public void testNestedPassThrough() throws IOException {
+        Person person = createPerson();
+        AddressBook book = AddressBook.newBuilder().addPerson(person).addPerson(person).addTypeDef(TypeDef.URL)
+                .build();
+
+        Codec<OldAddressBookPOJO> codec = ProtobufProxy.create(OldAddressBookPOJO.class);
+        OldAddressBookPOJO decode = codec.decode(book.toByteArray());
+        Assert.assertEquals(2, decode.list.size());
+
+        AddressBook parsed = AddressBook.parseFrom(codec.encode(decode));
+        Assert.assertEquals(2, parsed.getPersonCount());
+        Assert.assertEquals(person, parsed.getPerson(1));
+    }
+
+    @Test
+    public void testNoUnknownFields() throws IOException {
+        Person person = Person.newBuilder().setName("xiemalin").setId(100).build();
+
+        Codec<OldPersonPOJO> codec = ProtobufProxy.create(OldPersonPOJO.class);
+        OldPersonPOJO decode = codec.decode(person.toByteArray());
+        Assert.assertNull(decode.getUnknownFields());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.utf8cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.Codec;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.utils.Utf8Cache;
+import com.google.protobuf.ByteString;
+
+/**
+ * Test {@link Utf8Cache} and UTF-8 cached fields
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class Utf8CacheTest {
+
+    @Test
+    public void testCachedFields() throws IOException {
+        Codec<ServicePOJO> codec = ProtobufProxy.create(ServicePOJO.class);
+        ServicePOJO pojo = new ServicePOJO();
+        pojo.service = "user-service-中文";
+        pojo.status = "OK";
+        pojo.latency = 10;
+
+        long hit = Utf8Cache.getDefault().getHitCount();
+        byte[] bytes = codec.encode(pojo);
+        Assert.assertTrue(Arrays.equals(bytes, codec.encode(pojo)));
+        Assert.assertTrue(Utf8Cache.getDefault().getHitCount() >= hit + 2);
+
+        ServicePOJO decode = codec.decode(bytes);
+        Assert.assertEquals(pojo.service, decode.service);
+        Assert.assertEquals("OK", decode.status);
+        Assert.assertEquals(10, decode.latency);
+
+        // null optional value
+        pojo.service = null;
+        decode = codec.decode(codec.encode(pojo));
+        Assert.assertNull(decode.service);
+        Assert.assertEquals("OK", decode.status);
+    }
+
+    @Test
+    public void testMetrics() {
+        Utf8Cache cache = new Utf8Cache(64, 1024 * 1024, 8);
+        ByteString bytes = cache.get("CN");
+        Assert.assertEquals("CN", bytes.toStringUtf8());
+        Assert.assertSame(bytes, cache.get(new String("CN")));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(0.5D, cache.getHitRate());
+        // retained string is counted besides its bytes
+        Assert.assertTrue(cache.getCachedBytes() >= "CN".length() * 2 + bytes.size());
+
+        // longer than max length
+        String longString = "1234567890";
+        Assert.assertNotSame(cache.get(longString), cache.get(longString));
+        Assert.assertEquals(3, cache.getMissCount());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testMemoryCap() {
+        Utf8Cache cache = new Utf8Cache(1024, 1000, 128);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals("value" + i, cache.get("value" + i).toStringUtf8());
+        }
+        Assert.assertTrue(cache.getCachedBytes() > 0);
+        Assert.assertTrue(cache.getCachedBytes() <= 1000);
+
+        // new string is still cached after cap is reached
+        Assert.assertSame(cache.get("fresh"), cache.get("fresh"));
+        Assert.assertTrue(cache.getCachedBytes() <= 1000);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCacheOnInvalidType() {
+        ProtobufProxy.create(InvalidUtf8CachePOJO.class);
+    }
+}
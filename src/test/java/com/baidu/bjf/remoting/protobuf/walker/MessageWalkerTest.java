@@ -0,0 +1,367 @@
+/*
+ * Copyright 2002-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.bjf.remoting.protobuf.walker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.baidu.bjf.remoting.protobuf.EncodedMessage;
+import com.baidu.bjf.remoting.protobuf.MessageWalker;
+import com.baidu.bjf.remoting.protobuf.ProtobufProxy;
+import com.baidu.bjf.remoting.protobuf.complexList.AddressBookProtosPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.PersonPOJO;
+import com.baidu.bjf.remoting.protobuf.complexList.TypeDefEnum;
+import com.baidu.bjf.remoting.protobuf.encodedmessage.EnvelopePOJO;
+import com.baidu.bjf.remoting.protobuf.encodedmessage.ListEnvelopePOJO;
+import com.baidu.bjf.remoting.protobuf.simpletypes.AllTypesDojoClass;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Test {@link MessageWalker}
+ *
+ * @author xiemalin
+ * @since 1.7.4
+ */
+public class MessageWalkerTest {
+
+    private byte[] encodeAddressBook(int count) throws IOException {
+        AddressBookProtosPOJO book = new AddressBookProtosPOJO();
+        book.list = new ArrayList<PersonPOJO>();
+        for (int i = 0; i < count; i++) {
+            PersonPOJO person = new PersonPOJO();
+            person.name = "name" + i;
+            person.id = i;
+            person.email = i % 2 == 0 ? "中文😀" + i : null;
+            book.list.add(person);
+        }
+        book.typeList = Arrays.asList(TypeDefEnum.values());
+        return ProtobufProxy.create(AddressBookProtosPOJO.class).encode(book);
+    }
+
+    @Test
+    public void testAggregate() throws IOException {
+        byte[] bytes = encodeAddressBook(1000);
+        final int listOrder = MessageWalker.create(AddressBookProtosPOJO.class).getOrder("list");
+        final int idOrder = MessageWalker.create(PersonPOJO.class).getOrder("id");
+        final int emailOrder = MessageWalker.create(PersonPOJO.class).getOrder("email");
+        final long[] counts = new long[4];
+        final List<String> emails = new ArrayList<String>();
+        MessageWalker.create(AddressBookProtosPOJO.class).walk(bytes, new MessageWalker.VisitorAdapter() {
+
+            private int depth;
+
+            public void enterMessage(int order) {
+                depth++;
+                if (order == listOrder) {
+                    counts[0]++;
+                }
+            }
+
+            public void exitMessage(int order) {
+                depth--;
+                counts[1]++;
+            }
+
+            public void onInt(int order, int value) {
+                if (depth == 1 && order == idOrder) {
+                    counts[2] += value;
+                } else if (depth == 0) {
+                    counts[3]++;
+                }
+            }
+
+            public void onString(int order, CharSequence value) {
+                if (order == emailOrder) {
+                    emails.add(value.toString());
+                }
+            }
+        });
+        Assert.assertEquals(1000, counts[0]);
+        Assert.assertEquals(1000, counts[1]);
+        Assert.assertEquals(999 * 1000 / 2, counts[2]);
+        Assert.assertEquals(TypeDefEnum.values().length, counts[3]);
+        Assert.assertEquals(500, emails.size());
+        Assert.assertEquals("中文😀998", emails.get(499));
+    }
+
+    @Test
+    public void testAllTypes() throws IOException {
+        AllTypesDojoClass c = new AllTypesDojoClass();
+        c.doubleF = 1.5d;
+        c.floatF = 2.5f;
+        c.int32F = -3;
+        c.int64F = -4L;
+        c.uint32F = 5;
+        c.uint64F = 6L;
+        c.sint32F = -7;
+        c.sint64F = -8L;
+        c.fixed32F = 9;
+        c.fixed64F = 10L;
+        c.sfixed32F = -11;
+        c.sfixed64F = -12L;
+        c.boolF = true;
+        c.stringF = "hello";
+        c.bytesF = new byte[] { 1, 2, 3 };
+        byte[] bytes = ProtobufProxy.create(AllTypesDojoClass.class).encode(c);
+
+        final List<Object> values = new ArrayList<Object>();
+        MessageWalker.create(AllTypesDojoClass.class).walk(ByteBuffer.wrap(bytes), new MessageWalker.Visitor() {
+
+            public void onInt(int order, int value) {
+                values.add(order + "=" + value);
+            }
+
+            public void onLong(int order, long value) {
+                values.add(order + "=" + value);
+            }
+
+            public void onFloat(int order, float value) {
+                values.add(order + "=" + value);
+            }
+
+            public void onDouble(int order, double value) {
+                values.add(order + "=" + value);
+            }
+
+            public void onBool(int order, boolean value) {
+                values.add(order + "=" + value);
+            }
+
+            public void onString(int order, CharSequence value) {
+                values.add(order + "=" + value);
+            }
+
+            public void onBytes(int order, ByteBuffer value) {
+                byte[] b = new byte[value.remaining()];
+                value.get(b);
+                values.add(order + "=" + Arrays.toString(b));
+            }
+
+            public void enterMessage(int order) {
+                values.add("enter" + order);
+            }
+
+            public void exitMessage(int order) {
+                values.add("exit" + order);
+            }
+        });
+        Assert.assertTrue(values.contains("1=1.5"));
+        Assert.assertTrue(values.contains("2=2.5"));
+        Assert.assertTrue(values.contains("3=-3"));
+        Assert.assertTrue(values.contains("4=-4"));
+        Assert.assertTrue(values.contains("5=5"));
+        Assert.assertTrue(values.contains("6=6"));
+        Assert.assertTrue(values.contains("7=-7"));
+        Assert.assertTrue(values.contains("8=-8"));
+        Assert.assertTrue(values.contains("9=9"));
+        Assert.assertTrue(values.contains("10=10"));
+        Assert.assertTrue(values.contains("11=-11"));
+        Assert.assertTrue(values.contains("12=-12"));
+        Assert.assertTrue(values.contains("13=true"));
+        Assert.assertTrue(values.contains("14=hello"));
+        Assert.assertTrue(values.contains("15=[1, 2, 3]"));
+        Assert.assertEquals(15, values.size());
+    }
+
+    @Test
+    public void testDirectBuffer() throws IOException {
+        byte[] bytes = encodeAddressBook(10);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        final int[] count = new int[1];
+        MessageWalker.create(AddressBookProtosPOJO.class).walk(buffer, new MessageWalker.VisitorAdapter() {
+            public void enterMessage(int order) {
+                count[0]++;
+            }
+        });
+        Assert.assertEquals(10, count[0]);
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] bytes = encodeAddressBook(10);
+        try {
+            MessageWalker.create(AddressBookProtosPOJO.class).walk(Arrays.copyOf(bytes, bytes.length - 3),
+                    new MessageWalker.VisitorAdapter());
+            Assert.fail("Should throw exception on truncated message");
+        } catch (IOException e) {
+            Assert.assertNotNull(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testHugeLengthPrefix() throws IOException {
+        byte[] bytes = encodeAddressBook(1);
+        int listOrder = MessageWalker.create(AddressBookProtosPOJO.class).getOrder("list");
+        // known and unknown length delimited fields with max length after existing bytes
+        int[] orders = new int[] { listOrder, 100 };
+        for (int order : orders) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            CodedOutputStream output = CodedOutputStream.newInstance(baos);
+            output.writeRawBytes(bytes);
+            output.writeTag(order, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeRawVarint32(Integer.MAX_VALUE);
+            output.writeRawBytes(new byte[] { 1, 2, 3 });
+            output.flush();
+            try {
+                MessageWalker.create(AddressBookProtosPOJO.class).walk(baos.toByteArray(),
+                        new MessageWalker.VisitorAdapter());
+                Assert.fail("Should throw exception on huge length prefix");
+            } catch (IOException e) {
+                Assert.assertNotNull(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testEncodedMessageFields() throws IOException {
+        byte[] bytes = encodeAddressBook(10);
+        final int listOrder = MessageWalker.create(ListEnvelopePOJO.class).getOrder("list");
+        final int idOrder = MessageWalker.create(PersonPOJO.class).getOrder("id");
+        final long[] counts = new long[2];
+        MessageWalker.create(ListEnvelopePOJO.class).walk(bytes, new MessageWalker.VisitorAdapter() {
+
+            private int depth;
+
+            public void enterMessage(int order) {
+                depth++;
+                if (order == listOrder) {
+                    counts[0]++;
+                }
+            }
+
+            public void exitMessage(int order) {
+                depth--;
+            }
+
+            public void onInt(int order, int value) {
+                if (depth == 1 && order == idOrder) {
+                    counts[1] += value;
+                }
+            }
+        });
+        Assert.assertEquals(10, counts[0]);
+        Assert.assertEquals(45, counts[1]);
+
+        // person of list envelope has the same wire format as person of single envelope
+        PersonPOJO person = new PersonPOJO();
+        person.name = "xiemalin";
+        person.id = 100;
+        EnvelopePOJO envelope = new EnvelopePOJO();
+        envelope.person = new EncodedMessage<com.baidu.bjf.remoting.protobuf.complex.PersonPOJO>(
+                ProtobufProxy.create(PersonPOJO.class).encode(person));
+        envelope.name = "envelope";
+        final List<String> names = new ArrayList<String>();
+        MessageWalker.create(EnvelopePOJO.class).walk(ProtobufProxy.create(EnvelopePOJO.class).encode(envelope),
+                new MessageWalker.VisitorAdapter() {
+
+                    public void onString(int order, CharSequence value) {
+                        names.add(value.toString());
+                    }
+                });
+        Assert.assertEquals(Arrays.asList("xiemalin", "envelope"), names);
+    }
+
+    private byte[] encodeTree(int depth, String name) throws IOException {
+        byte[] bytes = new byte[0];
+        for (int i = 0; i <= depth; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            CodedOutputStream output = CodedOutputStream.newInstance(baos);
+            if (bytes.length > 0) {
+                output.writeBytes(1, ByteString.copyFrom(bytes));
+            }
+            output.writeString(2, name);
+            output.flush();
+            bytes = baos.toByteArray();
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testRecursionLimit() throws IOException {
+        final int[] maxDepth = new int[1];
+        MessageWalker.Visitor visitor = new MessageWalker.VisitorAdapter() {
+
+            private int depth;
+
+            public void enterMessage(int order) {
+                depth++;
+                maxDepth[0] = Math.max(maxDepth[0], depth);
+            }
+
+            public void exitMessage(int order) {
+                depth--;
+            }
+        };
+        MessageWalker<TreeNodePOJO> walker = MessageWalker.create(TreeNodePOJO.class);
+        walker.walk(encodeTree(64, "node"), visitor);
+        Assert.assertEquals(64, maxDepth[0]);
+
+        try {
+            walker.walk(encodeTree(65, "node"), visitor);
+            Assert.fail("Should reject message nested over recursion limit");
+        } catch (InvalidProtocolBufferException e) {
+            Assert.assertTrue(e.getMessage().indexOf("nesting") != -1);
+        }
+
+        // unknown nested groups
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(baos);
+        for (int i = 0; i < 100; i++) {
+            output.writeTag(100, WireFormat.WIRETYPE_START_GROUP);
+        }
+        for (int i = 0; i < 100; i++) {
+            output.writeTag(100, WireFormat.WIRETYPE_END_GROUP);
+        }
+        output.flush();
+        try {
+            walker.walk(baos.toByteArray(), visitor);
+            Assert.fail("Should reject groups nested over recursion limit");
+        } catch (InvalidProtocolBufferException e) {
+            Assert.assertTrue(e.getMessage().indexOf("nesting") != -1);
+        }
+    }
+
+    @Test
+    public void testLargeString() throws IOException {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            name.append("中");
+        }
+        final List<String> names = new ArrayList<String>();
+        MessageWalker.create(TreeNodePOJO.class).walk(encodeTree(1, name.toString()),
+                new MessageWalker.VisitorAdapter() {
+                    public void onString(int order, CharSequence value) {
+                        names.add(value.toString());
+                    }
+                });
+        Assert.assertEquals(2, names.size());
+        Assert.assertEquals(name.toString(), names.get(0));
+        Assert.assertEquals(name.toString(), names.get(1));
+    }
+}